@@ -0,0 +1,75 @@
+package com.example.pescAstur.benchmark;
+
+import com.example.pescAstur.model.Product;
+import com.example.pescAstur.service.ProductRatings;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Catálogo sintético para los benchmarks, generado siempre igual (semilla fija) para que las mediciones
+ * sean comparables entre ejecuciones. Los productos tienen el tamaño y la forma de los de la tienda:
+ * descripciones de varias frases, comentarios y valoraciones agregadas.
+ */
+public final class BenchmarkCatalog {
+
+    private static final String[] CATEGORIAS = {"Cañas", "Carretes", "Señuelos", "Anzuelos", "Ropa", "Accesorios"};
+    private static final String[] MARCAS = {"Shimano", "Daiwa", "Penn", "Rapala", "Mustad", "Okuma"};
+    private static final String[] PALABRAS = {"pesca", "río", "mar", "trucha", "salmón", "lubina", "ligero",
+            "resistente", "carbono", "acero", "profesional", "asturiano", "spinning", "surfcasting", "mosca"};
+
+    private BenchmarkCatalog() {
+    }
+
+    /**
+     * Genera un catálogo de productos.
+     * @param size Número de productos.
+     * @return Productos generados.
+     */
+    public static List<Product> products(int size) {
+        Random random = new Random(42);
+        List<Product> products = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Product product = new Product();
+            product.setUID(String.format("P%06d", i));
+            product.setNombre(text(random, 3) + " " + i);
+            product.setCategoria(CATEGORIAS[random.nextInt(CATEGORIAS.length)]);
+            product.setMarca(MARCAS[random.nextInt(MARCAS.length)]);
+            product.setDescripcion(text(random, 40));
+            product.setDimensiones(random.nextInt(300) + "x" + random.nextInt(30) + "x" + random.nextInt(30) + " cm");
+            product.setPeso(random.nextInt(2000) + " g");
+            product.setFechaCreacion(String.format("%02d/%02d/%d", 1 + random.nextInt(28), 1 + random.nextInt(12), 2020 + random.nextInt(5)));
+            product.setImagenURL("https://firebasestorage.googleapis.com/v0/b/pescastur.appspot.com/o/products%2F" + product.getUID() + ".jpg");
+            product.setPrecio(Math.round(random.nextDouble() * 50000) / 100.0);
+            product.setCoste(Math.round(product.getPrecio() * 60) / 100.0);
+            product.setDescuento(random.nextInt(4) * 5);
+            product.setCantidadStock(random.nextInt(500));
+            List<Integer> ratings = new ArrayList<>();
+            int numRatings = random.nextInt(50);
+            for (int j = 0; j < numRatings; j++) {
+                ratings.add(1 + random.nextInt(5));
+            }
+            product.setValoraciones(ProductRatings.fromRatings(ratings));
+            List<String> comentarios = new ArrayList<>();
+            int numComentarios = random.nextInt(8);
+            for (int j = 0; j < numComentarios; j++) {
+                comentarios.add(text(random, 15));
+            }
+            product.setComentarios(comentarios);
+            products.add(product);
+        }
+        return products;
+    }
+
+    private static String text(Random random, int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(PALABRAS[random.nextInt(PALABRAS.length)]);
+        }
+        return text.toString();
+    }
+}
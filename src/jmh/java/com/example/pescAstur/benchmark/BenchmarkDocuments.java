@@ -0,0 +1,62 @@
+package com.example.pescAstur.benchmark;
+
+import com.google.cloud.NoCredentials;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreOptions;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Construye DocumentSnapshot reales, con los campos codificados igual que los recibidos de Firestore,
+ * sin conectarse a ningún servidor. Las factorías de DocumentSnapshot no son públicas, así que se invocan
+ * por reflexión; solo se usa en los benchmarks.
+ */
+final class BenchmarkDocuments {
+
+    private BenchmarkDocuments() {
+    }
+
+    /**
+     * Crea documentos de una colección.
+     * @param collection Nombre de la colección.
+     * @param documents Campos de cada documento por su identificador.
+     * @return Documentos en el orden del mapa.
+     */
+    static List<DocumentSnapshot> create(String collection, Map<String, Map<String, Object>> documents) {
+        Firestore firestore = FirestoreOptions.newBuilder()
+                .setProjectId("benchmark")
+                .setCredentials(NoCredentials.getInstance())
+                .build()
+                .getService();
+        try {
+            // DocumentSnapshot.fromObject(FirestoreRpcContext, DocumentReference, Map, UserDataConverter.EncodingOptions)
+            Method fromObject = null;
+            for (Method method : DocumentSnapshot.class.getDeclaredMethods()) {
+                if (method.getName().equals("fromObject") && method.getParameterCount() == 4) {
+                    fromObject = method;
+                }
+            }
+            if (fromObject == null) {
+                throw new IllegalStateException("DocumentSnapshot.fromObject no encontrado");
+            }
+            fromObject.setAccessible(true);
+            Field noDeletes = Class.forName("com.google.cloud.firestore.UserDataConverter").getDeclaredField("NO_DELETES");
+            noDeletes.setAccessible(true);
+            Object options = noDeletes.get(null);
+            List<DocumentSnapshot> snapshots = new ArrayList<>(documents.size());
+            for (Map.Entry<String, Map<String, Object>> document : documents.entrySet()) {
+                DocumentReference reference = firestore.collection(collection).document(document.getKey());
+                snapshots.add((DocumentSnapshot) fromObject.invoke(null, firestore, reference, document.getValue(), options));
+            }
+            return snapshots;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No se pueden construir documentos de Firestore para el benchmark", e);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.pescAstur.benchmark;
+
+import com.example.pescAstur.model.Product;
+import com.example.pescAstur.service.ProductDocumentCodec;
+import com.example.pescAstur.service.ProductRatings;
+import com.google.cloud.firestore.DocumentSnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compara la conversión de una consulta grande de la colección products con
+ * {@code DocumentSnapshot.toObject(Product.class)} (mapeo por reflexión) y con {@link ProductDocumentCodec}.
+ * {@code getData} mide solo la decodificación de los campos, común a ambos caminos.
+ * Ejecución: {@code mvn -Pbenchmark test-compile exec:exec -Djmh.args="ProductDocumentCodecBenchmark -prof gc"}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductDocumentCodecBenchmark {
+
+    @Param({"2000"})
+    private int size;
+
+    private List<DocumentSnapshot> documents;
+
+    @Setup
+    public void setUp() {
+        Map<String, Map<String, Object>> data = new LinkedHashMap<>();
+        for (Product product : BenchmarkCatalog.products(size)) {
+            data.put(product.getUID(), ProductDocumentCodec.toData(product));
+        }
+        documents = BenchmarkDocuments.create("products", data);
+    }
+
+    @Benchmark
+    public void getData(Blackhole blackhole) {
+        for (DocumentSnapshot document : documents) {
+            blackhole.consume(document.getData());
+        }
+    }
+
+    @Benchmark
+    public void toObject(Blackhole blackhole) {
+        for (DocumentSnapshot document : documents) {
+            // Conversión anterior de FirestoreService.toProduct
+            Product product = document.toObject(Product.class);
+            product.setUID(document.getId());
+            if (product.getValoraciones() == null && product.getRating() != null && !product.getRating().isEmpty()) {
+                product.setValoraciones(ProductRatings.fromRatings(product.getRating()));
+            }
+            product.setRating(null);
+            blackhole.consume(product);
+        }
+    }
+
+    @Benchmark
+    public void codec(Blackhole blackhole) {
+        for (DocumentSnapshot document : documents) {
+            blackhole.consume(ProductDocumentCodec.fromDocument(document));
+        }
+    }
+}
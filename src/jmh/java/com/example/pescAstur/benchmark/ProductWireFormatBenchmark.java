@@ -0,0 +1,65 @@
+package com.example.pescAstur.benchmark;
+
+import com.example.pescAstur.model.Product;
+import com.example.pescAstur.service.WireFormat;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compara el coste de codificar y decodificar el catálogo completo (lo que devuelve /api/products/all)
+ * en JSON, CBOR y Smile. El tamaño de cada codificación se muestra al preparar el estado.
+ * Ejecución: {@code mvn -Pbenchmark test-compile exec:exec -Djmh.args="ProductWireFormatBenchmark"}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductWireFormatBenchmark {
+
+    private static final TypeReference<List<Product>> PRODUCT_LIST = new TypeReference<>() {
+    };
+
+    @Param({"JSON", "CBOR", "SMILE"})
+    private WireFormat format;
+
+    @Param({"2000"})
+    private int size;
+
+    private ObjectMapper mapper;
+    private List<Product> products;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws Exception {
+        mapper = format.mapper(new ObjectMapper());
+        products = BenchmarkCatalog.products(size);
+        encoded = mapper.writeValueAsBytes(products);
+        System.out.printf("%n%s: %d productos -> %d bytes%n", format, size, encoded.length);
+    }
+
+    @Benchmark
+    public byte[] encode() throws Exception {
+        return mapper.writeValueAsBytes(products);
+    }
+
+    @Benchmark
+    public List<Product> decode() throws Exception {
+        return mapper.readValue(encoded, PRODUCT_LIST);
+    }
+}
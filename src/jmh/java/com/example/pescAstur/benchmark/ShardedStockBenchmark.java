@@ -0,0 +1,129 @@
+package com.example.pescAstur.benchmark;
+
+import com.example.pescAstur.service.StockShards;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Compara los pedidos por segundo que admite un producto con muchos pedidos simultáneos con el stock en un único
+ * documento ({@code fragmentos=1}) y repartido en fragmentos. Firestore bloquea los documentos que lee una
+ * transacción hasta que confirma, así que las escrituras sobre un mismo documento se aplican de una en una; aquí
+ * cada documento se modela con un cerrojo que se mantiene durante la latencia de la confirmación
+ * ({@code writeMicros}). Cada pedido sigue los pasos de la transacción del servicio: lee el fragmento elegido con
+ * {@link StockShards#firstShard(int)}, solo si no alcanza lee todos los demás, y reparte lo que descuenta con
+ * {@link StockShards#take(long[], int, long)}. Con {@code vacios} parte de los fragmentos empiezan sin stock.
+ * Ejecución: {@code mvn -Pbenchmark test-compile exec:exec -Djmh.args="ShardedStockBenchmark"}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@Threads(32)
+public class ShardedStockBenchmark {
+
+    @Param({"1", "4", "16"})
+    private int fragmentos;
+
+    // Porcentaje de fragmentos sin stock
+    @Param({"0", "75"})
+    private int vacios;
+
+    @Param({"1"})
+    private long cantidad;
+
+    @Param({"200"})
+    private long writeMicros;
+
+    private SimulatedDocument[] shards;
+
+    @Setup
+    public void setUp() {
+        long[] stock = StockShards.split(Long.MAX_VALUE / 4, fragmentos);
+        for (int i = 0; i < fragmentos * vacios / 100; i++) {
+            stock[i] = 0;
+        }
+        shards = new SimulatedDocument[fragmentos];
+        for (int i = 0; i < fragmentos; i++) {
+            shards[i] = new SimulatedDocument(stock[i]);
+        }
+    }
+
+    /**
+     * Aplica un pedido de {@code cantidad} unidades en una transacción, como StockLine en el servicio.
+     * @return true si había stock suficiente.
+     */
+    @Benchmark
+    public boolean order() {
+        int start = StockShards.firstShard(fragmentos);
+        SimulatedDocument first = shards[start];
+        first.lock.lock();
+        try {
+            if (first.stock >= cantidad) {
+                commit();
+                first.stock -= cantidad;
+                return true;
+            }
+        } finally {
+            first.lock.unlock();
+        }
+        // El fragmento elegido no alcanza: se repite la transacción leyendo todos los fragmentos. Los cerrojos
+        // se toman en orden para que dos pedidos no se bloqueen entre sí
+        for (SimulatedDocument shard : shards) {
+            shard.lock.lock();
+        }
+        try {
+            long[] available = new long[fragmentos];
+            for (int i = 0; i < fragmentos; i++) {
+                available[i] = shards[i].stock;
+            }
+            long[] taken = StockShards.take(available, start, cantidad);
+            if (taken == null) {
+                return false;
+            }
+            commit();
+            for (int i = 0; i < fragmentos; i++) {
+                shards[i].stock -= taken[i];
+            }
+            return true;
+        } finally {
+            for (int i = fragmentos - 1; i >= 0; i--) {
+                shards[i].lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Latencia de confirmar la transacción, durante la que siguen bloqueados los documentos leídos.
+     */
+    private void commit() {
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(writeMicros));
+    }
+
+    /**
+     * Documento de Firestore simulado: stock y cerrojo que toma la transacción que lo lee.
+     */
+    private static final class SimulatedDocument {
+        private final ReentrantLock lock = new ReentrantLock();
+        private long stock;
+
+        private SimulatedDocument(long stock) {
+            this.stock = stock;
+        }
+    }
+}
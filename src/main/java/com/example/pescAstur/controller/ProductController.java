@@ -1,41 +1,416 @@
 package com.example.pescAstur.controller;
 
+import com.example.pescAstur.model.IdempotentResponse;
 import com.example.pescAstur.model.Product;
+import com.example.pescAstur.model.ProductCacheStats;
+import com.example.pescAstur.model.ProductFacetResult;
+import com.example.pescAstur.model.ProductLookup;
+import com.example.pescAstur.model.ProductPage;
+import com.example.pescAstur.model.ProductRecommendation;
+import com.example.pescAstur.model.ProductSearchHit;
+import com.example.pescAstur.model.ProductSuggestion;
+import com.example.pescAstur.model.ProductSyncResult;
+import com.example.pescAstur.model.StockUpdateStats;
+import com.example.pescAstur.service.CatalogResponseCache;
+import com.example.pescAstur.service.CatalogResponseCache.CachedResponse;
+import com.example.pescAstur.service.ContentEncoding;
 import com.example.pescAstur.service.FirestoreService;
+import com.example.pescAstur.service.IdempotencyService;
+import com.example.pescAstur.service.ProductCatalogService;
+import com.example.pescAstur.service.ProductFacetService;
+import com.example.pescAstur.service.ProductProjection;
+import com.example.pescAstur.service.ProductRankingService;
+import com.example.pescAstur.service.ProductRecommendationService;
+import com.example.pescAstur.service.ProductSearchService;
+import com.example.pescAstur.service.ProductSuggestService;
+import com.example.pescAstur.service.StockReservationService;
+import com.example.pescAstur.service.StockUpdateCoalescer;
+import com.example.pescAstur.service.StockUpdateResult;
+import com.example.pescAstur.service.WireFormat;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 
 @RestController
 @RequestMapping("/api/products")
 
 public class ProductController {
 
+    private static final int MAX_PAGE_SIZE = 100;
+    private static final int MAX_SEARCH_RESULTS = 100;
+    private static final int MAX_BATCH_SIZE = 100;
+    private static final int EXPORT_FLUSH_INTERVAL = 64;
+    private static final String NDJSON = "application/x-ndjson";
+
     @Autowired
     private FirestoreService firestoreService;
 
+    @Autowired
+    private ProductCatalogService productCatalogService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private CatalogResponseCache catalogResponseCache;
+
+    @Autowired
+    private ProductSearchService productSearchService;
+
+    @Autowired
+    private ProductFacetService productFacetService;
+
+    @Autowired
+    private ProductRankingService productRankingService;
+
+    @Autowired
+    private ProductSuggestService productSuggestService;
+
+    @Autowired
+    private ProductRecommendationService productRecommendationService;
+
+    @Autowired
+    private StockReservationService stockReservationService;
+
+    @Autowired
+    private StockUpdateCoalescer stockUpdateCoalescer;
+
+    @Autowired
+    private IdempotencyService idempotencyService;
+
     /**
-     * Obtiene todos los productos almacenados en Firestore.
-     * @return Lista de productos.
+     * Obtiene todos los productos desde el catálogo en memoria, que se mantiene sincronizado con Firestore.
+     * La respuesta se sirve ya serializada con un ETag; si coincide con If-None-Match se responde 304.
+     * @param fields Campos a devolver separados por comas (por ejemplo {@code nombre,precio,imagenURL,cantidadStock});
+     *               si se omite se devuelven los productos completos.
+     * @param accept Cabecera Accept: {@code application/cbor} o {@code application/x-jackson-smile} para una
+     *               codificación binaria; en otro caso JSON.
+     * @param acceptEncoding Cabecera Accept-Encoding: la respuesta se sirve ya comprimida con brotli o gzip si se aceptan.
+     * @return Lista de productos o de vistas reducidas en el formato pedido.
      * @throws ExecutionException
      * @throws InterruptedException
      */
     @GetMapping("/all")
-    public ResponseEntity<List<Product>> getAllProducts() {
+    public ResponseEntity<byte[]> getAllProducts(@RequestParam(required = false) String fields,
+                                                 @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+                                                 @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        try {
+            Set<String> projection = ProductProjection.parseFields(fields);
+            WireFormat format = WireFormat.negotiate(accept);
+            CachedResponse response = catalogResponseCache.get("all?fields=" + projection, format, () -> {
+                if (projection == null) {
+                    return productCatalogService.getAllProducts();
+                }
+                return ProductProjection.project(productCatalogService.getAllProducts(projection), projection);
+            });
+            return cachedResponse(response, acceptEncoding);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (ExecutionException | InterruptedException e) {
+            e.printStackTrace();
+            return ResponseEntity.status(500).build();
+        }
+    }
+
+    /**
+     * Obtiene una página de productos ordenados por UID.
+     * La respuesta se sirve ya serializada con un ETag; si coincide con If-None-Match se responde 304.
+     * @param pageSize Número de productos por página (entre 1 y 100).
+     * @param cursor Cursor devuelto en la página anterior; se omite para pedir la primera.
+     * @param fields Campos a devolver separados por comas; si se omite se devuelven los productos completos.
+     * @param accept Cabecera Accept; admite los mismos formatos binarios que {@code /all}.
+     * @param acceptEncoding Cabecera Accept-Encoding; admite las mismas compresiones que {@code /all}.
+     * @return Página de productos con el cursor de la siguiente en el formato pedido.
+     */
+    @GetMapping("/page")
+    public ResponseEntity<byte[]> getProductsPage(@RequestParam(defaultValue = "20") int pageSize,
+                                                  @RequestParam(required = false) String cursor,
+                                                  @RequestParam(required = false) String fields,
+                                                  @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+                                                 @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
         try {
-            List<Product> products = firestoreService.getAllProducts();
-            return ResponseEntity.ok(products);
+            Set<String> projection = ProductProjection.parseFields(fields);
+            String key = "page?pageSize=" + pageSize + "&cursor=" + cursor + "&fields=" + projection;
+            CachedResponse response = catalogResponseCache.get(key, WireFormat.negotiate(accept), () -> {
+                ProductPage<Product> page = productCatalogService.getProductsPage(pageSize, cursor, projection);
+                if (projection == null) {
+                    return page;
+                }
+                return new ProductPage<>(ProductProjection.project(page.getProductos(), projection),
+                        page.getSiguienteCursor());
+            });
+            return cachedResponse(response, acceptEncoding);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
         } catch (ExecutionException | InterruptedException e) {
             e.printStackTrace();
             return ResponseEntity.status(500).build();
         }
     }
 
+    /**
+     * Exporta el catálogo en formato NDJSON (un producto JSON por línea) usando la consulta en streaming
+     * de Firestore. Cada producto se escribe según llega, por lo que la memoria no crece con el catálogo.
+     * @return Cuerpo de la respuesta que se escribe de forma asíncrona.
+     */
+    @GetMapping(value = "/export", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> exportProducts() {
+        StreamingResponseBody body = outputStream -> {
+            int[] written = {0};
+            try {
+                firestoreService.streamAllProducts(product -> {
+                    outputStream.write(objectMapper.writeValueAsBytes(product));
+                    outputStream.write('\n');
+                    // Se vacía el primer producto enseguida y luego por bloques para no enviar paquetes mínimos
+                    if (written[0]++ % EXPORT_FLUSH_INTERVAL == 0) {
+                        outputStream.flush();
+                    }
+                });
+            } catch (ExecutionException e) {
+                throw new IOException("Error al exportar los productos", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Exportación de productos interrumpida", e);
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON)).body(body);
+    }
+
+    /**
+     * Sincronización incremental del catálogo: devuelve solo los productos creados, modificados o eliminados
+     * desde la sincronización anterior del cliente.
+     * @param since Token devuelto por la sincronización anterior; si se omite se devuelve el catálogo completo.
+     * @return Cambios del catálogo y el token para la siguiente sincronización.
+     */
+    @GetMapping("/sync")
+    public ResponseEntity<ProductSyncResult> syncProducts(@RequestParam(required = false) String since) {
+        if (!productCatalogService.isLoaded()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        try {
+            return ResponseEntity.ok(productCatalogService.getChangesSince(since));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Busca productos por texto en el índice en memoria (nombre, descripción, marca y categoría),
+     * sin distinguir acentos ni singular y plural.
+     * @param q Texto de búsqueda.
+     * @param limit Número máximo de resultados (entre 1 y 100).
+     * @return Productos ordenados por relevancia.
+     */
+    @GetMapping("/search")
+    public ResponseEntity<List<ProductSearchHit>> searchProducts(@RequestParam String q,
+                                                                 @RequestParam(defaultValue = "20") int limit) {
+        if (q.isBlank() || limit < 1 || limit > MAX_SEARCH_RESULTS) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (!productCatalogService.isLoaded()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        return ResponseEntity.ok(productSearchService.search(q, limit));
+    }
+
+    /**
+     * Sugiere nombres de producto y marcas que completan lo que el usuario está escribiendo,
+     * ordenados por popularidad, a partir del índice de autocompletado en memoria.
+     * @param q Texto escrito hasta ahora.
+     * @param limit Número máximo de sugerencias (entre 1 y 10).
+     * @return Sugerencias ordenadas por popularidad.
+     */
+    @GetMapping("/suggest")
+    public ResponseEntity<List<ProductSuggestion>> suggestProducts(@RequestParam String q,
+                                                                   @RequestParam(defaultValue = "8") int limit) {
+        if (q.isBlank() || limit < 1 || limit > ProductSuggestService.MAX_SUGERENCIAS) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (!productCatalogService.isLoaded()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        return ResponseEntity.ok(productSuggestService.suggest(q, limit));
+    }
+
+    /**
+     * Obtiene los productos comprados a menudo junto con uno, ya calculados a partir de los pedidos procesados.
+     * @param uid UID del producto.
+     * @param limit Número máximo de recomendaciones (entre 1 y 10).
+     * @return Productos relacionados ordenados por número de pedidos en común.
+     */
+    @GetMapping("/related")
+    public ResponseEntity<List<ProductRecommendation>> getRelatedProducts(@RequestParam String uid,
+                                                                          @RequestParam(defaultValue = "5") int limit) {
+        if (uid.isBlank() || limit < 1 || limit > ProductRecommendationService.MAX_RECOMENDACIONES) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(productRecommendationService.getRelated(uid, limit));
+    }
+
+    /**
+     * Filtra productos por categoría, marca y banda de precio final, y devuelve los recuentos de cada faceta.
+     * Se pueden repetir los parámetros para combinar varios valores de una misma faceta.
+     * @param categoria Categorías a incluir.
+     * @param marca Marcas a incluir.
+     * @param precio Bandas de precio a incluir (por ejemplo {@code 25-50} o {@code 250+}).
+     * @param offset Primer producto a devolver.
+     * @param limit Número máximo de productos a devolver (entre 1 y 100).
+     * @return Productos filtrados con el total y las facetas.
+     */
+    @GetMapping("/facets")
+    public ResponseEntity<ProductFacetResult> getProductFacets(@RequestParam(required = false) List<String> categoria,
+                                                               @RequestParam(required = false) List<String> marca,
+                                                               @RequestParam(required = false) List<String> precio,
+                                                               @RequestParam(defaultValue = "0") int offset,
+                                                               @RequestParam(defaultValue = "20") int limit) {
+        if (offset < 0 || limit < 1 || limit > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (!productCatalogService.isLoaded()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        Map<String, List<String>> filters = new HashMap<>();
+        filters.put(ProductFacetService.FACETA_CATEGORIA, categoria);
+        filters.put(ProductFacetService.FACETA_MARCA, marca);
+        filters.put(ProductFacetService.FACETA_PRECIO, precio);
+        return ResponseEntity.ok(productFacetService.query(filters, offset, limit));
+    }
+
+    /**
+     * Obtiene los productos ordenados por precio final, valoración media o fecha de creación,
+     * a partir de los índices ordenados en memoria.
+     * @param by Criterio: {@code precio}, {@code valoracion} o {@code novedad}.
+     * @param order {@code asc} o {@code desc}; por defecto los más baratos, los mejor valorados y los más nuevos primero.
+     * @param min Valor mínimo incluido (precio, media o fecha {@code dd/MM/yyyy}).
+     * @param max Valor máximo incluido.
+     * @param limit Número máximo de productos (entre 1 y 100).
+     * @return Productos ordenados.
+     */
+    @GetMapping("/sorted")
+    public ResponseEntity<List<Product>> getSortedProducts(@RequestParam String by,
+                                                           @RequestParam(required = false) String order,
+                                                           @RequestParam(required = false) String min,
+                                                           @RequestParam(required = false) String max,
+                                                           @RequestParam(defaultValue = "20") int limit) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE || (order != null && !order.equals("asc") && !order.equals("desc"))) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (!productCatalogService.isLoaded()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        boolean descendente = order != null ? order.equals("desc") : !by.equals(ProductRankingService.ORDEN_PRECIO);
+        try {
+            return ResponseEntity.ok(productRankingService.query(by, descendente, min, max, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Obtiene varios productos por UID con una sola lectura a Firestore.
+     * @param UIDs Lista de UIDs (como máximo 100).
+     * @return Un resultado por UID en el orden pedido, con {@code encontrado=false} para los que no existen.
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<List<ProductLookup>> getProductsByUIDs(@RequestBody List<String> UIDs) {
+        if (UIDs.size() > MAX_BATCH_SIZE || UIDs.stream().anyMatch(uid -> uid == null || uid.isBlank())) {
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            return ResponseEntity.ok(firestoreService.getProductsByUIDs(UIDs));
+        } catch (ExecutionException | InterruptedException e) {
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * Obtiene las métricas de la caché de productos por UID.
+     * @return Aciertos, fallos, expulsiones y ocupación de la caché.
+     */
+    @GetMapping("/cache/stats")
+    public ResponseEntity<ProductCacheStats> getProductCacheStats() {
+        return ResponseEntity.ok(firestoreService.getProductCacheStats());
+    }
+
+    /**
+     * Obtiene las métricas de la actualización de stock de los pedidos.
+     * @return Pedidos descontados sin leer los documentos, conflictos, transacciones y llamadas a Firestore por producto.
+     */
+    @GetMapping("/stock/stats")
+    public ResponseEntity<StockUpdateStats> getStockUpdateStats() {
+        return ResponseEntity.ok(firestoreService.getStockUpdateStats());
+    }
+
+    /**
+     * Obtiene el stock de un producto. En los productos con el stock fragmentado es la suma de los fragmentos.
+     * @param uid Identificador del producto.
+     * @return Stock del producto, o 404 si no existe.
+     */
+    @GetMapping("/stock")
+    public ResponseEntity<Long> getProductStock(@RequestParam String uid) {
+        try {
+            Long stock = firestoreService.getProductStock(uid);
+            return stock != null ? ResponseEntity.ok(stock) : ResponseEntity.notFound().build();
+        } catch (ExecutionException | InterruptedException e) {
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * Reparte el stock de un producto en fragmentos para soportar muchos pedidos simultáneos del mismo producto.
+     * @param uid Identificador del producto.
+     * @param fragmentos Número de fragmentos.
+     * @return Mensaje de confirmación.
+     */
+    @PostMapping("/stock/shards")
+    public ResponseEntity<Map<String, String>> enableStockShards(@RequestParam String uid, @RequestParam int fragmentos) {
+        try {
+            firestoreService.enableStockShards(uid, fragmentos);
+            return ResponseEntity.ok(Map.of("message", "Stock fragmentado en " + fragmentos + " fragmentos"));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        } catch (ExecutionException | InterruptedException e) {
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("message", "Error al fragmentar el stock"));
+        }
+    }
+
+    /**
+     * Vuelve a guardar el stock de un producto fragmentado en el propio documento del producto.
+     * @param uid Identificador del producto.
+     * @return Mensaje de confirmación.
+     */
+    @DeleteMapping("/stock/shards")
+    public ResponseEntity<Map<String, String>> disableStockShards(@RequestParam String uid) {
+        try {
+            long stock = firestoreService.disableStockShards(uid);
+            return ResponseEntity.ok(Map.of("message", "Stock unificado: " + stock));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        } catch (ExecutionException | InterruptedException e) {
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("message", "Error al unificar el stock"));
+        }
+    }
+
     /**
      *Añade un comentario a un producto en Firestore.
      * @param  product Producto al que se le añadirá el comentario.
@@ -61,30 +436,156 @@ public class ProductController {
         try {
             firestoreService.addRatingToRatings(product.getUID(), product.getRating().get(product.getRating().size() - 1));
             return ResponseEntity.ok(Map.of("message", "Rating added successfully"));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
         } catch (ExecutionException | InterruptedException e) {
             e.printStackTrace();
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("message", "Error adding rating"));
         }
     }
     /**
-     * Actualiza el stock de los productos en Firestore.
+     * Actualiza el stock de los productos en Firestore. Si el pedido se procesa, se registra
+     * para las recomendaciones de productos comprados juntos.
+     * Con la cabecera {@code Idempotency-Key} el pedido se aplica una sola vez: las repeticiones con la misma clave
+     * reciben la respuesta de la primera petición (con la cabecera {@code Idempotent-Replayed}) sin volver a
+     * descontar el stock.
      * @param products Lista de productos con los nuevos valores de stock.
-     * @return Mensaje de confirmación.
+     * @param idempotencyKey Clave de idempotencia opcional del pedido.
+     * @return Mensaje de confirmación, 400 si el pedido se rechaza, 500 si falla Firestore (el pedido no se ha
+     * aplicado y se puede reintentar), 504 si el pedido no termina a tiempo (puede aplicarse después), 409 si la
+     * misma clave se está procesando o 422 si ya se usó con otro pedido.
      */
     @PostMapping("/update-stocks")
-    public ResponseEntity<String> updateProductStocks(@RequestBody List<Product> products) {
+    public ResponseEntity<String> updateProductStocks(@RequestBody List<Product> products,
+                                                      @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        if (idempotencyKey == null) {
+            return applyStockUpdate(products);
+        }
+        if (!IdempotencyService.isValidKey(idempotencyKey)) {
+            return ResponseEntity.badRequest().body("Error: la cabecera Idempotency-Key no es válida");
+        }
+        try {
+            String fingerprint = IdempotencyService.fingerprint(objectMapper.writeValueAsString(products));
+            IdempotentResponse response = idempotencyService.execute(idempotencyKey, fingerprint, () -> {
+                ResponseEntity<String> result = applyStockUpdate(products);
+                // Los fallos de Firestore (500) no descuentan stock: la clave queda libre para reintentar el pedido.
+                // Un 504 no se sabe si se aplicará, así que la clave no se libera
+                boolean reintentable = result.getStatusCode() == HttpStatus.INTERNAL_SERVER_ERROR;
+                return new IdempotentResponse(result.getStatusCode().value(), result.getBody(), null, reintentable, false);
+            });
+            ResponseEntity.BodyBuilder builder = ResponseEntity.status(response.getCodigo());
+            if (response.isRepetida()) {
+                builder.header("Idempotent-Replayed", "true");
+            }
+            return builder.body(response.getCuerpo());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.unprocessableEntity().body("Error: " + e.getMessage());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body("Error: " + e.getMessage());
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Error al procesar el pedido: " + e.getMessage());
+        }
+    }
+
+    private ResponseEntity<String> applyStockUpdate(List<Product> products) {
         try {
-            String resultMessage = firestoreService.updateProductStocks(products);
+            // Los pedidos que llegan casi a la vez se aplican juntos en Firestore
+            StockUpdateResult result = stockUpdateCoalescer.update(products);
             // Retorna el mensaje con el estado HTTP adecuado
-            if (resultMessage.contains("Error")) {
-                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(resultMessage);
+            if (result.isReintentable()) {
+                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(result.getMensaje());
+            } else if (!result.isAplicado()) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(result.getMensaje());
             } else {
-                return ResponseEntity.ok(resultMessage);
+                // Los productos de un pedido procesado alimentan las recomendaciones "comprados juntos"
+                productRecommendationService.recordOrder(products.stream().map(Product::getUID).toList());
+                return ResponseEntity.ok(result.getMensaje());
+            }
+        } catch (TimeoutException | InterruptedException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
             }
+            return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT)
+                    .body("Error: El pedido no ha terminado a tiempo y puede aplicarse más tarde");
         } catch (Exception e) {
             e.printStackTrace();
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("Error al procesar el pedido: " + e.getMessage());
         }
     }
+
+    /**
+     * Reserva stock para un carrito durante un tiempo limitado, sin acceder a Firestore.
+     * @param products Productos con la cantidad a reservar.
+     * @return Reserva creada, 409 si no hay stock suficiente o 400 si las líneas no son válidas.
+     */
+    @PostMapping("/reservations")
+    public ResponseEntity<?> reserveStock(@RequestBody List<Product> products) {
+        try {
+            return ResponseEntity.ok(stockReservationService.reserve(products));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("message", e.getMessage()));
+        } catch (ExecutionException | InterruptedException e) {
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("message", "Error al reservar el stock"));
+        }
+    }
+
+    /**
+     * Confirma una reserva al completar el pago. El stock se descuenta en Firestore antes de responder y el pedido
+     * se registra para las recomendaciones de productos comprados juntos.
+     * @param id Identificador de la reserva.
+     * @return Mensaje de confirmación, 404 si la reserva no existe o ha caducado, 409 si ya no hay stock suficiente
+     * o 500 si no se ha podido escribir el stock (la reserva se conserva y se puede reintentar).
+     */
+    @PostMapping("/reservations/commit")
+    public ResponseEntity<Map<String, String>> commitReservation(@RequestParam String id) {
+        try {
+            Map<String, Integer> productos = stockReservationService.commit(id);
+            productRecommendationService.recordOrder(productos.keySet());
+            return ResponseEntity.ok(Map.of("message", "Pedido procesado y stock actualizado correctamente para todos los productos"));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("message", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("message", e.getMessage()));
+        } catch (ExecutionException | InterruptedException e) {
+            e.printStackTrace();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("message", "Error al confirmar la reserva"));
+        }
+    }
+
+    /**
+     * Anula una reserva y devuelve su stock.
+     * @param id Identificador de la reserva.
+     * @return Mensaje de confirmación, o 404 si la reserva no existe o ha caducado.
+     */
+    @DeleteMapping("/reservations")
+    public ResponseEntity<Map<String, String>> cancelReservation(@RequestParam String id) {
+        if (!stockReservationService.cancel(id)) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("message", "La reserva " + id + " no existe o ha caducado."));
+        }
+        return ResponseEntity.ok(Map.of("message", "Reserva anulada"));
+    }
+
+    /**
+     * Construye la respuesta a partir de una representación serializada del catálogo.
+     * Se envía la variante comprimida que acepte el cliente, ya calculada en la caché.
+     * Spring compara el ETag con If-None-Match y responde 304 sin cuerpo cuando coinciden.
+     */
+    private ResponseEntity<byte[]> cachedResponse(CachedResponse response, String acceptEncoding) {
+        ContentEncoding encoding = response.negotiate(acceptEncoding);
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
+                .contentType(response.getFormat().getMediaType())
+                .varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING)
+                .eTag(response.getEtag(encoding));
+        if (encoding != ContentEncoding.IDENTITY) {
+            builder.header(HttpHeaders.CONTENT_ENCODING, encoding.getToken());
+        }
+        return builder.body(response.getBody(encoding));
+    }
 }
@@ -0,0 +1,16 @@
+package com.example.pescAstur.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class IdempotentResponse {
+    private int codigo; // Código de estado HTTP de la respuesta
+    private String cuerpo;
+    private String huella; // Huella de la petición original, para detectar claves reutilizadas con otra petición
+    private boolean reintentable; // El resultado es un fallo transitorio: no se guarda y la clave se puede reintentar
+    private boolean repetida; // La respuesta es la guardada de una petición anterior con la misma clave
+}
@@ -1,5 +1,6 @@
 package com.example.pescAstur.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -22,8 +23,13 @@ public class Product {
     private String nombre;
     private String peso;
     private double precio;
+    // Solo se rellena en las peticiones: los productos leídos de Firestore exponen el agregado de valoraciones
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     private List<Integer> rating;
+    private RatingSummary valoraciones;
     private List<String>comentarios;
     private String UID;
     private int cantidad;
+    // Número de fragmentos en los que se reparte el stock (0 si el stock está solo en cantidadStock)
+    private int fragmentosStock;
 }
@@ -0,0 +1,19 @@
+package com.example.pescAstur.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProductCacheStats {
+    private long aciertos; // Lecturas servidas desde la caché
+    private long fallos; // Lecturas que han tenido que ir a Firestore
+    private double tasaAciertos;
+    private long expulsiones; // Entradas expulsadas por tamaño o caducidad
+    private long entradas; // Número aproximado de entradas (incluye UIDs inexistentes)
+    private long entradasNegativas; // Entradas de UIDs que no existen en Firestore
+    private long pesoBytes; // Tamaño estimado de las entradas en bytes
+    private long pesoMaximoBytes;
+}
@@ -0,0 +1,17 @@
+package com.example.pescAstur.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProductFacetResult {
+    private List<Product> productos; // Productos de la página pedida
+    private int total; // Número total de productos que cumplen los filtros
+    private Map<String, Map<String, Integer>> facetas; // Faceta -> valor -> número de productos
+}
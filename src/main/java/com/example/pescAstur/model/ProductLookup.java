@@ -0,0 +1,14 @@
+package com.example.pescAstur.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProductLookup {
+    private String uid; // UID pedido
+    private boolean encontrado; // false si no existe ningún producto con ese UID
+    private Product producto; // null si no se ha encontrado
+}
@@ -0,0 +1,15 @@
+package com.example.pescAstur.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProductPage<T> {
+    private List<T> productos;
+    private String siguienteCursor; // Cursor opaco para pedir la página siguiente, null si es la última
+}
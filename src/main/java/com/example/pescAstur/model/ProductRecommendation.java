@@ -0,0 +1,13 @@
+package com.example.pescAstur.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProductRecommendation {
+    private Product producto;
+    private long compradosJuntos; // Pedidos en los que se ha comprado junto con el producto consultado
+}
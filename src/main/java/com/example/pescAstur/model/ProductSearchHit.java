@@ -0,0 +1,13 @@
+package com.example.pescAstur.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProductSearchHit {
+    private Product producto;
+    private double puntuacion; // Relevancia BM25 del producto para la consulta
+}
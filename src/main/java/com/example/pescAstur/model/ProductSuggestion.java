@@ -0,0 +1,14 @@
+package com.example.pescAstur.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProductSuggestion {
+    private String texto; // Nombre de producto o marca tal como se muestra
+    private String tipo; // "nombre" o "marca"
+    private long popularidad; // Valoraciones recibidas por los productos con ese nombre o marca
+}
@@ -0,0 +1,31 @@
+package com.example.pescAstur.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Vista reducida de un producto para los listados.
+ * Solo se rellenan los campos pedidos en la proyección; el resto no se serializa.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ProductSummary {
+    private String UID;
+    private String nombre;
+    private Double precio;
+    private Double descuento;
+    private String imagenURL;
+    private Integer cantidadStock;
+    private String categoria;
+    private String marca;
+    private String descripcion;
+    private String fechaCreacion;
+    private String dimensiones;
+    private String peso;
+    private Double coste;
+    private RatingSummary valoraciones;
+}
@@ -0,0 +1,23 @@
+package com.example.pescAstur.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Cambios del catálogo desde la última sincronización de un cliente.
+ * Si {@code completo} es true, {@code productos} contiene el catálogo entero y el cliente debe
+ * sustituir su copia local; en otro caso solo contiene los productos creados o modificados.
+ * {@code token} es el valor que el cliente debe enviar en la siguiente sincronización.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProductSyncResult {
+    private List<Product> productos;
+    private List<String> eliminados;
+    private String token;
+    private boolean completo;
+}
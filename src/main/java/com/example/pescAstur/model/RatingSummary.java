@@ -0,0 +1,21 @@
+package com.example.pescAstur.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Agregado de las valoraciones de un producto, mantenido en Firestore en el campo {@code valoraciones}.
+ * El histograma tiene cinco posiciones: la primera cuenta las valoraciones de 1 estrella y la última las de 5.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class RatingSummary {
+    private long recuento;
+    private long suma;
+    private double media;
+    private List<Long> histograma;
+}
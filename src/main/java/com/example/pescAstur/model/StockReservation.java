@@ -0,0 +1,16 @@
+package com.example.pescAstur.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class StockReservation {
+    private String id;
+    private Map<String, Integer> productos; // Cantidad reservada por UID de producto
+    private String expira; // Fecha de caducidad de la reserva (ISO-8601)
+}
@@ -0,0 +1,19 @@
+package com.example.pescAstur.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class StockUpdateStats {
+    private long pedidos; // Pedidos procesados
+    private long lineas; // Productos distintos de los pedidos procesados
+    private long viaRapida; // Pedidos descontados sin leer los documentos
+    private long conflictos; // Pedidos de la vía rápida rechazados por una escritura concurrente
+    private long transacciones; // Intentos de transacción completa (lectura y escritura)
+    private long idasYVueltas; // Llamadas a Firestore realizadas
+    private double idasYVueltasPorLinea;
+    private double idasYVueltasAhorradasPorLinea; // Frente a leer y escribir cada producto por separado (2 por línea)
+}
@@ -0,0 +1,208 @@
+package com.example.pescAstur.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Caché de respuestas del catálogo ya serializadas.
+ * Cada representación (catálogo completo, página, proyección) se serializa una sola vez por versión
+ * del catálogo y formato ({@link WireFormat}) y se guarda junto con un ETag fuerte calculado a partir de su contenido.
+ * Al guardarla se calculan también sus variantes comprimidas ({@link ContentEncoding}), que se sirven
+ * según Accept-Encoding sin comprimir en cada petición.
+ * Las peticiones simultáneas de una misma vista que no está en caché esperan a una única serialización
+ * (single-flight), de modo que tras un cambio del catálogo cada vista se serializa y comprime una sola vez.
+ */
+@Service
+public class CatalogResponseCache {
+
+    private static final int MAX_ENTRIES = 512;
+    // Por debajo de este tamaño la compresión apenas ahorra bytes
+    private static final int MIN_COMPRESS_BYTES = 1024;
+
+    private final Map<WireFormat, ObjectMapper> mappers = new EnumMap<>(WireFormat.class);
+    private final Set<ContentEncoding> encodings = EnumSet.noneOf(ContentEncoding.class);
+    private final ProductCatalogService productCatalogService;
+    // La clave incluye la versión del catálogo; cada entrada es la serialización en curso o terminada
+    private final Cache<String, CompletableFuture<CachedResponse>> cache = Caffeine.newBuilder()
+            .maximumSize(MAX_ENTRIES)
+            .build();
+
+    public CatalogResponseCache(ObjectMapper objectMapper, ProductCatalogService productCatalogService) {
+        for (WireFormat format : WireFormat.values()) {
+            mappers.put(format, format.mapper(objectMapper));
+        }
+        for (ContentEncoding encoding : List.of(ContentEncoding.GZIP, ContentEncoding.BROTLI)) {
+            if (encoding.isAvailable()) {
+                encodings.add(encoding);
+            }
+        }
+        this.productCatalogService = productCatalogService;
+    }
+
+    /**
+     * Obtiene la representación serializada de una vista del catálogo.
+     * Mientras el catálogo no esté cargado las respuestas se serializan sin guardarse,
+     * porque proceden de consultas directas a Firestore que no tienen versión.
+     * @param key Clave que identifica la vista (ruta y parámetros normalizados).
+     * @param body Proveedor del objeto a serializar si no está en caché.
+     * @return Respuesta serializada con su ETag.
+     * @throws ExecutionException
+     * @throws InterruptedException
+     */
+    public CachedResponse get(String key, ResponseBodySupplier body) throws ExecutionException, InterruptedException {
+        return get(key, WireFormat.JSON, body);
+    }
+
+    /**
+     * Obtiene la representación serializada de una vista del catálogo en el formato pedido.
+     * @param key Clave que identifica la vista (ruta y parámetros normalizados).
+     * @param format Formato de la respuesta.
+     * @param body Proveedor del objeto a serializar si no está en caché.
+     * @return Respuesta serializada con su ETag.
+     * @throws ExecutionException
+     * @throws InterruptedException
+     */
+    public CachedResponse get(String key, WireFormat format, ResponseBodySupplier body)
+            throws ExecutionException, InterruptedException {
+        if (!productCatalogService.isLoaded()) {
+            return serialize(body.get(), format, -1);
+        }
+        // Se lee la versión antes que los datos: en el peor caso se guarda contenido más nuevo que su versión
+        long version = productCatalogService.getVersion();
+        String cacheKey = format + ":" + version + ":" + key;
+        CompletableFuture<CachedResponse> loading = new CompletableFuture<>();
+        CompletableFuture<CachedResponse> existing = cache.asMap().putIfAbsent(cacheKey, loading);
+        if (existing != null) {
+            return existing.get();
+        }
+        try {
+            CachedResponse response = serialize(body.get(), format, version);
+            loading.complete(response);
+            return response;
+        } catch (ExecutionException | InterruptedException | RuntimeException e) {
+            // Un fallo no se guarda: la siguiente petición vuelve a intentarlo
+            cache.asMap().remove(cacheKey, loading);
+            loading.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Descarta las representaciones guardadas cuando cambia el catálogo.
+     */
+    @EventListener
+    public void onCatalogChanged(ProductCatalogChangedEvent event) {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Serializa una respuesta. Las que se guardan en caché (con versión) se comprimen además con cada
+     * codificación disponible; las variantes que no reducen el tamaño se descartan.
+     */
+    private CachedResponse serialize(Object body, WireFormat format, long version) {
+        try {
+            byte[] bytes = mappers.get(format).writeValueAsBytes(body);
+            Map<ContentEncoding, byte[]> variants = new EnumMap<>(ContentEncoding.class);
+            variants.put(ContentEncoding.IDENTITY, bytes);
+            if (version >= 0 && bytes.length >= MIN_COMPRESS_BYTES) {
+                for (ContentEncoding encoding : encodings) {
+                    byte[] encoded = encoding.encode(bytes);
+                    if (encoded.length < bytes.length) {
+                        variants.put(encoding, encoded);
+                    }
+                }
+            }
+            return new CachedResponse(variants, etag(bytes), format, version);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Error al serializar la respuesta del catálogo", e);
+        }
+    }
+
+    private static String etag(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            return "\"" + HexFormat.of().formatHex(digest, 0, 16) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+
+    /**
+     * Representación serializada de una vista del catálogo, sin comprimir y con sus variantes comprimidas.
+     */
+    @Getter
+    public static final class CachedResponse {
+        @Getter(AccessLevel.NONE)
+        private final Map<ContentEncoding, byte[]> variants;
+        private final String etag;
+        private final WireFormat format;
+        private final long version;
+
+        private CachedResponse(Map<ContentEncoding, byte[]> variants, String etag, WireFormat format, long version) {
+            this.variants = variants;
+            this.etag = etag;
+            this.format = format;
+            this.version = version;
+        }
+
+        /**
+         * Cuerpo sin comprimir.
+         */
+        public byte[] getBody() {
+            return variants.get(ContentEncoding.IDENTITY);
+        }
+
+        /**
+         * Cuerpo con una compresión.
+         * @param encoding Compresión, normalmente la elegida con {@link #negotiate(String)}.
+         * @return Cuerpo comprimido, o null si no se ha guardado esa variante.
+         */
+        public byte[] getBody(ContentEncoding encoding) {
+            return variants.get(encoding);
+        }
+
+        /**
+         * ETag de una variante. Cada compresión es una representación distinta y necesita su propio ETag fuerte.
+         */
+        public String getEtag(ContentEncoding encoding) {
+            if (encoding == ContentEncoding.IDENTITY) {
+                return etag;
+            }
+            return etag.substring(0, etag.length() - 1) + "-" + encoding.getToken() + "\"";
+        }
+
+        /**
+         * Elige la variante que se sirve según la cabecera Accept-Encoding.
+         * @param acceptEncoding Valor de la cabecera Accept-Encoding, puede ser null.
+         * @return Compresión de la variante elegida.
+         */
+        public ContentEncoding negotiate(String acceptEncoding) {
+            return ContentEncoding.negotiate(acceptEncoding, variants.keySet());
+        }
+    }
+
+    /**
+     * Proveedor del cuerpo de una respuesta que puede consultar Firestore.
+     */
+    @FunctionalInterface
+    public interface ResponseBodySupplier {
+        Object get() throws ExecutionException, InterruptedException;
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.pescAstur.service;
+
+import com.example.pescAstur.model.Product;
+import com.google.cloud.Timestamp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Instantánea binaria del catálogo de productos en un fichero local.
+ * Al arrancar se lee mediante un fichero mapeado en memoria para poder servir el catálogo sin esperar
+ * a la lectura completa de la colección products; el snapshot listener reconcilia después los cambios.
+ * Formato: cabecera (magic, versión de formato, fecha de lectura de Firestore y número de entradas) y por
+ * cada producto su fecha de actualización en Firestore seguida del producto codificado con {@link ProductBinaryCodec}.
+ */
+@Service
+public class CatalogSnapshotStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(CatalogSnapshotStore.class);
+    private static final int MAGIC = 0x50434154; // "PCAT"
+    private static final int FORMAT_VERSION = 3;
+    // Cada entrada lleva su fecha de actualización (segundos y nanos) y el producto
+    private static final int MIN_ENTRY_BYTES = Long.BYTES + Integer.BYTES + ProductBinaryCodec.MIN_PRODUCT_BYTES;
+
+    private final Path path;
+
+    @Autowired
+    public CatalogSnapshotStore(@Value("${pescastur.catalog.snapshot-path:catalog.snapshot}") String path) {
+        this(path.isBlank() ? null : Path.of(path));
+    }
+
+    /**
+     * @param path Fichero de la instantánea, o null para desactivarla.
+     */
+    public CatalogSnapshotStore(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Lee la instantánea guardada.
+     * @return Instantánea del catálogo, o null si no hay instantánea o no se puede leer.
+     */
+    public Snapshot load() {
+        if (path == null || !Files.isRegularFile(path)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 24 || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                logger.warn("Instantánea del catálogo {} con formato desconocido; se ignora", path);
+                return null;
+            }
+            Timestamp readTime = Timestamp.ofTimeSecondsAndNanos(buffer.getLong(), buffer.getInt());
+            int count = ProductBinaryCodec.readCount(buffer, MIN_ENTRY_BYTES, false);
+            List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Timestamp updateTime = Timestamp.ofTimeSecondsAndNanos(buffer.getLong(), buffer.getInt());
+                entries.add(new Entry(ProductBinaryCodec.read(buffer), updateTime));
+            }
+            logger.info("Instantánea del catálogo cargada desde {} ({} productos)", path, entries.size());
+            return new Snapshot(entries, readTime);
+        } catch (IOException | BufferUnderflowException | IllegalStateException | IllegalArgumentException e) {
+            logger.warn("No se ha podido leer la instantánea del catálogo {}", path, e);
+            return null;
+        }
+    }
+
+    /**
+     * Guarda una instantánea del catálogo. Se escribe en un fichero temporal que después sustituye
+     * al anterior, de modo que una caída a mitad de escritura no deja un fichero corrupto.
+     * @param entries Entradas del catálogo.
+     * @param readTime Fecha de lectura de Firestore hasta la que el catálogo está al día.
+     */
+    public void save(Collection<Entry> entries, Timestamp readTime) {
+        if (path == null) {
+            return;
+        }
+        Path temp = null;
+        try {
+            Path directory = path.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            temp = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+            try (OutputStream file = Files.newOutputStream(temp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 64 * 1024))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                Timestamp savedReadTime = readTime != null ? readTime : Timestamp.MIN_VALUE;
+                out.writeLong(savedReadTime.getSeconds());
+                out.writeInt(savedReadTime.getNanos());
+                out.writeInt(entries.size());
+                for (Entry entry : entries) {
+                    Timestamp updateTime = entry.getUpdateTime() != null ? entry.getUpdateTime() : Timestamp.MIN_VALUE;
+                    out.writeLong(updateTime.getSeconds());
+                    out.writeInt(updateTime.getNanos());
+                    ProductBinaryCodec.write(entry.getProduct(), out);
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.debug("Instantánea del catálogo guardada en {} ({} productos)", path, entries.size());
+        } catch (IOException e) {
+            logger.warn("No se ha podido guardar la instantánea del catálogo {}", path, e);
+            deleteQuietly(temp);
+        }
+    }
+
+    private static void deleteQuietly(Path temp) {
+        if (temp == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(temp);
+        } catch (IOException ignored) {
+            // El fichero temporal se sobrescribe en la siguiente instantánea
+        }
+    }
+
+    /**
+     * Contenido de una instantánea: los productos y la fecha de lectura de Firestore a la que corresponden.
+     */
+    @lombok.Value
+    public static class Snapshot {
+        List<Entry> entries;
+        Timestamp readTime;
+    }
+
+    /**
+     * Producto de la instantánea con la fecha de actualización del documento en Firestore.
+     */
+    @lombok.Value
+    public static class Entry {
+        Product product;
+        Timestamp updateTime;
+    }
+}
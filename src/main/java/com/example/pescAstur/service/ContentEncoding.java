@@ -0,0 +1,134 @@
+package com.example.pescAstur.service;
+
+import com.aayushatharva.brotli4j.Brotli4jLoader;
+import com.aayushatharva.brotli4j.encoder.Encoder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresiones con las que se pueden guardar y servir las respuestas del catálogo.
+ * Las variantes comprimidas se calculan una sola vez al guardar la respuesta en caché, de modo que
+ * servirlas no requiere comprimir en cada petición. Esa compresión se hace en el hilo de la petición que llena
+ * la caché, tras cada cambio del catálogo, por lo que se usan niveles rápidos en lugar de los máximos.
+ */
+public enum ContentEncoding {
+
+    IDENTITY("identity"),
+    GZIP("gzip"),
+    BROTLI("br");
+
+    private static final int GZIP_LEVEL = Deflater.BEST_SPEED;
+    private static final int BROTLI_QUALITY = 5;
+
+    private final String token;
+
+    ContentEncoding(String token) {
+        this.token = token;
+    }
+
+    /**
+     * Valor de la cabecera Content-Encoding.
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Indica si la compresión se puede usar en esta máquina. Brotli necesita la biblioteca nativa
+     * de brotli4j; si no existe para la plataforma solo se ofrece gzip.
+     */
+    public boolean isAvailable() {
+        return this != BROTLI || Brotli4jLoader.isAvailable();
+    }
+
+    /**
+     * Comprime un cuerpo de respuesta.
+     * @param body Cuerpo sin comprimir.
+     * @return Cuerpo comprimido con esta codificación.
+     */
+    public byte[] encode(byte[] body) {
+        try {
+            return switch (this) {
+                case IDENTITY -> body;
+                case GZIP -> gzip(body);
+                case BROTLI -> Encoder.compress(body, new Encoder.Parameters().setQuality(BROTLI_QUALITY));
+            };
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error al comprimir la respuesta con " + token, e);
+        }
+    }
+
+    /**
+     * Elige la compresión de la respuesta según la cabecera Accept-Encoding entre las disponibles.
+     * Gana la de mayor preferencia (q) del cliente, contando también la respuesta sin comprimir (identity);
+     * a igual preferencia se elige brotli antes que gzip porque comprime más, y cualquiera de las dos antes que
+     * sin compresión.
+     * @param acceptEncoding Valor de la cabecera Accept-Encoding, puede ser null.
+     * @param available Compresiones con las que está guardada la respuesta.
+     * @return Compresión de la respuesta; sin compresión si el cliente no acepta ninguna de las disponibles.
+     */
+    public static ContentEncoding negotiate(String acceptEncoding, Set<ContentEncoding> available) {
+        if (acceptEncoding == null || acceptEncoding.isBlank()) {
+            return IDENTITY;
+        }
+        ContentEncoding best = IDENTITY;
+        double bestQuality = quality(acceptEncoding, IDENTITY.token);
+        for (ContentEncoding encoding : new ContentEncoding[]{BROTLI, GZIP}) {
+            if (!available.contains(encoding)) {
+                continue;
+            }
+            double quality = quality(acceptEncoding, encoding.token);
+            // A igual preferencia que identity se comprime; entre compresiones gana la primera
+            if (quality > bestQuality || quality > 0 && quality == bestQuality && best == IDENTITY) {
+                best = encoding;
+                bestQuality = quality;
+            }
+        }
+        return best;
+    }
+
+    // Preferencia del cliente por una codificación: la suya propia o la del comodín, 0 si no la acepta
+    private static double quality(String acceptEncoding, String token) {
+        double wildcard = 0;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.split(";");
+            String name = params[0].trim().toLowerCase(Locale.ROOT);
+            double quality = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (name.equals(token)) {
+                return quality;
+            }
+            if (name.equals("*")) {
+                wildcard = quality;
+            }
+        }
+        return wildcard;
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out, 64 * 1024) {
+            {
+                def.setLevel(GZIP_LEVEL);
+            }
+        }) {
+            gzip.write(body);
+        }
+        return out.toByteArray();
+    }
+}
@@ -1,20 +1,39 @@
 package com.example.pescAstur.service;
 import com.example.pescAstur.model.Product;
+import com.example.pescAstur.model.ProductCacheStats;
+import com.example.pescAstur.model.ProductLookup;
+import com.example.pescAstur.model.ProductPage;
+import com.example.pescAstur.model.RatingSummary;
+import com.example.pescAstur.model.StockUpdateStats;
 import com.example.pescAstur.model.User;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.api.core.ApiFuture;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.ApiStreamObserver;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.Timestamp;
 import com.google.cloud.firestore.*;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.firebase.FirebaseApp;
 import com.google.firebase.cloud.FirestoreClient;
+import io.grpc.Status;
 import lombok.Getter;
 import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
 import com.google.cloud.firestore.DocumentSnapshot;
 
 
@@ -24,6 +43,24 @@ public class FirestoreService {
     @Getter
     private final Firestore db;
     private final FireStorageService fireStorageService;
+    private static final String STOCK_UPDATED = "Pedido procesado y stock actualizado correctamente para todos los productos";
+
+    private final ProductCache productCache = new ProductCache();
+    // Stock de cada producto apartado por reservas pendientes de confirmar, que los pedidos no pueden usar
+    private volatile ToLongFunction<String> reservedStock = UID -> 0;
+    // Último stock conocido de cada producto junto con la fecha de actualización del documento en Firestore
+    private final Map<String, StockVersion> stockVersions = new ConcurrentHashMap<>();
+    // Stock total de los productos leído por getProductStock; en los fragmentados es la suma de los fragmentos
+    private final Cache<String, Long> stockSums = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(Duration.ofSeconds(2))
+            .build();
+    private final LongAdder stockOrders = new LongAdder();
+    private final LongAdder stockLines = new LongAdder();
+    private final LongAdder stockFastPath = new LongAdder();
+    private final LongAdder stockConflicts = new LongAdder();
+    private final LongAdder stockTransactions = new LongAdder();
+    private final LongAdder stockRoundTrips = new LongAdder();
 
     public FirestoreService() throws IOException {
         this.fireStorageService = new FireStorageService();
@@ -37,6 +74,55 @@ public class FirestoreService {
         this.fireStorageService = fireStorageService;
     }
 
+    /**
+     * Indica de dónde sale el stock apartado por las reservas, que se descuenta del stock disponible al
+     * comprobar los pedidos.
+     * @param reservedStock Stock reservado por UID de producto.
+     */
+    public void setReservedStock(ToLongFunction<String> reservedStock) {
+        this.reservedStock = reservedStock;
+    }
+
+    /**
+     * Descarta de la caché de productos los documentos que han cambiado en Firestore,
+     * incluidos los escritos por otras instancias o desde la consola.
+     */
+    @EventListener
+    public void onCatalogChanged(ProductCatalogChangedEvent event) {
+        for (ProductChange change : event.getCambios()) {
+            productCache.invalidate(change.getUID());
+            stockSums.invalidate(change.getUID());
+            // El stock de los productos fragmentados no está en el documento: siempre pasa por la transacción
+            if (change.isEliminacion() || change.getFechaActualizacion() == null
+                    || change.getActual().getFragmentosStock() > 0) {
+                stockVersions.remove(change.getUID());
+            } else {
+                rememberStock(change.getUID(), change.getActual().getCantidadStock(), change.getFechaActualizacion());
+            }
+        }
+    }
+
+    /**
+     * Obtiene las métricas de la caché de productos (aciertos, fallos, expulsiones y tamaño).
+     * @return Métricas de la caché.
+     */
+    public ProductCacheStats getProductCacheStats() {
+        return productCache.stats();
+    }
+
+    /**
+     * Obtiene las métricas de la actualización de stock de los pedidos: cuántos se han descontado sin leer
+     * los documentos, cuántos han necesitado una transacción y las llamadas a Firestore por producto.
+     * @return Métricas de la actualización de stock.
+     */
+    public StockUpdateStats getStockUpdateStats() {
+        long lines = stockLines.sum();
+        long roundTrips = stockRoundTrips.sum();
+        double perLine = lines == 0 ? 0 : (double) roundTrips / lines;
+        return new StockUpdateStats(stockOrders.sum(), lines, stockFastPath.sum(), stockConflicts.sum(),
+                stockTransactions.sum(), roundTrips, perLine, lines == 0 ? 0 : 2 - perLine);
+    }
+
     /**
      * Guarda los detalles de un usuario en Firestore.
      * @param userId
@@ -44,21 +130,7 @@ public class FirestoreService {
      * @throws IOException
      */
     public void saveUserDetails(String userId, User user) throws IOException {
-        Map<String, Object> userDetails = new HashMap<>();
-        userDetails.put("nombre", user.getNombre());
-        userDetails.put("apellido", user.getApellido());
-        userDetails.put("telefono", user.getTelefono());
-        userDetails.put("direccion", user.getDireccion());
-        userDetails.put("ciudad", user.getCiudad());
-        userDetails.put("provincia", user.getProvincia());
-        userDetails.put("codigoPostal", user.getCodigoPostal());
-        userDetails.put("pais", user.getPais());
-        userDetails.put("fechaNacimiento", user.getFechaNacimiento());
-        userDetails.put("fechaRegistro", user.getFechaRegistro());
-        userDetails.put("idiomaPreferido", user.getIdiomaPreferido());
-        userDetails.put("estadoCuenta", user.getEstadoCuenta());
-        userDetails.put("nombreUsuario", user.getUserName());
-        userDetails.put("DNI", user.getDNI());
+        Map<String, Object> userDetails = UserDocumentCodec.toData(user);
         userDetails.put("fotoPerfil", this.fireStorageService.uploadProfilePhoto(user.getFotoPerfil(), userId));
 
         try {
@@ -76,7 +148,7 @@ public class FirestoreService {
      * @throws IOException
      */
     public void updateUserDetails(String userId, User user) throws IOException {
-        Map<String, Object> userDetails = new HashMap<>();
+        Map<String, Object> userDetails = UserDocumentCodec.toData(user);
         String blobName = getProfilePhoto(userId);
         if(blobName!=null){
             if(user.getFotoPerfil()!=null){
@@ -86,20 +158,6 @@ public class FirestoreService {
                 userDetails.put("fotoPerfil", blobName);
             }
         }
-        userDetails.put("nombre", user.getNombre());
-        userDetails.put("apellido", user.getApellido());
-        userDetails.put("telefono", user.getTelefono());
-        userDetails.put("direccion", user.getDireccion());
-        userDetails.put("ciudad", user.getCiudad());
-        userDetails.put("provincia", user.getProvincia());
-        userDetails.put("codigoPostal", user.getCodigoPostal());
-        userDetails.put("pais", user.getPais());
-        userDetails.put("fechaNacimiento", user.getFechaNacimiento());
-        userDetails.put("fechaRegistro", user.getFechaRegistro());
-        userDetails.put("idiomaPreferido", user.getIdiomaPreferido());
-        userDetails.put("estadoCuenta", user.getEstadoCuenta());
-        userDetails.put("nombreUsuario", user.getUserName());
-        userDetails.put("DNI", user.getDNI());
 
         try {
             WriteResult result = db.collection("users").document(userId).update(userDetails).get();
@@ -166,17 +224,157 @@ public class FirestoreService {
      * @throws InterruptedException
      */
     public List<Product> getAllProducts() throws ExecutionException, InterruptedException {
-        ApiFuture<QuerySnapshot> future = db.collection("products").get();
+        return getAllProducts(null);
+    }
+
+    /**
+     * Obtiene los productos de la base de datos products leyendo solo los campos indicados.
+     * @param fields Campos a leer con select(), o null para leer el documento completo.
+     * @return Lista de productos con los campos pedidos y el UID.
+     * @throws ExecutionException
+     * @throws InterruptedException
+     */
+    public List<Product> getAllProducts(Set<String> fields) throws ExecutionException, InterruptedException {
+        Query query = select(db.collection("products"), fields);
+        ApiFuture<QuerySnapshot> future = query.get();
         List<QueryDocumentSnapshot> documents = future.get().getDocuments();
         List<Product> products = new ArrayList<>();
         for (QueryDocumentSnapshot document : documents) {
-            Product product = document.toObject(Product.class);
-            product.setUID(document.getId()); // Asigna el UID del documento al producto
-            products.add(product);
+            products.add(toProduct(document));
         }
         return products;
     }
 
+    /**
+     * Recorre los productos de la colección products con la consulta en streaming de Firestore,
+     * entregando cada producto según llega sin acumular la colección en memoria.
+     * @param consumer Receptor de cada producto; si lanza una excepción se deja de entregar productos.
+     * @throws ExecutionException si falla la consulta o el receptor.
+     * @throws InterruptedException
+     */
+    public void streamAllProducts(ProductConsumer consumer) throws ExecutionException, InterruptedException {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        db.collection("products").stream(new ApiStreamObserver<DocumentSnapshot>() {
+            @Override
+            public void onNext(DocumentSnapshot document) {
+                if (done.isDone()) {
+                    return;
+                }
+                try {
+                    consumer.accept(toProduct(document));
+                } catch (IOException | RuntimeException e) {
+                    done.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                done.completeExceptionally(t);
+            }
+
+            @Override
+            public void onCompleted() {
+                done.complete(null);
+            }
+        });
+        done.get();
+    }
+
+    /**
+     * Receptor de productos para {@link #streamAllProducts(ProductConsumer)}.
+     */
+    @FunctionalInterface
+    public interface ProductConsumer {
+        void accept(Product product) throws IOException;
+    }
+
+    /**
+     * Obtiene una página de productos ordenados por UID usando orderBy/startAfter.
+     * @param pageSize Número máximo de productos de la página.
+     * @param cursor Cursor devuelto por la página anterior, o null para la primera página.
+     * @return Página de productos con el cursor de la siguiente.
+     * @throws ExecutionException
+     * @throws InterruptedException
+     */
+    public ProductPage<Product> getProductsPage(int pageSize, String cursor) throws ExecutionException, InterruptedException {
+        return getProductsPage(pageSize, cursor, null);
+    }
+
+    /**
+     * Obtiene una página de productos ordenados por UID leyendo solo los campos indicados.
+     * @param pageSize Número máximo de productos de la página.
+     * @param cursor Cursor devuelto por la página anterior, o null para la primera página.
+     * @param fields Campos a leer con select(), o null para leer el documento completo.
+     * @return Página de productos con el cursor de la siguiente.
+     * @throws ExecutionException
+     * @throws InterruptedException
+     */
+    public ProductPage<Product> getProductsPage(int pageSize, String cursor, Set<String> fields)
+            throws ExecutionException, InterruptedException {
+        Query query = select(db.collection("products").orderBy(FieldPath.documentId()), fields);
+        String lastUID = decodeCursor(cursor);
+        if (lastUID != null) {
+            query = query.startAfter(lastUID);
+        }
+        // Se pide un documento más para saber si existe una página siguiente
+        List<QueryDocumentSnapshot> documents = query.limit(pageSize + 1).get().get().getDocuments();
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < documents.size() && i < pageSize; i++) {
+            products.add(toProduct(documents.get(i)));
+        }
+        String nextCursor = documents.size() > pageSize ? encodeCursor(products.get(pageSize - 1).getUID()) : null;
+        return new ProductPage<>(products, nextCursor);
+    }
+
+    /**
+     * Limita una consulta a los campos indicados.
+     * @param query Consulta sobre la colección products.
+     * @param fields Campos a leer, o null para no limitar la consulta.
+     * @return Consulta con select() aplicado si procede.
+     */
+    private Query select(Query query, Set<String> fields) {
+        if (fields == null) {
+            return query;
+        }
+        return query.select(ProductProjection.documentFields(fields));
+    }
+
+    /**
+     * Codifica el UID del último producto de una página como cursor opaco.
+     * @param UID UID del último producto devuelto.
+     * @return Cursor en Base64 URL-safe.
+     */
+    public static String encodeCursor(String UID) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(UID.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodifica un cursor generado por {@link #encodeCursor(String)}.
+     * @param cursor Cursor recibido del cliente, puede ser null o vacío.
+     * @return UID del último producto de la página anterior, o null si no hay cursor.
+     * @throws IllegalArgumentException si el cursor no es válido.
+     */
+    public static String decodeCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Cursor de paginación no válido: " + cursor, e);
+        }
+    }
+
+    /**
+     * Convierte un documento de la colección products en un objeto Product.
+     * @param document Documento de Firestore.
+     * @return Producto con el UID del documento asignado.
+     */
+    public Product toProduct(DocumentSnapshot document) {
+        // Conversión sin reflexión; los documentos antiguos con la lista de valoraciones se resumen en el agregado
+        return ProductDocumentCodec.fromDocument(document);
+    }
+
     /**
      * Obtiene la foto de un producto a partir de su ID.
      * @param productId
@@ -186,11 +384,9 @@ public class FirestoreService {
      */
     public String getProductPhoto(String productId) {
         try {
-            DocumentReference docRef = db.collection("products").document(productId);
-            ApiFuture<DocumentSnapshot> future = docRef.get();
-            DocumentSnapshot document = future.get();
-            if (document.exists()) {
-                return document.getString("imagenURL");
+            Product product = getProductByUID(productId);
+            if (product != null) {
+                return product.getImagenURL();
             } else {
                 System.out.println("No such document!");
             }
@@ -211,104 +407,630 @@ public class FirestoreService {
     public String addCommentToComments(String documentId,String comment) throws ExecutionException, InterruptedException {
         WriteResult writeResult = db.collection("products").document(documentId)
                 .update("comentarios", FieldValue.arrayUnion(comment)).get();
+        productCache.invalidate(documentId);
         return writeResult.getUpdateTime().toString();
     }
 
     /**
      * Añade una valoracion a un documento en Firestore.
+     * Actualiza el agregado {@code valoraciones} (recuento, suma, media e histograma) en lugar de acumular
+     * la valoración en una lista. La lectura y la escritura se hacen en una transacción, de modo que las
+     * valoraciones concurrentes del mismo producto se aplican una detrás de otra y ninguna se pierde.
      * @param documentId
-     * @param rating
-     * @return Fecha de actualización.
+     * @param rating Valoración de 1 a 5 estrellas.
+     * @return Fecha en que se confirmó la valoración.
+     * @throws IllegalArgumentException si la valoración está fuera de rango o el producto no existe.
      * @throws ExecutionException
      * @throws InterruptedException
      */
     public String addRatingToRatings(String documentId, int rating) throws ExecutionException, InterruptedException {
-        // Obtén el documento de la colección "products"
+        if (!ProductRatings.isValid(rating)) {
+            throw new IllegalArgumentException("La valoración debe estar entre " + ProductRatings.MIN_ESTRELLAS
+                    + " y " + ProductRatings.MAX_ESTRELLAS + ".");
+        }
         DocumentReference docRef = db.collection("products").document(documentId);
-        ApiFuture<DocumentSnapshot> future = docRef.get();
-        DocumentSnapshot document = future.get();
-
-        if (document.exists()) {
-            // Obtén el array de calificaciones actual
-            List<Integer> ratings = (List<Integer>) document.get("rating");
-
-            if (ratings == null) {
-                ratings = new ArrayList<>();
+        try {
+            db.runTransaction(transaction -> {
+                DocumentSnapshot document = transaction.get(docRef).get();
+                if (!document.exists()) {
+                    throw new IllegalArgumentException("El documento con ID " + documentId + " no existe.");
+                }
+                // Se parte del agregado guardado o, en documentos antiguos, del resumen de la lista de valoraciones
+                RatingSummary summary = ProductRatings.add(toProduct(document).getValoraciones(), rating);
+                Map<String, Object> updates = new HashMap<>();
+                updates.put("valoraciones", summary);
+                updates.put("rating", FieldValue.delete());
+                transaction.update(docRef, updates);
+                return null;
+            }).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IllegalArgumentException invalid) {
+                throw invalid;
             }
+            throw e;
+        } finally {
+            productCache.invalidate(documentId);
+        }
+        return Timestamp.now().toString();
+    }
 
-            // Agrega la nueva calificación al array
-            ratings.add(rating);
+    /**
+     * Comprueba que un identificador se puede usar como ID de documento de Firestore.
+     */
+    private static boolean isValidDocumentId(String id) {
+        return id != null && !id.isBlank() && !id.contains("/") && !id.equals(".") && !id.equals("..")
+                && !(id.startsWith("__") && id.endsWith("__"));
+    }
 
-            // Actualiza el campo "rating" en el documento
-            WriteResult writeResult = docRef.update("rating", ratings).get();
-            return writeResult.getUpdateTime().toString();
-        } else {
-            throw new IllegalArgumentException("El documento con ID " + documentId + " no existe.");
+    private static boolean isFailedPrecondition(Throwable error) {
+        if (error instanceof FirestoreException firestoreException) {
+            return firestoreException.getStatus() != null
+                    && firestoreException.getStatus().getCode() == Status.Code.FAILED_PRECONDITION;
         }
+        return error instanceof ApiException apiException
+                && apiException.getStatusCode().getCode() == StatusCode.Code.FAILED_PRECONDITION;
     }
 
     /**
      * Actualiza el stock de productos en Firestore.
+     * Si se conoce el stock actual de todos los productos (por el catálogo o por un pedido anterior) y es
+     * suficiente, el stock se descuenta sin leer los documentos: un único lote de incrementos negativos
+     * condicionados a la fecha de actualización conocida de cada documento. Si otro proceso ha modificado
+     * alguno de ellos el lote entero se rechaza y el pedido se procesa con una transacción: los documentos
+     * se leen juntos con un solo getAll y solo se descuenta el stock si todos los productos existen y tienen
+     * stock suficiente, de modo que un pedido nunca queda aplicado a medias. Las líneas repetidas de un
+     * mismo producto se suman. El stock apartado por reservas pendientes ({@link #setReservedStock}) no
+     * cuenta como disponible.
      * @param products Lista de productos con la cantidad de stock a actualizar.
      * @return Mensaje de confirmación.
      */
     public String updateProductStocks(List<Product> products) {
+        return updateProductStocksGroup(List.of(products)).get(0).getMensaje();
+    }
+
+    /**
+     * Actualiza el stock de varios pedidos a la vez (group commit), con las mismas reglas que
+     * {@link #updateProductStocks(List)}: cada pedido se aplica entero o no se aplica. Los pedidos se comprueban
+     * en orden contra el stock que van dejando los anteriores, y cada producto se escribe una sola vez con el
+     * descuento neto de todos los pedidos aceptados, en un único lote o una única transacción.
+     * @param orders Pedidos, cada uno con sus productos y cantidades.
+     * @return Resultado de cada pedido, en el mismo orden; indica si el pedido se ha aplicado y, si no, si el
+     * fallo es transitorio y se puede reintentar.
+     */
+    public List<StockUpdateResult> updateProductStocksGroup(List<List<Product>> orders) {
+        StockUpdateResult[] results = new StockUpdateResult[orders.size()];
+        List<Map<String, Integer>> pendientes = new ArrayList<>(orders.size());
+        Map<String, Integer> index = new LinkedHashMap<>();
+        for (int k = 0; k < orders.size(); k++) {
+            Map<String, Integer> cantidades = new LinkedHashMap<>();
+            for (Product product : orders.get(k)) {
+                // Un UID que no puede ser un ID de documento solo invalida su propio pedido, no el grupo
+                if (!isValidDocumentId(product.getUID())) {
+                    results[k] = StockUpdateResult.rechazado("Error: El ID de producto " + product.getUID() + " no es válido");
+                    break;
+                }
+                // Los UIDs que se sabe que no existen se rechazan sin leer Firestore
+                if (productCache.isKnownMissing(product.getUID())) {
+                    results[k] = StockUpdateResult.rechazado(
+                            "Error: Producto con ID " + product.getUID() + " no encontrado en la base de datos");
+                    break;
+                }
+                cantidades.merge(product.getUID(), product.getCantidad(), Integer::sum);
+            }
+            if (results[k] != null || cantidades.isEmpty()) {
+                if (results[k] == null) {
+                    results[k] = StockUpdateResult.aplicado(STOCK_UPDATED);
+                }
+                pendientes.add(null);
+                continue;
+            }
+            pendientes.add(cantidades);
+            stockOrders.increment();
+            stockLines.add(cantidades.size());
+            for (String UID : cantidades.keySet()) {
+                index.putIfAbsent(UID, index.size());
+            }
+        }
+        if (index.isEmpty()) {
+            return Arrays.asList(results);
+        }
+        List<String> UIDs = new ArrayList<>(index.keySet());
+        DocumentReference[] refs = new DocumentReference[UIDs.size()];
+        long[] reserved = new long[UIDs.size()];
+        for (int i = 0; i < refs.length; i++) {
+            refs[i] = db.collection("products").document(UIDs.get(i));
+            reserved[i] = reservedStock.applyAsLong(UIDs.get(i));
+        }
         try {
-            for (Product product : products) {
-                DocumentReference docRef = db.collection("products").document(product.getUID());
-                DocumentSnapshot document = docRef.get().get();
-
-                if (document.exists()) {
-                    // Asegúrate de que el campo cantidadStock sea un número
-                    Long cantidadStockObj = document.getLong("cantidadStock");
-                    if (cantidadStockObj == null) {
-                        return "Error: El stock para el producto con ID " + product.getUID() + " no está disponible.";
-                    }
-
-                    int currentStock = cantidadStockObj.intValue();
-                    int requestedQuantity = product.getCantidad();
-
-                    // Verifica que haya suficiente stock
-                    if (currentStock >= requestedQuantity) {
-                        // Resta el stock
-                        int newStock = currentStock - requestedQuantity;
-
-                        // Actualiza el stock en Firestore
-                        WriteResult writeResult = docRef.update("cantidadStock", newStock).get();
-                    } else {
-                        // Si no hay suficiente stock, retorna un mensaje de error
-                        return "Error: Stock insuficiente para el producto con ID " + product.getUID();
-                    }
-                } else {
-                    return "Error: Producto con ID " + product.getUID() + " no encontrado en la base de datos";
+            Set<String> missing = ConcurrentHashMap.newKeySet();
+            String[] outcome = decrementKnownStocks(UIDs, refs, reserved, pendientes);
+            if (outcome == null) {
+                outcome = db.runTransaction(transaction -> {
+                    missing.clear();
+                    return decrementInTransaction(transaction, refs, reserved, index, pendientes, missing);
+                }).get();
+            }
+            for (int k = 0; k < results.length; k++) {
+                if (pendientes.get(k) != null) {
+                    results[k] = outcome[k] != null ? StockUpdateResult.rechazado(outcome[k])
+                            : StockUpdateResult.aplicado(STOCK_UPDATED);
                 }
             }
-            // Si todos los productos se actualizan correctamente, devuelve éxito
-            return "Pedido procesado y stock actualizado correctamente para todos los productos";
+            productCache.invalidateAll(UIDs);
+            stockSums.invalidateAll(UIDs);
+            for (String UID : missing) {
+                productCache.put(UID, null);
+                stockVersions.remove(UID);
+            }
         } catch (InterruptedException | ExecutionException e) {
             e.printStackTrace();
-            return "Error al procesar el pedido: " + e.getMessage();
+            for (int k = 0; k < results.length; k++) {
+                if (pendientes.get(k) != null) {
+                    results[k] = StockUpdateResult.fallido("Error al procesar el pedido: " + e.getMessage());
+                }
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Comprueba y descuenta el stock de los pedidos dentro de una transacción. Primero se leen todos los
+     * documentos con un único getAll; los pedidos se comprueban en orden y las escrituras netas se hacen al final.
+     * @param reserved Stock apartado por reservas de cada producto, que los pedidos no pueden usar.
+     * @return Error de cada pedido, o null en los aceptados.
+     */
+    private String[] decrementInTransaction(Transaction transaction, DocumentReference[] refs, long[] reserved,
+                                            Map<String, Integer> index, List<Map<String, Integer>> pendientes,
+                                            Set<String> missing) throws ExecutionException, InterruptedException {
+        // Inicio de la transacción, lectura de los documentos y commit
+        stockTransactions.increment();
+        stockRoundTrips.add(3);
+        List<DocumentSnapshot> documents = transaction.getAll(refs).get();
+        StockLine[] lines = new StockLine[refs.length];
+        for (int i = 0; i < refs.length; i++) {
+            DocumentSnapshot document = documents.get(i);
+            if (document.exists()) {
+                lines[i] = new StockLine(transaction, refs[i], document);
+            }
+        }
+        String[] outcome = new String[pendientes.size()];
+        for (int k = 0; k < pendientes.size(); k++) {
+            Map<String, Integer> cantidades = pendientes.get(k);
+            if (cantidades != null) {
+                outcome[k] = takeOrder(transaction, cantidades, lines, reserved, index, missing);
+            }
+        }
+        for (StockLine line : lines) {
+            if (line != null) {
+                line.write(transaction);
+            }
+        }
+        return outcome;
+    }
+
+    /**
+     * Comprueba un pedido contra el stock que queda sin reservar y, si todas las líneas caben, lo descuenta.
+     * @return Mensaje de error, o null si el pedido se acepta.
+     */
+    private String takeOrder(Transaction transaction, Map<String, Integer> cantidades, StockLine[] lines, long[] reserved,
+                             Map<String, Integer> index, Set<String> missing) throws ExecutionException, InterruptedException {
+        for (Map.Entry<String, Integer> cantidad : cantidades.entrySet()) {
+            String UID = cantidad.getKey();
+            int i = index.get(UID);
+            StockLine line = lines[i];
+            if (line == null) {
+                missing.add(UID);
+                return "Error: Producto con ID " + UID + " no encontrado en la base de datos";
+            }
+            if (!line.isAvailable()) {
+                return "Error: El stock para el producto con ID " + UID + " no está disponible.";
+            }
+            if (!line.ensure(transaction, cantidad.getValue() + reserved[i])) {
+                return "Error: Stock insuficiente para el producto con ID " + UID;
+            }
         }
+        for (Map.Entry<String, Integer> cantidad : cantidades.entrySet()) {
+            lines[index.get(cantidad.getKey())].taken += cantidad.getValue();
+        }
+        return null;
+    }
+
+    /**
+     * Descuenta el stock de los pedidos sin leer los documentos, si se conoce el stock actual de todos los
+     * productos y basta para todos los pedidos sin usar el stock reservado.
+     * @return Resultado de cada pedido (null en los aceptados), o null si hay que usar una transacción.
+     * @throws ExecutionException si la escritura falla por un motivo distinto de un cambio concurrente.
+     * @throws InterruptedException si la operación es interrumpida.
+     */
+    private String[] decrementKnownStocks(List<String> UIDs, DocumentReference[] refs, long[] reserved,
+                                          List<Map<String, Integer>> pendientes)
+            throws ExecutionException, InterruptedException {
+        StockVersion[] versions = new StockVersion[refs.length];
+        Map<String, Long> known = new HashMap<>();
+        Map<String, Long> net = new HashMap<>();
+        for (int i = 0; i < refs.length; i++) {
+            versions[i] = stockVersions.get(UIDs.get(i));
+            if (versions[i] == null) {
+                return null;
+            }
+            known.put(UIDs.get(i), versions[i].stock - reserved[i]);
+            net.put(UIDs.get(i), 0L);
+        }
+        for (Map<String, Integer> cantidades : pendientes) {
+            if (cantidades == null) {
+                continue;
+            }
+            for (Map.Entry<String, Integer> cantidad : cantidades.entrySet()) {
+                long total = net.merge(cantidad.getKey(), (long) cantidad.getValue(), Long::sum);
+                // Un stock conocido insuficiente puede estar desfasado: lo decide la transacción
+                if (known.get(cantidad.getKey()) < total) {
+                    return null;
+                }
+            }
+        }
+        WriteBatch batch = db.batch();
+        for (int i = 0; i < refs.length; i++) {
+            batch.update(refs[i], Precondition.updatedAt(versions[i].updateTime),
+                    "cantidadStock", FieldValue.increment(-net.get(UIDs.get(i))));
+        }
+        stockRoundTrips.increment();
+        List<WriteResult> results;
+        try {
+            results = batch.commit().get();
+        } catch (ExecutionException e) {
+            if (!isFailedPrecondition(e.getCause()) && !isNotFound(e.getCause())) {
+                throw e;
+            }
+            // Otro proceso ha escrito alguno de los documentos: el stock conocido ya no vale
+            stockConflicts.increment();
+            for (String UID : UIDs) {
+                stockVersions.remove(UID);
+            }
+            return null;
+        }
+        for (int i = 0; i < refs.length; i++) {
+            String UID = UIDs.get(i);
+            rememberStock(UID, versions[i].stock - net.get(UID), results.get(i).getUpdateTime());
+        }
+        stockFastPath.increment();
+        return new String[pendientes.size()];
+    }
+
+    /**
+     * Obtiene el stock total de un producto. En los productos con el stock fragmentado es la suma de los
+     * fragmentos; el resultado se guarda unos segundos para no leer todos los fragmentos en cada consulta.
+     * @param UID El identificador único del producto.
+     * @return Stock del producto, o null si no existe.
+     * @throws ExecutionException si hay un error en la ejecución de la consulta.
+     * @throws InterruptedException si la operación es interrumpida.
+     */
+    public Long getProductStock(String UID) throws ExecutionException, InterruptedException {
+        Long cached = stockSums.getIfPresent(UID);
+        if (cached != null) {
+            return cached;
+        }
+        Product product = getProductByUID(UID);
+        if (product == null) {
+            return null;
+        }
+        long stock = product.getCantidadStock();
+        if (product.getFragmentosStock() > 0) {
+            stock = 0;
+            for (DocumentSnapshot shard : db.collection("products").document(UID)
+                    .collection(StockShards.COLLECTION).get().get().getDocuments()) {
+                stock += shardStock(shard);
+            }
+        }
+        stockSums.put(UID, stock);
+        return stock;
     }
+
     /**
-     * Obtiene un producto de Firestore por su UID.
+     * Reparte el stock de un producto en fragmentos, para productos con muchos pedidos simultáneos.
+     * A partir de ese momento los pedidos descuentan de los fragmentos y el campo cantidadStock del documento
+     * deja de actualizarse hasta que se desactive con {@link #disableStockShards(String)}.
+     * @param UID El identificador único del producto.
+     * @param fragmentos Número de fragmentos, entre 2 y {@link StockShards#MAX_FRAGMENTOS}.
+     * @throws IllegalArgumentException si el número de fragmentos no es válido, el producto no existe o ya está fragmentado.
+     * @throws ExecutionException
+     * @throws InterruptedException
+     */
+    public void enableStockShards(String UID, int fragmentos) throws ExecutionException, InterruptedException {
+        if (fragmentos < 2 || fragmentos > StockShards.MAX_FRAGMENTOS) {
+            throw new IllegalArgumentException("El número de fragmentos debe estar entre 2 y " + StockShards.MAX_FRAGMENTOS + ".");
+        }
+        DocumentReference ref = db.collection("products").document(UID);
+        runStockTransaction(UID, transaction -> {
+            DocumentSnapshot document = transaction.get(ref).get();
+            if (!document.exists()) {
+                throw new IllegalArgumentException("El producto con ID " + UID + " no existe.");
+            }
+            if (shardCount(document) > 0) {
+                throw new IllegalArgumentException("El stock del producto con ID " + UID + " ya está fragmentado.");
+            }
+            Long cantidadStock = document.getLong("cantidadStock");
+            long[] shards = StockShards.split(cantidadStock != null ? cantidadStock : 0, fragmentos);
+            DocumentReference[] shardRefs = shardRefs(ref, fragmentos);
+            for (int i = 0; i < fragmentos; i++) {
+                transaction.set(shardRefs[i], Map.of("cantidadStock", shards[i]));
+            }
+            transaction.update(ref, StockShards.FIELD, (long) fragmentos);
+            return null;
+        });
+    }
+
+    /**
+     * Vuelve a guardar el stock de un producto fragmentado en el campo cantidadStock del documento
+     * y elimina los fragmentos.
+     * @param UID El identificador único del producto.
+     * @return Stock del producto.
+     * @throws IllegalArgumentException si el producto no existe o no está fragmentado.
+     * @throws ExecutionException
+     * @throws InterruptedException
+     */
+    public long disableStockShards(String UID) throws ExecutionException, InterruptedException {
+        DocumentReference ref = db.collection("products").document(UID);
+        return runStockTransaction(UID, transaction -> {
+            DocumentSnapshot document = transaction.get(ref).get();
+            if (!document.exists()) {
+                throw new IllegalArgumentException("El producto con ID " + UID + " no existe.");
+            }
+            int fragmentos = shardCount(document);
+            if (fragmentos == 0) {
+                throw new IllegalArgumentException("El stock del producto con ID " + UID + " no está fragmentado.");
+            }
+            DocumentReference[] shardRefs = shardRefs(ref, fragmentos);
+            long stock = 0;
+            for (DocumentSnapshot shard : transaction.getAll(shardRefs).get()) {
+                stock += shardStock(shard);
+            }
+            transaction.update(ref, "cantidadStock", stock, StockShards.FIELD, FieldValue.delete());
+            for (DocumentReference shardRef : shardRefs) {
+                transaction.delete(shardRef);
+            }
+            return stock;
+        });
+    }
+
+    /**
+     * Ejecuta una transacción que cambia el modo de stock de un producto y descarta lo que se sabía de su stock.
+     * Los errores de validación lanzados dentro de la transacción se propagan como IllegalArgumentException.
+     */
+    private <T> T runStockTransaction(String UID, Transaction.Function<T> function)
+            throws ExecutionException, InterruptedException {
+        try {
+            return db.runTransaction(function).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IllegalArgumentException invalid) {
+                throw invalid;
+            }
+            throw e;
+        } finally {
+            productCache.invalidate(UID);
+            stockVersions.remove(UID);
+            stockSums.invalidate(UID);
+        }
+    }
+
+    private static DocumentReference[] shardRefs(DocumentReference ref, int fragmentos) {
+        CollectionReference shards = ref.collection(StockShards.COLLECTION);
+        DocumentReference[] refs = new DocumentReference[fragmentos];
+        for (int i = 0; i < fragmentos; i++) {
+            refs[i] = shards.document(String.valueOf(i));
+        }
+        return refs;
+    }
+
+    private static int shardCount(DocumentSnapshot document) {
+        if (!document.contains(StockShards.FIELD)) {
+            return 0;
+        }
+        Long fragmentos = document.getLong(StockShards.FIELD);
+        return fragmentos != null ? fragmentos.intValue() : 0;
+    }
+
+    private static long shardStock(DocumentSnapshot shard) {
+        Long cantidadStock = shard.exists() ? shard.getLong("cantidadStock") : null;
+        return cantidadStock != null ? cantidadStock : 0;
+    }
+
+    /**
+     * Guarda el stock de un producto si es más reciente que el que ya se conoce.
+     */
+    private void rememberStock(String UID, long stock, Timestamp updateTime) {
+        StockVersion version = new StockVersion(stock, updateTime);
+        stockVersions.merge(UID, version,
+                (current, candidate) -> candidate.updateTime.compareTo(current.updateTime) >= 0 ? candidate : current);
+    }
+
+    private static boolean isNotFound(Throwable error) {
+        if (error instanceof FirestoreException firestoreException) {
+            return firestoreException.getStatus() != null
+                    && firestoreException.getStatus().getCode() == Status.Code.NOT_FOUND;
+        }
+        return error instanceof ApiException apiException
+                && apiException.getStatusCode().getCode() == StatusCode.Code.NOT_FOUND;
+    }
+
+    /**
+     * Stock de un producto en una versión concreta del documento.
+     */
+    private static final class StockVersion {
+        final long stock;
+        final Timestamp updateTime;
+
+        private StockVersion(long stock, Timestamp updateTime) {
+            this.stock = stock;
+            this.updateTime = updateTime;
+        }
+    }
+
+    /**
+     * Stock de un producto leído en la transacción de un grupo de pedidos y cantidad que se le va descontando.
+     * En los productos fragmentados se lee primero un fragmento al azar y, solo si no alcanza, los demás con
+     * un único getAll; el documento del producto solo se lee y las escrituras van a los fragmentos.
+     */
+    private final class StockLine {
+        private final DocumentReference ref;
+        private final Long stock;
+        private final DocumentReference[] shardRefs;
+        private final long[] available;
+        private final int start;
+        private boolean allShardsRead;
+        long taken;
+
+        StockLine(Transaction transaction, DocumentReference ref, DocumentSnapshot document)
+                throws ExecutionException, InterruptedException {
+            this.ref = ref;
+            int fragmentos = shardCount(document);
+            if (fragmentos == 0) {
+                this.stock = document.getLong("cantidadStock");
+                this.shardRefs = null;
+                this.available = null;
+                this.start = 0;
+                return;
+            }
+            this.stock = null;
+            this.shardRefs = shardRefs(ref, fragmentos);
+            this.available = new long[fragmentos];
+            this.start = StockShards.firstShard(fragmentos);
+            stockRoundTrips.increment();
+            available[start] = shardStock(transaction.get(shardRefs[start]).get());
+            allShardsRead = fragmentos == 1;
+        }
+
+        boolean isAvailable() {
+            return shardRefs != null || stock != null;
+        }
+
+        /**
+         * Indica si quedan al menos {@code cantidad} unidades, leyendo el resto de fragmentos si hace falta.
+         */
+        boolean ensure(Transaction transaction, long cantidad) throws ExecutionException, InterruptedException {
+            if (shardRefs != null && !allShardsRead && remaining() < cantidad) {
+                DocumentReference[] rest = new DocumentReference[shardRefs.length - 1];
+                for (int n = 1; n < shardRefs.length; n++) {
+                    rest[n - 1] = shardRefs[(start + n) % shardRefs.length];
+                }
+                stockRoundTrips.increment();
+                List<DocumentSnapshot> shards = transaction.getAll(rest).get();
+                for (int n = 1; n < shardRefs.length; n++) {
+                    available[(start + n) % shardRefs.length] = shardStock(shards.get(n - 1));
+                }
+                allShardsRead = true;
+            }
+            return remaining() >= cantidad;
+        }
+
+        private long remaining() {
+            if (shardRefs == null) {
+                return stock - taken;
+            }
+            // Se suman los valores reales: un fragmento negativo resta del total en lugar de contar como vacío
+            long total = 0;
+            for (long shard : available) {
+                total += shard;
+            }
+            return total - taken;
+        }
+
+        private boolean hasNegativeShard() {
+            for (long shard : available) {
+                if (shard < 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void write(Transaction transaction) {
+            if (taken == 0) {
+                return;
+            }
+            if (shardRefs == null) {
+                transaction.update(ref, "cantidadStock", stock - taken);
+                return;
+            }
+            if (allShardsRead && hasNegativeShard()) {
+                // Se reparte de nuevo el stock que queda para que ningún fragmento quede en negativo
+                long[] rebalanced = StockShards.split(remaining(), shardRefs.length);
+                for (int i = 0; i < shardRefs.length; i++) {
+                    transaction.update(shardRefs[i], "cantidadStock", rebalanced[i]);
+                }
+                return;
+            }
+            long[] fromShards = StockShards.take(available, start, taken);
+            for (int i = 0; i < shardRefs.length; i++) {
+                if (fromShards[i] > 0) {
+                    transaction.update(shardRefs[i], "cantidadStock", available[i] - fromShards[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Obtiene un producto de Firestore por su UID, pasando por la caché de productos.
      * @param UID El identificador único del producto.
      * @return El objeto Product correspondiente, o null si no existe.
      * @throws ExecutionException si hay un error en la ejecución de la consulta.
      * @throws InterruptedException si la operación es interrumpida.
      */
     public Product getProductByUID(String UID) throws ExecutionException, InterruptedException {
+        return productCache.get(UID, this::readProduct);
+    }
+
+    /**
+     * Lee un producto directamente de Firestore, sin pasar por la caché.
+     */
+    private Product readProduct(String UID) throws ExecutionException, InterruptedException {
         DocumentReference docRef = db.collection("products").document(UID);
         DocumentSnapshot document = docRef.get().get();
         if (document.exists()) {
             // Mapea los campos del documento a un objeto Product
-            Product product=document.toObject(Product.class);
-            product.setUID(UID);
-            return product;
+            return toProduct(document);
         } else {
             return null;
         }
     }
+
+    /**
+     * Obtiene varios productos en una sola llamada a Firestore con getAll(); los que están en la caché
+     * de productos no se vuelven a leer.
+     * @param UIDs Identificadores de los productos, en el orden en que se quieren recibir.
+     * @return Un resultado por UID pedido, en el mismo orden, indicando si el producto existe.
+     * @throws ExecutionException si hay un error en la ejecución de la consulta.
+     * @throws InterruptedException si la operación es interrumpida.
+     */
+    public List<ProductLookup> getProductsByUIDs(List<String> UIDs) throws ExecutionException, InterruptedException {
+        // Solo se piden a Firestore los UIDs que no están en la caché
+        Map<String, Optional<Product>> found = new HashMap<>();
+        List<DocumentReference> references = new ArrayList<>();
+        CollectionReference products = db.collection("products");
+        for (String UID : UIDs) {
+            Optional<Product> cached = productCache.getIfPresent(UID);
+            if (cached != null) {
+                found.put(UID, cached);
+            } else if (!found.containsKey(UID)) {
+                found.put(UID, Optional.empty());
+                references.add(products.document(UID));
+            }
+        }
+        if (!references.isEmpty()) {
+            long stamp = productCache.stamp();
+            for (DocumentSnapshot document : db.getAll(references.toArray(new DocumentReference[0])).get()) {
+                Product product = document.exists() ? toProduct(document) : null;
+                productCache.put(document.getId(), product, stamp);
+                found.put(document.getId(), Optional.ofNullable(product));
+            }
+        }
+        List<ProductLookup> lookups = new ArrayList<>(UIDs.size());
+        for (String UID : UIDs) {
+            Product product = found.get(UID).orElse(null);
+            lookups.add(new ProductLookup(UID, product != null, product));
+        }
+        return lookups;
+    }
+
     /**
      * Recupera los detalles de un usuario a partir de su UID desde Firestore.
      * Este método se conecta a la base de datos Firestore, obtiene el documento correspondiente al UID
@@ -326,24 +1048,7 @@ public class FirestoreService {
 
             // Comprobar si el documento existe
             if (document.exists()) {
-                // Extraer el campo de imagen manualmente
-                String imageUrl = document.getString("fotoPerfil");
-                User user= new User();
-                user.setDNI(document.getString("DNI"));
-                user.setApellido(document.getString("apellido"));
-                user.setCiudad(document.getString("ciudad"));
-                user.setCodigoPostal(document.getString("codigoPostal"));
-                user.setDireccion(document.getString("direccion"));
-                user.setEstadoCuenta(document.getString("active"));
-                user.setFechaNacimiento(document.getDate("fechaNacimiento"));
-                user.setFechaRegistro(document.getDate("fechaRegistro"));
-                user.setIdiomaPreferido(document.getString("idiomaPreferido"));
-                user.setNombre(document.getString("nombre"));
-                user.setUserName(document.getString("nombreUsuario"));
-                user.setPais(document.getString("pais"));
-                user.setProvincia(document.getString("provincia"));
-                user.setTelefono(document.getString("telefono"));
-                return user;
+                return UserDocumentCodec.fromDocument(document);
             } else {
                 // El documento no existe
                 return null;
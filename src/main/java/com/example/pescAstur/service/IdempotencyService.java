@@ -0,0 +1,309 @@
+package com.example.pescAstur.service;
+
+import com.example.pescAstur.model.IdempotentResponse;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FirestoreException;
+import com.google.cloud.firestore.Precondition;
+import io.grpc.Status;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
+
+/**
+ * Claves de idempotencia (cabecera {@code Idempotency-Key}) para los endpoints que modifican el stock.
+ * La primera petición con una clave reserva la clave en Firestore, se ejecuta y guarda su respuesta; las
+ * repeticiones reciben la respuesta guardada sin volver a ejecutarse. Las respuestas recientes se sirven desde
+ * una caché en memoria limitada, sin acceder a Firestore; el registro en Firestore cubre las repeticiones que
+ * llegan a otra instancia o después de que la entrada haya salido de la caché. Los documentos guardan su fecha
+ * de caducidad en el campo {@code caduca} para poder borrarlos con una política TTL de Firestore.
+ * Una clave reservada guarda cuándo se reservó ({@code reclamado}) y pasa a {@code iniciada} justo antes de
+ * ejecutar la operación. Si una reserva sigue pendiente después del plazo de la concesión (la instancia se cayó antes
+ * de empezar), otra petición con la misma clave y el mismo contenido puede hacerse con ella. Una clave iniciada no
+ * se vuelve a ejecutar nunca: si no llega a guardarse su respuesta, las repeticiones reciben un conflicto hasta que
+ * caduca, porque no se sabe si la operación se aplicó.
+ */
+@Service
+public class IdempotencyService {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyService.class);
+    public static final String COLLECTION = "idempotencyKeys";
+    public static final int MAX_KEY_LENGTH = 128;
+    public static final Duration RETENTION = Duration.ofHours(24);
+    private static final Pattern KEY_PATTERN = Pattern.compile("[A-Za-z0-9_.:-]{1," + MAX_KEY_LENGTH + "}");
+    // Identificadores que Firestore no admite como ID de documento
+    private static final Pattern RESERVED_KEY = Pattern.compile("\\.\\.?|__.*__");
+    private static final String PENDIENTE = "pendiente";
+    private static final String INICIADA = "iniciada";
+    private static final int MAX_INTENTOS_GUARDADO = 3;
+    private static final String COMPLETADA = "completada";
+
+    private final FirestoreService firestoreService;
+    private final Duration lease;
+    private final Cache<String, IdempotentResponse> completed = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(RETENTION)
+            .build();
+    private final ConcurrentHashMap<String, CompletableFuture<IdempotentResponse>> inFlight = new ConcurrentHashMap<>();
+
+    @Autowired
+    public IdempotencyService(FirestoreService firestoreService,
+                              @Value("${pescastur.idempotency.lease:PT2M}") Duration lease) {
+        this.firestoreService = firestoreService;
+        this.lease = lease;
+    }
+
+    /**
+     * Indica si una clave de idempotencia es válida: de 1 a 128 letras, dígitos o {@code _ . : -}, sin ser
+     * {@code .}, {@code ..} ni {@code __...__}, de modo que se puede usar como identificador de documento.
+     */
+    public static boolean isValidKey(String key) {
+        return key != null && KEY_PATTERN.matcher(key).matches() && !RESERVED_KEY.matcher(key).matches();
+    }
+
+    /**
+     * Huella de una petición (SHA-256 de su contenido).
+     * @param content Contenido de la petición, por ejemplo el cuerpo serializado.
+     * @return Huella en hexadecimal.
+     */
+    public static String fingerprint(String content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+
+    /**
+     * Ejecuta una operación una sola vez por clave y devuelve su respuesta, o la respuesta guardada si la clave
+     * ya se usó. Si la operación devuelve un resultado reintentable o lanza una excepción, la clave se libera; las
+     * repeticiones que esperaban a esa petición en esta instancia la vuelven a intentar en lugar de repetir el fallo.
+     * @param key Clave de idempotencia.
+     * @param fingerprint Huella de la petición.
+     * @param operation Operación a ejecutar.
+     * @return Respuesta de la operación, marcada como repetida si es la guardada de una petición anterior.
+     * @throws IllegalArgumentException si la clave ya se usó con una petición distinta.
+     * @throws IllegalStateException si otra petición con la misma clave se está procesando en otra instancia, o se
+     * inició y no se sabe si terminó.
+     * @throws Exception si la operación falla.
+     */
+    public IdempotentResponse execute(String key, String fingerprint, Callable<IdempotentResponse> operation) throws Exception {
+        CompletableFuture<IdempotentResponse> mine = new CompletableFuture<>();
+        while (true) {
+            IdempotentResponse cached = completed.getIfPresent(key);
+            if (cached != null) {
+                return replay(key, cached, fingerprint);
+            }
+            CompletableFuture<IdempotentResponse> running = inFlight.putIfAbsent(key, mine);
+            if (running == null) {
+                break;
+            }
+            // Repetición mientras la petición original sigue en curso en esta instancia: se espera su respuesta
+            IdempotentResponse previous;
+            try {
+                previous = running.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception cause ? cause : e;
+            }
+            if (!previous.isReintentable()) {
+                return replay(key, previous, fingerprint);
+            }
+            // La petición original no se aplicó y liberó la clave: esta repetición la vuelve a intentar
+            inFlight.remove(key, running);
+        }
+        try {
+            IdempotentResponse response = executeOnce(key, fingerprint, operation);
+            mine.complete(response);
+            return response;
+        } catch (Exception e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private IdempotentResponse executeOnce(String key, String fingerprint, Callable<IdempotentResponse> operation)
+            throws Exception {
+        DocumentReference ref = firestoreService.getDb().collection(COLLECTION).document(key);
+        Timestamp caduca = Timestamp.ofTimeSecondsAndNanos(
+                Timestamp.now().getSeconds() + RETENTION.toSeconds(), 0);
+        Map<String, Object> pending = new HashMap<>();
+        pending.put("huella", fingerprint);
+        pending.put("estado", PENDIENTE);
+        pending.put("reclamado", Timestamp.now());
+        pending.put("caduca", caduca);
+        Timestamp claimed;
+        try {
+            claimed = ref.create(pending).get().getUpdateTime();
+        } catch (ExecutionException e) {
+            if (!isAlreadyExists(e.getCause())) {
+                throw e;
+            }
+            DocumentSnapshot document = ref.get().get();
+            IdempotentResponse stored = fromDocument(document);
+            if (stored != null) {
+                completed.put(key, stored);
+                return replay(key, stored, fingerprint);
+            }
+            claimed = takeOver(key, ref, document, fingerprint, pending);
+            if (claimed == null) {
+                throw new IllegalStateException("La petición con la clave " + key + " se está procesando.");
+            }
+        }
+        // Desde aquí la operación puede aplicarse, así que la reserva ya no se puede reclamar aunque venza
+        try {
+            ref.update(Map.of("estado", INICIADA), Precondition.updatedAt(claimed)).get();
+        } catch (ExecutionException e) {
+            if (isFailedPrecondition(e.getCause())) {
+                throw new IllegalStateException("La petición con la clave " + key + " se está procesando.");
+            }
+            throw e;
+        }
+
+        IdempotentResponse response;
+        try {
+            response = operation.call();
+        } catch (Exception e) {
+            release(ref);
+            throw e;
+        }
+        response.setHuella(fingerprint);
+        if (response.isReintentable()) {
+            release(ref);
+            return response;
+        }
+        Map<String, Object> record = new HashMap<>();
+        record.put("huella", fingerprint);
+        record.put("estado", COMPLETADA);
+        record.put("codigo", (long) response.getCodigo());
+        record.put("cuerpo", response.getCuerpo());
+        record.put("caduca", caduca);
+        store(key, ref, record);
+        completed.put(key, response);
+        return response;
+    }
+
+    /**
+     * Guarda la respuesta de una clave, con algunos reintentos. Si no se consigue la clave queda iniciada: esta
+     * instancia responde a las repeticiones desde memoria y en otras instancias reciben un conflicto.
+     */
+    private static void store(String key, DocumentReference ref, Map<String, Object> record) throws InterruptedException {
+        for (int intento = 1; intento <= MAX_INTENTOS_GUARDADO; intento++) {
+            try {
+                ref.set(record).get();
+                return;
+            } catch (ExecutionException e) {
+                logger.warn("No se ha podido guardar la respuesta de la clave de idempotencia {} (intento {})",
+                        key, intento, e);
+            }
+        }
+    }
+
+    /**
+     * Se hace con una clave que sigue pendiente (su operación no ha empezado) si su concesión ha vencido. La reserva
+     * se sustituye condicionada a la versión leída, de modo que solo una de las peticiones que compiten por la clave
+     * se hace con ella. Una clave iniciada no se reclama nunca.
+     * @return Fecha de actualización de la reserva de esta petición, o null si la clave no se puede reclamar.
+     * @throws IllegalArgumentException si la clave se reservó con una petición distinta.
+     */
+    private Timestamp takeOver(String key, DocumentReference ref, DocumentSnapshot document, String fingerprint,
+                               Map<String, Object> pending) throws ExecutionException, InterruptedException {
+        if (!document.exists()) {
+            // La reserva se ha liberado entre la creación y la lectura
+            try {
+                return ref.create(pending).get().getUpdateTime();
+            } catch (ExecutionException e) {
+                if (isAlreadyExists(e.getCause())) {
+                    return null;
+                }
+                throw e;
+            }
+        }
+        String huella = document.getString("huella");
+        if (huella != null && !huella.equals(fingerprint)) {
+            throw new IllegalArgumentException("La clave " + key + " ya se ha usado con una petición distinta.");
+        }
+        if (!PENDIENTE.equals(document.getString("estado"))) {
+            return null;
+        }
+        Timestamp reclamado = document.getTimestamp("reclamado");
+        if (reclamado != null && reclamado.toDate().toInstant().plus(lease).isAfter(Instant.now())) {
+            return null;
+        }
+        try {
+            Timestamp updated = ref.update(pending, Precondition.updatedAt(document.getUpdateTime())).get().getUpdateTime();
+            logger.warn("Reserva vencida de la clave de idempotencia {} reclamada de nuevo", key);
+            return updated;
+        } catch (ExecutionException e) {
+            if (isFailedPrecondition(e.getCause())) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    private static IdempotentResponse replay(String key, IdempotentResponse stored, String fingerprint) {
+        if (stored.getHuella() != null && !stored.getHuella().equals(fingerprint)) {
+            throw new IllegalArgumentException("La clave " + key + " ya se ha usado con una petición distinta.");
+        }
+        return new IdempotentResponse(stored.getCodigo(), stored.getCuerpo(), stored.getHuella(), false, true);
+    }
+
+    private static IdempotentResponse fromDocument(DocumentSnapshot document) {
+        if (!document.exists() || !COMPLETADA.equals(document.getString("estado"))) {
+            return null;
+        }
+        Long codigo = document.getLong("codigo");
+        return new IdempotentResponse(codigo != null ? codigo.intValue() : 200, document.getString("cuerpo"),
+                document.getString("huella"), false, false);
+    }
+
+    private static void release(DocumentReference ref) {
+        try {
+            ref.delete().get();
+        } catch (ExecutionException | InterruptedException e) {
+            logger.warn("No se ha podido liberar la clave de idempotencia {}", ref.getId(), e);
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static boolean isAlreadyExists(Throwable error) {
+        return hasCode(error, Status.Code.ALREADY_EXISTS, StatusCode.Code.ALREADY_EXISTS);
+    }
+
+    private static boolean isFailedPrecondition(Throwable error) {
+        return hasCode(error, Status.Code.FAILED_PRECONDITION, StatusCode.Code.FAILED_PRECONDITION);
+    }
+
+    private static boolean hasCode(Throwable error, Status.Code grpcCode, StatusCode.Code apiCode) {
+        if (error instanceof FirestoreException firestoreException) {
+            return firestoreException.getStatus() != null && firestoreException.getStatus().getCode() == grpcCode;
+        }
+        return error instanceof ApiException apiException && apiException.getStatusCode().getCode() == apiCode;
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.pescAstur.service;
+
+import com.example.pescAstur.model.Product;
+import com.example.pescAstur.model.RatingSummary;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Codificación binaria compacta de productos para la instantánea local del catálogo.
+ * Los campos se escriben siempre en el mismo orden, sin nombres; las cadenas van precedidas de su
+ * longitud en bytes UTF-8 (-1 para null). La lista de valoraciones sueltas no se guarda: el catálogo
+ * solo conserva el agregado.
+ */
+public final class ProductBinaryCodec {
+
+    // Tamaño mínimo de un producto codificado: 9 cadenas null, 2 enteros, 3 doubles, sin agregado ni comentarios
+    public static final int MIN_PRODUCT_BYTES = 9 * Integer.BYTES + 2 * Integer.BYTES + 3 * Double.BYTES + 1 + Integer.BYTES;
+
+    private ProductBinaryCodec() {
+    }
+
+    /**
+     * Escribe un producto.
+     * @param product Producto a codificar.
+     * @param out Destino.
+     * @throws IOException si falla la escritura.
+     */
+    public static void write(Product product, DataOutput out) throws IOException {
+        writeString(product.getUID(), out);
+        out.writeInt(product.getCantidadStock());
+        writeString(product.getCategoria(), out);
+        out.writeDouble(product.getCoste());
+        writeString(product.getDescripcion(), out);
+        out.writeDouble(product.getDescuento());
+        writeString(product.getDimensiones(), out);
+        writeString(product.getFechaCreacion(), out);
+        writeString(product.getImagenURL(), out);
+        writeString(product.getMarca(), out);
+        writeString(product.getNombre(), out);
+        writeString(product.getPeso(), out);
+        out.writeDouble(product.getPrecio());
+        out.writeInt(product.getFragmentosStock());
+        writeRatingSummary(product.getValoraciones(), out);
+        List<String> comentarios = product.getComentarios();
+        out.writeInt(comentarios == null ? -1 : comentarios.size());
+        if (comentarios != null) {
+            for (String comentario : comentarios) {
+                writeString(comentario, out);
+            }
+        }
+    }
+
+    /**
+     * Lee un producto escrito con {@link #write(Product, DataOutput)} desde la posición actual del buffer.
+     * @param in Buffer de origen, por ejemplo un fichero mapeado en memoria.
+     * @return Producto leído.
+     * @throws java.nio.BufferUnderflowException si el buffer está truncado.
+     */
+    public static Product read(ByteBuffer in) {
+        Product product = new Product();
+        product.setUID(readString(in));
+        product.setCantidadStock(in.getInt());
+        product.setCategoria(readString(in));
+        product.setCoste(in.getDouble());
+        product.setDescripcion(readString(in));
+        product.setDescuento(in.getDouble());
+        product.setDimensiones(readString(in));
+        product.setFechaCreacion(readString(in));
+        product.setImagenURL(readString(in));
+        product.setMarca(readString(in));
+        product.setNombre(readString(in));
+        product.setPeso(readString(in));
+        product.setPrecio(in.getDouble());
+        product.setFragmentosStock(in.getInt());
+        product.setValoraciones(readRatingSummary(in));
+        int comentarios = readCount(in, Integer.BYTES, true);
+        if (comentarios >= 0) {
+            List<String> list = new ArrayList<>(comentarios);
+            for (int i = 0; i < comentarios; i++) {
+                list.add(readString(in));
+            }
+            product.setComentarios(list);
+        }
+        return product;
+    }
+
+    /**
+     * Lee el número de elementos de una lista y comprueba que cabe en lo que queda del buffer antes de reservar
+     * memoria para ella, de modo que un fichero truncado o corrupto se rechaza en lugar de agotar la memoria.
+     * @param in Buffer de origen.
+     * @param minElementBytes Tamaño mínimo codificado de cada elemento.
+     * @param nullable Si se admite -1 para una lista null.
+     * @return Número de elementos, o -1 para una lista null.
+     * @throws IllegalStateException si el número no es posible con los bytes restantes.
+     */
+    public static int readCount(ByteBuffer in, int minElementBytes, boolean nullable) {
+        int count = in.getInt();
+        if (count == -1 && nullable) {
+            return count;
+        }
+        if (count < 0 || (long) count * minElementBytes > in.remaining()) {
+            throw new IllegalStateException("Número de elementos no válido en la instantánea del catálogo: " + count);
+        }
+        return count;
+    }
+
+    public static void writeString(String value, DataOutput out) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.remaining()) {
+            throw new IllegalStateException("Cadena truncada en la instantánea del catálogo");
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeRatingSummary(RatingSummary summary, DataOutput out) throws IOException {
+        out.writeBoolean(summary != null);
+        if (summary == null) {
+            return;
+        }
+        out.writeLong(summary.getRecuento());
+        out.writeLong(summary.getSuma());
+        out.writeDouble(summary.getMedia());
+        List<Long> histograma = summary.getHistograma();
+        out.writeInt(histograma == null ? -1 : histograma.size());
+        if (histograma != null) {
+            for (Long count : histograma) {
+                out.writeLong(count != null ? count : 0);
+            }
+        }
+    }
+
+    private static RatingSummary readRatingSummary(ByteBuffer in) {
+        if (in.get() == 0) {
+            return null;
+        }
+        RatingSummary summary = new RatingSummary();
+        summary.setRecuento(in.getLong());
+        summary.setSuma(in.getLong());
+        summary.setMedia(in.getDouble());
+        int size = readCount(in, Long.BYTES, true);
+        if (size >= 0) {
+            List<Long> histograma = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                histograma.add(in.getLong());
+            }
+            summary.setHistograma(histograma);
+        }
+        return summary;
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.pescAstur.service;
+
+import com.example.pescAstur.model.Product;
+import com.example.pescAstur.model.ProductCacheStats;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caché de lectura de documentos de producto por UID.
+ * Está limitada por el tamaño estimado de los productos, caduca las entradas por tiempo y guarda
+ * también los UIDs que no existen (caché negativa) con una caducidad más corta.
+ * Una invalidación que llega mientras se lee un producto de Firestore no se pierde: la lectura no vuelve a
+ * guardar el valor anterior al cambio.
+ */
+public class ProductCache {
+
+    public static final long DEFAULT_MAX_WEIGHT_BYTES = 16 * 1024 * 1024;
+    public static final Duration DEFAULT_TTL = Duration.ofMinutes(5);
+    public static final Duration DEFAULT_NEGATIVE_TTL = Duration.ofSeconds(30);
+
+    private final Cache<String, Optional<Product>> cache;
+    private final long maxWeightBytes;
+    // Se incrementa antes de cada invalidación; permite descartar lecturas por lotes que la solapan
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public ProductCache() {
+        this(DEFAULT_MAX_WEIGHT_BYTES, DEFAULT_TTL, DEFAULT_NEGATIVE_TTL);
+    }
+
+    public ProductCache(long maxWeightBytes, Duration ttl, Duration negativeTtl) {
+        this.maxWeightBytes = maxWeightBytes;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxWeightBytes)
+                .weigher((String UID, Optional<Product> product) -> estimateSize(UID, product))
+                .expireAfter(new Expiry<String, Optional<Product>>() {
+                    @Override
+                    public long expireAfterCreate(String UID, Optional<Product> product, long currentTime) {
+                        return (product.isPresent() ? ttl : negativeTtl).toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String UID, Optional<Product> product, long currentTime, long currentDuration) {
+                        return expireAfterCreate(UID, product, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String UID, Optional<Product> product, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Obtiene un producto de la caché o lo carga de Firestore si no está.
+     * @param UID El identificador único del producto.
+     * @param loader Lectura del producto en Firestore; devuelve null si no existe.
+     * @return El producto, o null si no existe.
+     * @throws ExecutionException
+     * @throws InterruptedException
+     */
+    public Product get(String UID, Loader loader) throws ExecutionException, InterruptedException {
+        try {
+            // Carga atómica: una invalidación durante la lectura espera a que termine y descarta el valor leído
+            return cache.get(UID, uid -> {
+                try {
+                    return Optional.ofNullable(loader.load(uid));
+                } catch (ExecutionException | InterruptedException e) {
+                    throw new LoadException(e);
+                }
+            }).orElse(null);
+        } catch (LoadException e) {
+            if (e.getCause() instanceof InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+                throw interrupted;
+            }
+            throw (ExecutionException) e.getCause();
+        }
+    }
+
+    /**
+     * Consulta la caché sin cargar de Firestore.
+     * @param UID El identificador único del producto.
+     * @return null si el UID no está en caché; Optional vacío si está cacheado como inexistente.
+     */
+    public Optional<Product> getIfPresent(String UID) {
+        return cache.getIfPresent(UID);
+    }
+
+    /**
+     * Indica si el UID está cacheado como inexistente.
+     */
+    public boolean isKnownMissing(String UID) {
+        Optional<Product> cached = cache.getIfPresent(UID);
+        return cached != null && cached.isEmpty();
+    }
+
+    /**
+     * Guarda el resultado de una lectura de Firestore.
+     * @param UID El identificador único del producto.
+     * @param product El producto leído, o null si no existe.
+     */
+    public void put(String UID, Product product) {
+        cache.put(UID, Optional.ofNullable(product));
+    }
+
+    /**
+     * Marca de invalidaciones que se toma antes de una lectura de Firestore cuyo resultado se guarda con
+     * {@link #put(String, Product, long)}.
+     */
+    public long stamp() {
+        return invalidations.get();
+    }
+
+    /**
+     * Guarda el resultado de una lectura de Firestore salvo que haya habido alguna invalidación desde que
+     * se tomó la marca, en cuyo caso el valor leído puede ser anterior al cambio y no se guarda.
+     * @param UID El identificador único del producto.
+     * @param product El producto leído, o null si no existe.
+     * @param stamp Marca tomada con {@link #stamp()} antes de la lectura.
+     */
+    public void put(String UID, Product product, long stamp) {
+        cache.put(UID, Optional.ofNullable(product));
+        // Las invalidaciones incrementan el contador antes de borrar: si no se ve el incremento aquí,
+        // su borrado llega después de este put
+        if (invalidations.get() != stamp) {
+            cache.invalidate(UID);
+        }
+    }
+
+    /**
+     * Descarta la entrada de un producto tras escribirlo o al recibir un cambio del catálogo.
+     */
+    public void invalidate(String UID) {
+        invalidations.incrementAndGet();
+        cache.invalidate(UID);
+    }
+
+    public void invalidateAll(List<String> UIDs) {
+        invalidations.incrementAndGet();
+        cache.invalidateAll(UIDs);
+    }
+
+    /**
+     * Métricas de la caché para poder dimensionarla.
+     */
+    public ProductCacheStats stats() {
+        // Aplica el mantenimiento pendiente para que el peso y las expulsiones estén al día
+        cache.cleanUp();
+        CacheStats stats = cache.stats();
+        long negatives = 0;
+        for (Map.Entry<String, Optional<Product>> entry : cache.asMap().entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                negatives++;
+            }
+        }
+        long weight = cache.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L);
+        return new ProductCacheStats(stats.hitCount(), stats.missCount(), stats.hitRate(), stats.evictionCount(),
+                cache.estimatedSize(), negatives, weight, maxWeightBytes);
+    }
+
+    /**
+     * Estimación aproximada del tamaño en memoria de una entrada.
+     */
+    static int estimateSize(String UID, Optional<Product> entry) {
+        int size = 64 + stringSize(UID);
+        if (entry.isEmpty()) {
+            return size;
+        }
+        Product product = entry.get();
+        size += 96;
+        size += stringSize(product.getCategoria()) + stringSize(product.getDescripcion())
+                + stringSize(product.getDimensiones()) + stringSize(product.getFechaCreacion())
+                + stringSize(product.getImagenURL()) + stringSize(product.getMarca())
+                + stringSize(product.getNombre()) + stringSize(product.getPeso()) + stringSize(product.getUID());
+        if (product.getRating() != null) {
+            size += 16 * product.getRating().size();
+        }
+        if (product.getComentarios() != null) {
+            for (String comentario : product.getComentarios()) {
+                size += 8 + stringSize(comentario);
+            }
+        }
+        return size;
+    }
+
+    private static int stringSize(String value) {
+        return value == null ? 0 : 40 + value.length();
+    }
+
+    /**
+     * Envuelve las excepciones de la lectura para atravesar la carga de la caché.
+     */
+    private static final class LoadException extends RuntimeException {
+        private LoadException(Exception cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * Lectura de un producto en Firestore.
+     */
+    @FunctionalInterface
+    public interface Loader {
+        Product load(String UID) throws ExecutionException, InterruptedException;
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.pescAstur.service;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Evento publicado por {@link ProductCatalogService} cada vez que cambia el catálogo en memoria.
+ * Los índices derivados lo escuchan para actualizarse de forma incremental.
+ */
+@Value
+public class ProductCatalogChangedEvent {
+    long version;
+    List<ProductChange> cambios;
+}
@@ -0,0 +1,439 @@
+package com.example.pescAstur.service;
+
+import com.example.pescAstur.model.Product;
+import com.example.pescAstur.model.ProductPage;
+import com.example.pescAstur.model.ProductSyncResult;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentChange;
+import com.google.cloud.firestore.FirestoreException;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Catálogo de productos en memoria.
+ * Se carga una sola vez con un snapshot listener sobre la colección products y se mantiene
+ * actualizado con los cambios que envía Firestore, de modo que las lecturas no consultan la base de datos.
+ */
+@Service
+public class ProductCatalogService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProductCatalogService.class);
+    private static final long RECONNECT_DELAY_SECONDS = 5;
+    private static final long SNAPSHOT_DELAY_SECONDS = 30;
+    // Las eliminaciones se recuerdan durante un tiempo limitado; un cliente más antiguo recibe el catálogo completo
+    private static final long TOMBSTONE_RETENTION_SECONDS = 24 * 60 * 60;
+    private static final int MAX_TOMBSTONES = 10_000;
+
+    private final FirestoreService firestoreService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final CatalogSnapshotStore snapshotStore;
+    private final ScheduledExecutorService executor;
+
+    // Ordenado por UID, igual que el orden por defecto de Firestore
+    private final ConcurrentSkipListMap<String, CatalogEntry> entries = new ConcurrentSkipListMap<>();
+    private final Object writeLock = new Object();
+    // Registro de cambios para la sincronización incremental, ordenado por fecha de actualización (protegido por writeLock)
+    private final TreeSet<ChangeRef> updates = new TreeSet<>();
+    private final TreeSet<ChangeRef> tombstones = new TreeSet<>();
+    private Timestamp readTime;
+    private Timestamp syncHorizon;
+
+    private volatile boolean loaded;
+    private volatile long version;
+    private volatile List<Product> products = List.of();
+
+    private ListenerRegistration registration;
+    private boolean awaitingInitialSnapshot;
+    private volatile boolean snapshotScheduled;
+
+    public ProductCatalogService(FirestoreService firestoreService, ApplicationEventPublisher eventPublisher,
+                                 CatalogSnapshotStore snapshotStore) {
+        this.firestoreService = firestoreService;
+        this.eventPublisher = eventPublisher;
+        this.snapshotStore = snapshotStore;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "product-catalog");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Registra el snapshot listener sobre la colección products una vez arrancada la aplicación,
+     * cuando todos los índices que escuchan los cambios del catálogo ya están registrados.
+     * Si hay una instantánea local del catálogo se carga antes, de modo que el catálogo se sirve desde
+     * el arranque y la primera instantánea de Firestore solo publica los productos que han cambiado.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (registration != null) {
+            return;
+        }
+        if (!loaded) {
+            loadSnapshot();
+        }
+        awaitingInitialSnapshot = true;
+        registration = firestoreService.getDb().collection("products")
+                .addSnapshotListener(executor, this::onSnapshot);
+        logger.info("Snapshot listener del catálogo de productos registrado");
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (registration != null) {
+            registration.remove();
+            registration = null;
+        }
+        executor.shutdownNow();
+        if (loaded) {
+            saveSnapshot();
+        }
+    }
+
+    /**
+     * Obtiene todos los productos del catálogo ordenados por UID.
+     * Mientras no haya llegado la primera instantánea de Firestore se consulta la colección directamente.
+     * @return Lista inmutable de productos.
+     * @throws ExecutionException
+     * @throws InterruptedException
+     */
+    public List<Product> getAllProducts() throws ExecutionException, InterruptedException {
+        return getAllProducts(null);
+    }
+
+    /**
+     * Obtiene todos los productos del catálogo ordenados por UID.
+     * Si el catálogo no está cargado, la consulta a Firestore lee solo los campos indicados.
+     * @param fields Campos que se van a proyectar, o null si se necesita el producto completo.
+     * @return Lista de productos.
+     * @throws ExecutionException
+     * @throws InterruptedException
+     */
+    public List<Product> getAllProducts(Set<String> fields) throws ExecutionException, InterruptedException {
+        if (!loaded) {
+            return fields == null ? firestoreService.getAllProducts() : firestoreService.getAllProducts(fields);
+        }
+        return products;
+    }
+
+    /**
+     * Obtiene una página de productos ordenados por UID.
+     * Usa el mismo cursor que {@link FirestoreService#getProductsPage(int, String, Set)}, que atiende la petición
+     * mientras el catálogo no está cargado.
+     * @param pageSize Número máximo de productos de la página.
+     * @param cursor Cursor devuelto por la página anterior, o null para la primera página.
+     * @param fields Campos que se van a proyectar, o null si se necesita el producto completo.
+     * @return Página de productos con el cursor de la siguiente.
+     * @throws ExecutionException
+     * @throws InterruptedException
+     */
+    public ProductPage<Product> getProductsPage(int pageSize, String cursor, Set<String> fields)
+            throws ExecutionException, InterruptedException {
+        if (!loaded) {
+            return firestoreService.getProductsPage(pageSize, cursor, fields);
+        }
+        String lastUID = FirestoreService.decodeCursor(cursor);
+        NavigableMap<String, CatalogEntry> tail = lastUID != null ? entries.tailMap(lastUID, false) : entries;
+        List<Product> page = new ArrayList<>(Math.min(pageSize, tail.size()));
+        boolean hasMore = false;
+        for (CatalogEntry entry : tail.values()) {
+            if (page.size() == pageSize) {
+                hasMore = true;
+                break;
+            }
+            page.add(entry.product);
+        }
+        String nextCursor = hasMore ? FirestoreService.encodeCursor(page.get(page.size() - 1).getUID()) : null;
+        return new ProductPage<>(page, nextCursor);
+    }
+
+    /**
+     * Obtiene un producto del catálogo por su UID.
+     * @param UID El identificador único del producto.
+     * @return El producto, o null si no está en el catálogo.
+     */
+    public Product getProduct(String UID) {
+        CatalogEntry entry = entries.get(UID);
+        return entry != null ? entry.product : null;
+    }
+
+    /**
+     * Indica si el catálogo ya ha recibido la primera instantánea de Firestore.
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Versión del catálogo; se incrementa con cada lote de cambios aplicado.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Obtiene los productos creados, modificados o eliminados después de una fecha de actualización de Firestore.
+     * Si no se indica fecha o es anterior a las eliminaciones que se conservan, se devuelve el catálogo completo.
+     * @param since Token de la sincronización anterior (fecha de lectura en formato RFC 3339), o null.
+     * @return Cambios del catálogo con el token para la siguiente sincronización.
+     * @throws IllegalArgumentException si el token no es una fecha válida.
+     */
+    public ProductSyncResult getChangesSince(String since) {
+        Timestamp sinceTime = null;
+        if (since != null && !since.isBlank()) {
+            try {
+                sinceTime = Timestamp.parseTimestamp(since);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Token de sincronización no válido: " + since);
+            }
+        }
+        synchronized (writeLock) {
+            String token = readTime != null ? readTime.toString() : null;
+            if (sinceTime == null || syncHorizon == null || sinceTime.compareTo(syncHorizon) < 0) {
+                return new ProductSyncResult(products, List.of(), token, true);
+            }
+            ChangeRef from = new ChangeRef(sinceTime, null);
+            List<Product> changed = new ArrayList<>();
+            for (ChangeRef ref : updates.tailSet(from, false)) {
+                changed.add(entries.get(ref.uid).product);
+            }
+            List<String> deleted = new ArrayList<>();
+            for (ChangeRef ref : tombstones.tailSet(from, false)) {
+                if (!entries.containsKey(ref.uid)) {
+                    deleted.add(ref.uid);
+                }
+            }
+            return new ProductSyncResult(changed, deleted, token, false);
+        }
+    }
+
+    private void onSnapshot(QuerySnapshot snapshot, FirestoreException error) {
+        if (error != null) {
+            logger.error("Error en el snapshot listener del catálogo de productos", error);
+            scheduleReconnect();
+            return;
+        }
+        if (snapshot == null) {
+            return;
+        }
+        Timestamp snapshotReadTime = snapshot.getReadTime() != null ? snapshot.getReadTime() : Timestamp.now();
+        if (awaitingInitialSnapshot) {
+            // La primera instantánea contiene la colección completa: se reconcilia con lo que haya en memoria
+            awaitingInitialSnapshot = false;
+            replaceAll(snapshot.getDocuments(), snapshotReadTime);
+        } else {
+            applyChanges(snapshot.getDocumentChanges(), snapshotReadTime);
+        }
+    }
+
+    private synchronized void scheduleReconnect() {
+        if (registration != null) {
+            registration.remove();
+            registration = null;
+        }
+        if (!executor.isShutdown()) {
+            executor.schedule(this::start, RECONNECT_DELAY_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private void replaceAll(List<QueryDocumentSnapshot> documents, Timestamp snapshotReadTime) {
+        synchronized (writeLock) {
+            List<ProductChange> changes = new ArrayList<>();
+            Set<String> present = new HashSet<>();
+            for (QueryDocumentSnapshot document : documents) {
+                present.add(document.getId());
+                upsert(document, changes);
+            }
+            for (Map.Entry<String, CatalogEntry> entry : entries.entrySet()) {
+                if (!present.contains(entry.getKey())) {
+                    remove(entry.getKey(), snapshotReadTime, changes);
+                }
+            }
+            if (syncHorizon == null) {
+                // Sin instantánea local no se conocen las eliminaciones anteriores a esta lectura
+                syncHorizon = snapshotReadTime;
+            }
+            readTime = snapshotReadTime;
+            publish(changes);
+            if (!changes.isEmpty()) {
+                scheduleSnapshot();
+            }
+        }
+    }
+
+    private void applyChanges(List<DocumentChange> documentChanges, Timestamp snapshotReadTime) {
+        synchronized (writeLock) {
+            List<ProductChange> changes = new ArrayList<>();
+            for (DocumentChange documentChange : documentChanges) {
+                QueryDocumentSnapshot document = documentChange.getDocument();
+                if (documentChange.getType() == DocumentChange.Type.REMOVED) {
+                    remove(document.getId(), snapshotReadTime, changes);
+                } else {
+                    upsert(document, changes);
+                }
+            }
+            readTime = snapshotReadTime;
+            pruneTombstones();
+            publish(changes);
+            if (!changes.isEmpty()) {
+                scheduleSnapshot();
+            }
+        }
+    }
+
+    private void loadSnapshot() {
+        CatalogSnapshotStore.Snapshot snapshot = snapshotStore.load();
+        if (snapshot == null || snapshot.getEntries().isEmpty()) {
+            return;
+        }
+        synchronized (writeLock) {
+            List<ProductChange> changes = new ArrayList<>(snapshot.getEntries().size());
+            for (CatalogSnapshotStore.Entry entry : snapshot.getEntries()) {
+                Product product = entry.getProduct();
+                entries.put(product.getUID(), new CatalogEntry(product, entry.getUpdateTime()));
+                updates.add(new ChangeRef(entry.getUpdateTime(), product.getUID()));
+                changes.add(new ProductChange(null, product, entry.getUpdateTime()));
+            }
+            // Las eliminaciones anteriores a la instantánea no se conocen
+            readTime = snapshot.getReadTime();
+            syncHorizon = snapshot.getReadTime();
+            publish(changes);
+        }
+    }
+
+    private void scheduleSnapshot() {
+        // Las escrituras de la instantánea se agrupan: como mucho una cada SNAPSHOT_DELAY_SECONDS
+        if (snapshotScheduled || executor.isShutdown()) {
+            return;
+        }
+        snapshotScheduled = true;
+        executor.schedule(() -> {
+            snapshotScheduled = false;
+            saveSnapshot();
+        }, SNAPSHOT_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void saveSnapshot() {
+        List<CatalogSnapshotStore.Entry> snapshot = new ArrayList<>(entries.size());
+        synchronized (writeLock) {
+            for (CatalogEntry entry : entries.values()) {
+                snapshot.add(new CatalogSnapshotStore.Entry(entry.product, entry.updateTime));
+            }
+        }
+        Timestamp snapshotReadTime;
+        synchronized (writeLock) {
+            snapshotReadTime = readTime;
+        }
+        snapshotStore.save(snapshot, snapshotReadTime);
+    }
+
+    private void upsert(QueryDocumentSnapshot document, List<ProductChange> changes) {
+        CatalogEntry previous = entries.get(document.getId());
+        Timestamp updateTime = document.getUpdateTime();
+        if (previous != null && Objects.equals(previous.updateTime, updateTime)) {
+            return; // El documento no ha cambiado
+        }
+        Product product = firestoreService.toProduct(document);
+        entries.put(document.getId(), new CatalogEntry(product, updateTime));
+        if (previous != null) {
+            updates.remove(new ChangeRef(previous.updateTime, document.getId()));
+        }
+        updates.add(new ChangeRef(updateTime, document.getId()));
+        changes.add(new ProductChange(previous != null ? previous.product : null, product, updateTime));
+    }
+
+    private void remove(String UID, Timestamp deletedAt, List<ProductChange> changes) {
+        CatalogEntry removed = entries.remove(UID);
+        if (removed != null) {
+            updates.remove(new ChangeRef(removed.updateTime, UID));
+            tombstones.add(new ChangeRef(deletedAt, UID));
+            changes.add(new ProductChange(removed.product, null));
+        }
+    }
+
+    private void pruneTombstones() {
+        Timestamp limit = Timestamp.ofTimeSecondsAndNanos(
+                readTime.getSeconds() - TOMBSTONE_RETENTION_SECONDS, readTime.getNanos());
+        while (!tombstones.isEmpty()
+                && (tombstones.size() > MAX_TOMBSTONES || tombstones.first().time.compareTo(limit) < 0)) {
+            ChangeRef pruned = tombstones.pollFirst();
+            if (syncHorizon == null || pruned.time.compareTo(syncHorizon) > 0) {
+                syncHorizon = pruned.time;
+            }
+        }
+    }
+
+    private void publish(List<ProductChange> changes) {
+        if (changes.isEmpty() && loaded) {
+            return;
+        }
+        List<Product> snapshot = new ArrayList<>(entries.size());
+        for (CatalogEntry entry : entries.values()) {
+            snapshot.add(entry.product);
+        }
+        products = List.copyOf(snapshot);
+        version++;
+        loaded = true;
+        logger.debug("Catálogo de productos actualizado a la versión {} ({} cambios)", version, changes.size());
+        eventPublisher.publishEvent(new ProductCatalogChangedEvent(version, List.copyOf(changes)));
+    }
+
+    /**
+     * Referencia a un producto en el registro de cambios, ordenada por fecha y por UID.
+     * Una referencia sin UID marca una posición del registro en las búsquedas por fecha.
+     */
+    private static final class ChangeRef implements Comparable<ChangeRef> {
+        private final Timestamp time;
+        private final String uid;
+
+        private ChangeRef(Timestamp time, String uid) {
+            this.time = time != null ? time : Timestamp.MIN_VALUE;
+            this.uid = uid;
+        }
+
+        @Override
+        public int compareTo(ChangeRef other) {
+            int byTime = time.compareTo(other.time);
+            if (byTime != 0) {
+                return byTime;
+            }
+            if (uid == null || other.uid == null) {
+                // La marca de posición va detrás de todos los cambios de su misma fecha
+                return uid == null ? (other.uid == null ? 0 : 1) : -1;
+            }
+            return uid.compareTo(other.uid);
+        }
+    }
+
+    private static final class CatalogEntry {
+        private final Product product;
+        private final Timestamp updateTime;
+
+        private CatalogEntry(Product product, Timestamp updateTime) {
+            this.product = product;
+            this.updateTime = updateTime;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.pescAstur.service;
+
+import com.example.pescAstur.model.Product;
+import com.google.cloud.Timestamp;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+/**
+ * Cambio de un producto del catálogo en memoria.
+ * Si {@code anterior} es null el producto es nuevo; si {@code actual} es null el producto se ha eliminado.
+ * {@code fechaActualizacion} es la fecha de actualización en Firestore del documento actual, o null si
+ * el producto se ha eliminado o no se conoce.
+ */
+@Value
+@AllArgsConstructor
+public class ProductChange {
+    Product anterior;
+    Product actual;
+    Timestamp fechaActualizacion;
+
+    public ProductChange(Product anterior, Product actual) {
+        this(anterior, actual, null);
+    }
+
+    public String getUID() {
+        return actual != null ? actual.getUID() : anterior.getUID();
+    }
+
+    public boolean isCreacion() {
+        return anterior == null;
+    }
+
+    public boolean isEliminacion() {
+        return actual == null;
+    }
+}
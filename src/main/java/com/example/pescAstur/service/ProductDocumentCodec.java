@@ -0,0 +1,241 @@
+package com.example.pescAstur.service;
+
+import com.example.pescAstur.model.Product;
+import com.example.pescAstur.model.RatingSummary;
+import com.google.cloud.firestore.DocumentSnapshot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Conversión explícita entre los documentos de la colección products y {@link Product}.
+ * Sustituye a {@code DocumentSnapshot.toObject(Product.class)}, que recorre las propiedades del bean por
+ * reflexión en cada documento: aquí cada campo se asigna directamente con un switch sobre su nombre.
+ * Los nombres de los campos son los que usa Firestore al serializar el bean, y los campos desconocidos
+ * se ignoran igual que con toObject.
+ */
+public final class ProductDocumentCodec {
+
+    private static final int FIELDS = 15;
+
+    private ProductDocumentCodec() {
+    }
+
+    /**
+     * Convierte un documento de producto.
+     * @param document Documento de Firestore.
+     * @return Producto con el UID del documento asignado, o null si el documento no existe.
+     * @throws IllegalArgumentException si algún campo tiene un tipo que no corresponde.
+     */
+    public static Product fromDocument(DocumentSnapshot document) {
+        Map<String, Object> data = document.getData();
+        return data != null ? fromData(document.getId(), data) : null;
+    }
+
+    /**
+     * Convierte los campos de un documento de producto.
+     * Los documentos antiguos solo tienen la lista de valoraciones sueltas ({@code rating}): se resume en
+     * el agregado {@code valoraciones} y la lista no se conserva.
+     * @param UID Identificador del documento.
+     * @param data Campos del documento.
+     * @return Producto.
+     * @throws IllegalArgumentException si algún campo tiene un tipo que no corresponde.
+     */
+    public static Product fromData(String UID, Map<String, Object> data) {
+        Product product = new Product();
+        Object legacyRatings = null;
+        for (Map.Entry<String, Object> field : data.entrySet()) {
+            Object value = field.getValue();
+            if (value == null) {
+                continue;
+            }
+            String name = field.getKey();
+            switch (name) {
+                case "cantidadStock" -> product.setCantidadStock(toInt(name, value));
+                case "categoria" -> product.setCategoria(toString(name, value));
+                case "coste" -> product.setCoste(toDouble(name, value));
+                case "descripcion" -> product.setDescripcion(toString(name, value));
+                case "descuento" -> product.setDescuento(toDouble(name, value));
+                case "dimensiones" -> product.setDimensiones(toString(name, value));
+                case "fechaCreacion" -> product.setFechaCreacion(toString(name, value));
+                case "imagenURL" -> product.setImagenURL(toString(name, value));
+                case "marca" -> product.setMarca(toString(name, value));
+                case "nombre" -> product.setNombre(toString(name, value));
+                case "peso" -> product.setPeso(toString(name, value));
+                case "precio" -> product.setPrecio(toDouble(name, value));
+                case "cantidad" -> product.setCantidad(toInt(name, value));
+                case "fragmentosStock" -> product.setFragmentosStock(toInt(name, value));
+                case "comentarios" -> product.setComentarios(toStringList(name, value));
+                case "valoraciones" -> product.setValoraciones(toRatingSummary(name, value));
+                case "rating" -> legacyRatings = value;
+                default -> {
+                    // Campo desconocido (por ejemplo "uid" en documentos escritos con el bean): se ignora
+                }
+            }
+        }
+        product.setUID(UID);
+        if (product.getValoraciones() == null && legacyRatings != null) {
+            List<Number> ratings = toNumberList("rating", legacyRatings);
+            if (!ratings.isEmpty()) {
+                product.setValoraciones(ProductRatings.fromRatings(ratings));
+            }
+        }
+        return product;
+    }
+
+    /**
+     * Campos de Firestore de un producto, con los mismos nombres que usa la serialización del bean.
+     * No incluye el UID (es el identificador del documento) ni la lista de valoraciones sueltas.
+     * @param product Producto.
+     * @return Campos del documento.
+     */
+    public static Map<String, Object> toData(Product product) {
+        Map<String, Object> data = new HashMap<>(FIELDS * 4 / 3 + 1);
+        data.put("cantidadStock", (long) product.getCantidadStock());
+        data.put("categoria", product.getCategoria());
+        data.put("coste", product.getCoste());
+        data.put("descripcion", product.getDescripcion());
+        data.put("descuento", product.getDescuento());
+        data.put("dimensiones", product.getDimensiones());
+        data.put("fechaCreacion", product.getFechaCreacion());
+        data.put("imagenURL", product.getImagenURL());
+        data.put("marca", product.getMarca());
+        data.put("nombre", product.getNombre());
+        data.put("peso", product.getPeso());
+        data.put("precio", product.getPrecio());
+        data.put("comentarios", product.getComentarios());
+        data.put("valoraciones", toData(product.getValoraciones()));
+        if (product.getFragmentosStock() > 0) {
+            data.put("fragmentosStock", (long) product.getFragmentosStock());
+        }
+        return data;
+    }
+
+    /**
+     * Campos de Firestore de un agregado de valoraciones.
+     * @param summary Agregado, puede ser null.
+     * @return Campos del agregado, o null.
+     */
+    public static Map<String, Object> toData(RatingSummary summary) {
+        if (summary == null) {
+            return null;
+        }
+        Map<String, Object> data = new HashMap<>(8);
+        data.put("recuento", summary.getRecuento());
+        data.put("suma", summary.getSuma());
+        data.put("media", summary.getMedia());
+        data.put("histograma", summary.getHistograma());
+        return data;
+    }
+
+    private static RatingSummary toRatingSummary(String name, Object value) {
+        if (!(value instanceof Map<?, ?> data)) {
+            throw invalid(name, value);
+        }
+        RatingSummary summary = new RatingSummary();
+        for (Map.Entry<?, ?> field : data.entrySet()) {
+            Object fieldValue = field.getValue();
+            if (fieldValue == null) {
+                continue;
+            }
+            switch (String.valueOf(field.getKey())) {
+                case "recuento" -> summary.setRecuento(toLong(name, fieldValue));
+                case "suma" -> summary.setSuma(toLong(name, fieldValue));
+                case "media" -> summary.setMedia(toDouble(name, fieldValue));
+                case "histograma" -> {
+                    List<Number> counts = toNumberList(name, fieldValue);
+                    List<Long> histograma = new ArrayList<>(counts.size());
+                    for (Number count : counts) {
+                        histograma.add(count != null ? count.longValue() : 0L);
+                    }
+                    summary.setHistograma(histograma);
+                }
+                default -> {
+                }
+            }
+        }
+        return summary;
+    }
+
+    private static String toString(String name, Object value) {
+        if (value instanceof String string) {
+            return string;
+        }
+        throw invalid(name, value);
+    }
+
+    // Las conversiones numéricas siguen las reglas de toObject: los enteros se admiten como Integer, Long o
+    // Double (truncado) si caben en el tipo de destino, y los Long como double si no pierden precisión
+
+    private static double toDouble(String name, Object value) {
+        if (value instanceof Long number) {
+            double converted = number.doubleValue();
+            if ((long) converted != number) {
+                throw invalid(name, value);
+            }
+            return converted;
+        }
+        if (value instanceof Number number) {
+            return number.doubleValue();
+        }
+        throw invalid(name, value);
+    }
+
+    private static long toLong(String name, Object value) {
+        if (value instanceof Long || value instanceof Integer) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof Double number && number >= Long.MIN_VALUE && number <= Long.MAX_VALUE) {
+            return number.longValue();
+        }
+        throw invalid(name, value);
+    }
+
+    private static int toInt(String name, Object value) {
+        if (value instanceof Integer number) {
+            return number;
+        }
+        if (value instanceof Long number && number >= Integer.MIN_VALUE && number <= Integer.MAX_VALUE) {
+            return number.intValue();
+        }
+        if (value instanceof Double number && number >= Integer.MIN_VALUE && number <= Integer.MAX_VALUE) {
+            return number.intValue();
+        }
+        throw invalid(name, value);
+    }
+
+    private static List<String> toStringList(String name, Object value) {
+        if (!(value instanceof List<?> list)) {
+            throw invalid(name, value);
+        }
+        for (Object element : list) {
+            if (element != null && !(element instanceof String)) {
+                throw invalid(name, value);
+            }
+        }
+        @SuppressWarnings("unchecked")
+        List<String> strings = (List<String>) list;
+        return strings;
+    }
+
+    private static List<Number> toNumberList(String name, Object value) {
+        if (!(value instanceof List<?> list)) {
+            throw invalid(name, value);
+        }
+        for (Object element : list) {
+            if (element != null && !(element instanceof Number)) {
+                throw invalid(name, value);
+            }
+        }
+        @SuppressWarnings("unchecked")
+        List<Number> numbers = (List<Number>) list;
+        return numbers;
+    }
+
+    private static IllegalArgumentException invalid(String name, Object value) {
+        return new IllegalArgumentException("Valor no válido para el campo " + name + " del producto: "
+                + value.getClass().getSimpleName());
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.pescAstur.service;
+
+import com.example.pescAstur.model.Product;
+import com.example.pescAstur.model.ProductFacetResult;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Filtrado por facetas (categoría, marca y banda de precio) sobre el catálogo en memoria.
+ * Cada producto recibe un ordinal y cada valor de faceta guarda un bitmap con los ordinales de sus productos,
+ * de modo que combinar filtros es una intersección de bitmaps independiente del número de filtros.
+ */
+@Service
+public class ProductFacetService {
+
+    public static final String FACETA_CATEGORIA = "categoria";
+    public static final String FACETA_MARCA = "marca";
+    public static final String FACETA_PRECIO = "precio";
+
+    // Límites superiores (exclusivos) de las bandas de precio final; la última banda no tiene límite
+    private static final double[] LIMITES_PRECIO = {10, 25, 50, 100, 250};
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    private final List<Product> products = new ArrayList<>();
+    private final Deque<Integer> freeOrdinals = new ArrayDeque<>();
+    private final BitSet live = new BitSet();
+    private final Map<String, Map<String, BitSet>> facets = Map.of(
+            FACETA_CATEGORIA, new TreeMap<>(),
+            FACETA_MARCA, new TreeMap<>(),
+            FACETA_PRECIO, new LinkedHashMap<>());
+
+    public ProductFacetService() {
+        // Las bandas de precio se crean en orden para que las facetas salgan ordenadas de menor a mayor
+        Map<String, BitSet> bands = facets.get(FACETA_PRECIO);
+        for (int i = 0; i <= LIMITES_PRECIO.length; i++) {
+            bands.put(bandLabel(i), new BitSet());
+        }
+    }
+
+    /**
+     * Actualiza los bitmaps con los productos creados, modificados o eliminados del catálogo.
+     */
+    @EventListener
+    public void onCatalogChanged(ProductCatalogChangedEvent event) {
+        lock.writeLock().lock();
+        try {
+            for (ProductChange change : event.getCambios()) {
+                if (!change.isCreacion()) {
+                    remove(change.getAnterior());
+                }
+                if (!change.isEliminacion()) {
+                    add(change.getActual());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Filtra productos por facetas. Dentro de una faceta los valores se combinan con OR y entre facetas con AND.
+     * Los recuentos de cada faceta aplican los filtros de las demás, pero no el suyo propio.
+     * @param filters Valores pedidos por faceta; una faceta sin valores no filtra.
+     * @param offset Primer producto a devolver.
+     * @param limit Número máximo de productos a devolver.
+     * @return Productos filtrados, total y recuentos por faceta.
+     * @throws IllegalArgumentException si se filtra por una faceta desconocida.
+     */
+    public ProductFacetResult query(Map<String, ? extends Collection<String>> filters, int offset, int limit) {
+        lock.readLock().lock();
+        try {
+            Map<String, BitSet> selections = new HashMap<>();
+            for (Map.Entry<String, ? extends Collection<String>> filter : filters.entrySet()) {
+                Map<String, BitSet> facet = facets.get(filter.getKey());
+                if (facet == null) {
+                    throw new IllegalArgumentException("Faceta desconocida: " + filter.getKey());
+                }
+                if (filter.getValue() != null && !filter.getValue().isEmpty()) {
+                    selections.put(filter.getKey(), union(facet, filter.getValue()));
+                }
+            }
+
+            BitSet matches = intersect(selections, null);
+            List<Product> page = new ArrayList<>(Math.max(0, Math.min(limit, matches.cardinality() - offset)));
+            int position = 0;
+            for (int i = matches.nextSetBit(0); i >= 0 && page.size() < limit; i = matches.nextSetBit(i + 1)) {
+                if (position++ >= offset) {
+                    page.add(products.get(i));
+                }
+            }
+
+            Map<String, Map<String, Integer>> counts = new LinkedHashMap<>();
+            for (Map.Entry<String, Map<String, BitSet>> facet : facets.entrySet()) {
+                BitSet base = intersect(selections, facet.getKey());
+                Map<String, Integer> valueCounts = new LinkedHashMap<>();
+                for (Map.Entry<String, BitSet> value : facet.getValue().entrySet()) {
+                    BitSet bitmap = (BitSet) value.getValue().clone();
+                    bitmap.and(base);
+                    int count = bitmap.cardinality();
+                    if (count > 0) {
+                        valueCounts.put(value.getKey(), count);
+                    }
+                }
+                counts.put(facet.getKey(), valueCounts);
+            }
+            return new ProductFacetResult(page, matches.cardinality(), counts);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Etiqueta de la banda de precio de un precio final, por ejemplo "25-50" o "250+".
+     * @param precio Precio final del producto.
+     * @return Etiqueta de la banda.
+     */
+    public static String priceBand(double precio) {
+        int band = 0;
+        while (band < LIMITES_PRECIO.length && precio >= LIMITES_PRECIO[band]) {
+            band++;
+        }
+        return bandLabel(band);
+    }
+
+    private static String bandLabel(int band) {
+        if (band == LIMITES_PRECIO.length) {
+            return (int) LIMITES_PRECIO[band - 1] + "+";
+        }
+        int lower = band == 0 ? 0 : (int) LIMITES_PRECIO[band - 1];
+        return lower + "-" + (int) LIMITES_PRECIO[band];
+    }
+
+    private BitSet union(Map<String, BitSet> facet, Collection<String> values) {
+        BitSet union = new BitSet();
+        for (String value : values) {
+            BitSet bitmap = facet.get(value);
+            if (bitmap != null) {
+                union.or(bitmap);
+            }
+        }
+        return union;
+    }
+
+    private BitSet intersect(Map<String, BitSet> selections, String excludedFacet) {
+        BitSet result = (BitSet) live.clone();
+        for (Map.Entry<String, BitSet> selection : selections.entrySet()) {
+            if (!selection.getKey().equals(excludedFacet)) {
+                result.and(selection.getValue());
+            }
+        }
+        return result;
+    }
+
+    private void add(Product product) {
+        Integer ordinal = freeOrdinals.poll();
+        if (ordinal == null) {
+            ordinal = products.size();
+            products.add(product);
+        } else {
+            products.set(ordinal, product);
+        }
+        ordinals.put(product.getUID(), ordinal);
+        live.set(ordinal);
+        setBit(FACETA_CATEGORIA, product.getCategoria(), ordinal);
+        setBit(FACETA_MARCA, product.getMarca(), ordinal);
+        setBit(FACETA_PRECIO, priceBand(ProductPricing.precioFinal(product)), ordinal);
+    }
+
+    private void remove(Product product) {
+        Integer ordinal = ordinals.remove(product.getUID());
+        if (ordinal == null) {
+            return;
+        }
+        live.clear(ordinal);
+        clearBit(FACETA_CATEGORIA, product.getCategoria(), ordinal);
+        clearBit(FACETA_MARCA, product.getMarca(), ordinal);
+        clearBit(FACETA_PRECIO, priceBand(ProductPricing.precioFinal(product)), ordinal);
+        products.set(ordinal, null);
+        freeOrdinals.push(ordinal);
+    }
+
+    private void setBit(String facet, String value, int ordinal) {
+        if (value != null && !value.isBlank()) {
+            facets.get(facet).computeIfAbsent(value, key -> new BitSet()).set(ordinal);
+        }
+    }
+
+    private void clearBit(String facet, String value, int ordinal) {
+        if (value == null) {
+            return;
+        }
+        BitSet bitmap = facets.get(facet).get(value);
+        if (bitmap != null) {
+            bitmap.clear(ordinal);
+            if (bitmap.isEmpty() && !FACETA_PRECIO.equals(facet)) {
+                facets.get(facet).remove(value);
+            }
+        }
+    }
+}
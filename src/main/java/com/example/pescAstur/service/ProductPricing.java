@@ -0,0 +1,22 @@
+package com.example.pescAstur.service;
+
+import com.example.pescAstur.model.Product;
+
+/**
+ * Cálculos de precio comunes a los índices del catálogo.
+ */
+public final class ProductPricing {
+
+    private ProductPricing() {
+    }
+
+    /**
+     * Precio de venta después de aplicar el descuento, que se guarda como porcentaje (0-100).
+     * @param product Producto.
+     * @return Precio final redondeado a céntimos.
+     */
+    public static double precioFinal(Product product) {
+        double descuento = Math.max(0, Math.min(100, product.getDescuento()));
+        return Math.round(product.getPrecio() * (100 - descuento)) / 100.0;
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.pescAstur.service;
+
+import com.example.pescAstur.model.Product;
+import com.example.pescAstur.model.ProductSummary;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Proyecciones de campos de producto para los listados (parámetro {@code fields}).
+ * Los campos válidos son los escalares de {@link Product} y el agregado de valoraciones;
+ * las listas de valoraciones y comentarios nunca forman parte de una proyección.
+ */
+public final class ProductProjection {
+
+    public static final Set<String> CAMPOS_PROYECTABLES = Set.of(
+            "nombre", "precio", "descuento", "imagenURL", "cantidadStock", "categoria",
+            "marca", "descripcion", "fechaCreacion", "dimensiones", "peso", "coste", "valoraciones");
+
+    private ProductProjection() {
+    }
+
+    /**
+     * Interpreta el parámetro {@code fields} de una petición.
+     * @param fields Lista de campos separados por comas, o null si no se pide proyección.
+     * @return Conjunto ordenado de campos, o null si no se pide proyección.
+     * @throws IllegalArgumentException si algún campo no es proyectable.
+     */
+    public static Set<String> parseFields(String fields) {
+        if (fields == null || fields.isBlank()) {
+            return null;
+        }
+        Set<String> parsed = new LinkedHashSet<>();
+        for (String field : fields.split(",")) {
+            String trimmed = field.trim();
+            if (!CAMPOS_PROYECTABLES.contains(trimmed)) {
+                throw new IllegalArgumentException("Campo no proyectable: " + trimmed);
+            }
+            parsed.add(trimmed);
+        }
+        return parsed;
+    }
+
+    /**
+     * Campos de Firestore que hay que leer con select() para una proyección. Para {@code valoraciones} se lee
+     * también la lista antigua {@code rating}, de la que se calcula el agregado en los documentos que aún no
+     * lo tienen, igual que al leer el documento completo.
+     * @param fields Campos pedidos.
+     * @return Campos a leer, en el mismo orden.
+     */
+    public static String[] documentFields(Set<String> fields) {
+        Set<String> documentFields = new LinkedHashSet<>(fields);
+        if (fields.contains("valoraciones")) {
+            documentFields.add("rating");
+        }
+        return documentFields.toArray(new String[0]);
+    }
+
+    /**
+     * Copia en un {@link ProductSummary} el UID y los campos pedidos de un producto.
+     * @param product Producto completo o leído con select().
+     * @param fields Campos a incluir.
+     * @return Vista reducida del producto.
+     */
+    public static ProductSummary project(Product product, Set<String> fields) {
+        ProductSummary summary = new ProductSummary();
+        summary.setUID(product.getUID());
+        for (String field : fields) {
+            switch (field) {
+                case "nombre" -> summary.setNombre(product.getNombre());
+                case "precio" -> summary.setPrecio(product.getPrecio());
+                case "descuento" -> summary.setDescuento(product.getDescuento());
+                case "imagenURL" -> summary.setImagenURL(product.getImagenURL());
+                case "cantidadStock" -> summary.setCantidadStock(product.getCantidadStock());
+                case "categoria" -> summary.setCategoria(product.getCategoria());
+                case "marca" -> summary.setMarca(product.getMarca());
+                case "descripcion" -> summary.setDescripcion(product.getDescripcion());
+                case "fechaCreacion" -> summary.setFechaCreacion(product.getFechaCreacion());
+                case "dimensiones" -> summary.setDimensiones(product.getDimensiones());
+                case "peso" -> summary.setPeso(product.getPeso());
+                case "coste" -> summary.setCoste(product.getCoste());
+                case "valoraciones" -> summary.setValoraciones(product.getValoraciones());
+                default -> throw new IllegalArgumentException("Campo no proyectable: " + field);
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * Proyecta una lista de productos.
+     * @param products Productos a proyectar.
+     * @param fields Campos a incluir.
+     * @return Lista de vistas reducidas en el mismo orden.
+     */
+    public static List<ProductSummary> project(List<Product> products, Set<String> fields) {
+        List<ProductSummary> summaries = new ArrayList<>(products.size());
+        for (Product product : products) {
+            summaries.add(project(product, fields));
+        }
+        return summaries;
+    }
+}
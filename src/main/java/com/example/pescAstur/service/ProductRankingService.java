@@ -0,0 +1,210 @@
+package com.example.pescAstur.service;
+
+import com.example.pescAstur.model.Product;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Listados ordenados del catálogo (más baratos, mejor valorados, más nuevos) mantenidos en memoria.
+ * Cada criterio es un árbol ordenado por su valor y por UID que se actualiza con los cambios del catálogo,
+ * de modo que obtener los N primeros o un rango cuesta O(log n + k).
+ */
+@Service
+public class ProductRankingService {
+
+    public static final String ORDEN_PRECIO = "precio";
+    public static final String ORDEN_VALORACION = "valoracion";
+    public static final String ORDEN_NOVEDAD = "novedad";
+
+    private static final DateTimeFormatter FORMATO_FECHA = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, NavigableMap<RankKey, Product>> rankings = Map.of(
+            ORDEN_PRECIO, new TreeMap<>(),
+            ORDEN_VALORACION, new TreeMap<>(),
+            ORDEN_NOVEDAD, new TreeMap<>());
+
+    /**
+     * Actualiza los listados con los productos creados, modificados o eliminados del catálogo.
+     */
+    @EventListener
+    public void onCatalogChanged(ProductCatalogChangedEvent event) {
+        lock.writeLock().lock();
+        try {
+            for (ProductChange change : event.getCambios()) {
+                if (!change.isCreacion()) {
+                    update(change.getAnterior(), false);
+                }
+                if (!change.isEliminacion()) {
+                    update(change.getActual(), true);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Obtiene los productos ordenados por un criterio, opcionalmente limitados a un rango de valores.
+     * Los productos sin valor para el criterio (por ejemplo sin fecha de creación válida) no aparecen.
+     * @param criterio {@code precio} (precio final con descuento), {@code valoracion} (media) o {@code novedad} (fecha de creación).
+     * @param descendente true para ordenar de mayor a menor.
+     * @param min Valor mínimo incluido, o null para no limitar.
+     * @param max Valor máximo incluido, o null para no limitar.
+     * @param limit Número máximo de productos.
+     * @return Productos ordenados.
+     * @throws IllegalArgumentException si el criterio es desconocido o el rango no es válido.
+     */
+    public List<Product> query(String criterio, boolean descendente, String min, String max, int limit) {
+        NavigableMap<RankKey, Product> ranking = rankings.get(criterio);
+        if (ranking == null) {
+            throw new IllegalArgumentException("Criterio de ordenación desconocido: " + criterio);
+        }
+        Double lower = min != null ? parseBound(criterio, min) : null;
+        Double upper = max != null ? parseBound(criterio, max) : null;
+        if (lower != null && upper != null && lower > upper) {
+            throw new IllegalArgumentException("El mínimo no puede ser mayor que el máximo");
+        }
+        lock.readLock().lock();
+        try {
+            NavigableMap<RankKey, Product> range = ranking;
+            if (lower != null) {
+                range = range.tailMap(RankKey.lowest(lower), true);
+            }
+            if (upper != null) {
+                range = range.headMap(RankKey.highest(upper), true);
+            }
+            if (descendente) {
+                range = range.descendingMap();
+            }
+            List<Product> result = new ArrayList<>(Math.min(limit, range.size()));
+            for (Product product : range.values()) {
+                if (result.size() == limit) {
+                    break;
+                }
+                result.add(product);
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Fecha de creación de un producto como número de día, para ordenar por novedad.
+     * Admite el formato {@code dd/MM/yyyy} que usa la tienda y el formato ISO {@code yyyy-MM-dd}.
+     * @param fecha Fecha en texto.
+     * @return Días desde 1970-01-01, o null si la fecha no es válida.
+     */
+    public static Long epochDay(String fecha) {
+        if (fecha == null || fecha.isBlank()) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(fecha.trim(), FORMATO_FECHA).toEpochDay();
+        } catch (DateTimeParseException e) {
+            try {
+                return LocalDate.parse(fecha.trim()).toEpochDay();
+            } catch (DateTimeParseException ignored) {
+                return null;
+            }
+        }
+    }
+
+    private void update(Product product, boolean add) {
+        for (Map.Entry<String, NavigableMap<RankKey, Product>> ranking : rankings.entrySet()) {
+            Double value = value(ranking.getKey(), product);
+            if (value == null) {
+                continue;
+            }
+            RankKey key = new RankKey(value, product.getUID());
+            if (add) {
+                ranking.getValue().put(key, product);
+            } else {
+                ranking.getValue().remove(key);
+            }
+        }
+    }
+
+    private static Double value(String criterio, Product product) {
+        return switch (criterio) {
+            case ORDEN_PRECIO -> ProductPricing.precioFinal(product);
+            case ORDEN_VALORACION -> ProductRatings.media(product.getValoraciones());
+            case ORDEN_NOVEDAD -> {
+                Long day = epochDay(product.getFechaCreacion());
+                yield day != null ? day.doubleValue() : null;
+            }
+            default -> null;
+        };
+    }
+
+    private static double parseBound(String criterio, String bound) {
+        if (ORDEN_NOVEDAD.equals(criterio)) {
+            Long day = epochDay(bound);
+            if (day == null) {
+                throw new IllegalArgumentException("Fecha no válida: " + bound);
+            }
+            return day;
+        }
+        try {
+            return Double.parseDouble(bound);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Valor no válido: " + bound);
+        }
+    }
+
+    /**
+     * Clave de ordenación: valor del criterio y UID para desempatar.
+     * Las claves sin UID marcan el extremo inferior o superior de un valor en las consultas por rango.
+     */
+    private static final class RankKey implements Comparable<RankKey> {
+        private final double value;
+        private final String uid;
+        private final boolean upperBound;
+
+        private RankKey(double value, String uid) {
+            this(value, uid, false);
+        }
+
+        private RankKey(double value, String uid, boolean upperBound) {
+            this.value = value;
+            this.uid = uid;
+            this.upperBound = upperBound;
+        }
+
+        static RankKey lowest(double value) {
+            return new RankKey(value, null, false);
+        }
+
+        static RankKey highest(double value) {
+            return new RankKey(value, null, true);
+        }
+
+        @Override
+        public int compareTo(RankKey other) {
+            int byValue = Double.compare(value, other.value);
+            if (byValue != 0) {
+                return byValue;
+            }
+            if (uid != null && other.uid != null) {
+                return uid.compareTo(other.uid);
+            }
+            return Integer.compare(rank(), other.rank());
+        }
+
+        // Extremo inferior, cualquier producto y extremo superior, en ese orden
+        private int rank() {
+            return uid != null ? 0 : upperBound ? 1 : -1;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.pescAstur.service;
+
+import com.example.pescAstur.model.RatingSummary;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Cálculo de los agregados de valoraciones de producto (recuento, suma, media e histograma de estrellas).
+ */
+public final class ProductRatings {
+
+    public static final int MIN_ESTRELLAS = 1;
+    public static final int MAX_ESTRELLAS = 5;
+
+    private ProductRatings() {
+    }
+
+    /**
+     * Agregado sin valoraciones.
+     */
+    public static RatingSummary empty() {
+        return new RatingSummary(0, 0, 0, new ArrayList<>(Collections.nCopies(MAX_ESTRELLAS, 0L)));
+    }
+
+    /**
+     * Calcula el agregado de una lista de valoraciones sueltas, el formato antiguo del campo {@code rating}.
+     * Las valoraciones fuera del rango de 1 a 5 estrellas se ignoran.
+     * @param ratings Valoraciones, puede ser null.
+     * @return Agregado de las valoraciones.
+     */
+    public static RatingSummary fromRatings(List<? extends Number> ratings) {
+        RatingSummary summary = empty();
+        if (ratings != null) {
+            for (Number rating : ratings) {
+                if (rating != null && isValid(rating.intValue())) {
+                    summary = add(summary, rating.intValue());
+                }
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * Añade una valoración a un agregado sin modificar el original.
+     * @param summary Agregado actual, o null si el producto no tiene valoraciones.
+     * @param rating Valoración de 1 a 5 estrellas.
+     * @return Nuevo agregado.
+     * @throws IllegalArgumentException si la valoración está fuera de rango.
+     */
+    public static RatingSummary add(RatingSummary summary, int rating) {
+        if (!isValid(rating)) {
+            throw new IllegalArgumentException("La valoración debe estar entre " + MIN_ESTRELLAS + " y " + MAX_ESTRELLAS + ".");
+        }
+        RatingSummary current = summary != null ? summary : empty();
+        List<Long> histograma = new ArrayList<>(Collections.nCopies(MAX_ESTRELLAS, 0L));
+        if (current.getHistograma() != null) {
+            for (int i = 0; i < Math.min(MAX_ESTRELLAS, current.getHistograma().size()); i++) {
+                Long count = current.getHistograma().get(i);
+                histograma.set(i, count != null ? count : 0L);
+            }
+        }
+        histograma.set(rating - 1, histograma.get(rating - 1) + 1);
+        long recuento = current.getRecuento() + 1;
+        long suma = current.getSuma() + rating;
+        return new RatingSummary(recuento, suma, media(suma, recuento), histograma);
+    }
+
+    /**
+     * Valoración media de un producto, o 0 si no tiene valoraciones.
+     * @param summary Agregado, puede ser null.
+     */
+    public static double media(RatingSummary summary) {
+        return summary != null ? summary.getMedia() : 0;
+    }
+
+    public static boolean isValid(int rating) {
+        return rating >= MIN_ESTRELLAS && rating <= MAX_ESTRELLAS;
+    }
+
+    private static double media(long suma, long recuento) {
+        return recuento == 0 ? 0 : Math.round(suma * 100.0 / recuento) / 100.0;
+    }
+}
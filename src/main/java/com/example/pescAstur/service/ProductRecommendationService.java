@@ -0,0 +1,201 @@
+package com.example.pescAstur.service;
+
+import com.example.pescAstur.model.Product;
+import com.example.pescAstur.model.ProductRecommendation;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Recomendaciones "comprados juntos a menudo" a partir de los pedidos procesados.
+ * Cada pedido actualiza una matriz dispersa de coocurrencias producto-producto y recalcula los
+ * productos más comprados junto a cada uno de los que contiene; las consultas solo leen esa lista ya calculada.
+ * La matriz se construye con los pedidos recibidos desde que arranca la aplicación y su memoria está acotada:
+ * cada fila conserva como mucho {@link #MAX_COOCURRENCIAS_POR_PRODUCTO} productos (al llenarse se descartan
+ * los de menos pedidos en común), el número de filas está limitado y los productos eliminados del catálogo
+ * se quitan de la matriz.
+ */
+@Service
+public class ProductRecommendationService {
+
+    public static final int MAX_RECOMENDACIONES = 10;
+    public static final int MAX_COOCURRENCIAS_POR_PRODUCTO = 200;
+    private static final int MAX_FILAS = 50_000;
+    // Los pedidos enormes se truncan para que su coste (cuadrático en productos) esté acotado
+    private static final int MAX_PRODUCTOS_POR_PEDIDO = 50;
+
+    private final ProductCatalogService productCatalogService;
+    // UID -> fila de coocurrencias con sus productos más comprados a la vez
+    private final Cache<String, Row> rows = Caffeine.newBuilder()
+            .maximumSize(MAX_FILAS)
+            .build();
+
+    public ProductRecommendationService(ProductCatalogService productCatalogService) {
+        this.productCatalogService = productCatalogService;
+    }
+
+    /**
+     * Registra un pedido procesado: cada par de productos distintos del pedido suma una coocurrencia.
+     * @param UIDs Productos del pedido; las repeticiones cuentan una vez.
+     */
+    public void recordOrder(Collection<String> UIDs) {
+        List<String> items = new ArrayList<>();
+        for (String UID : new LinkedHashSet<>(UIDs)) {
+            if (UID != null && !UID.isBlank() && items.size() < MAX_PRODUCTOS_POR_PEDIDO) {
+                items.add(UID);
+            }
+        }
+        if (items.size() < 2) {
+            return;
+        }
+        // Solo cambian las filas de los productos del pedido, cada una con su propio cerrojo
+        for (String item : items) {
+            Row row = rows.get(item, ignored -> new Row());
+            synchronized (row) {
+                for (String other : items) {
+                    if (!other.equals(item)) {
+                        row.counts.merge(other, 1L, Long::sum);
+                    }
+                }
+                row.prune();
+                row.top = top(row.counts);
+            }
+        }
+    }
+
+    /**
+     * Quita de la matriz los productos eliminados del catálogo, tanto su fila como sus apariciones
+     * en las filas de los productos con los que se compraron.
+     */
+    @EventListener
+    public void onCatalogChanged(ProductCatalogChangedEvent event) {
+        for (ProductChange change : event.getCambios()) {
+            if (!change.isEliminacion()) {
+                continue;
+            }
+            String UID = change.getUID();
+            Row removed = rows.asMap().remove(UID);
+            if (removed == null) {
+                continue;
+            }
+            List<String> related;
+            synchronized (removed) {
+                related = new ArrayList<>(removed.counts.keySet());
+            }
+            for (String other : related) {
+                Row row = rows.getIfPresent(other);
+                if (row == null) {
+                    continue;
+                }
+                synchronized (row) {
+                    if (row.counts.remove(UID) != null) {
+                        row.top = top(row.counts);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Obtiene los productos más comprados junto con uno, sin cálculo en la consulta.
+     * Los productos que ya no están en el catálogo se omiten.
+     * @param UID Producto consultado.
+     * @param limit Número máximo de recomendaciones (como mucho {@link #MAX_RECOMENDACIONES}).
+     * @return Recomendaciones ordenadas por número de pedidos en común.
+     */
+    public List<ProductRecommendation> getRelated(String UID, int limit) {
+        Row row = rows.getIfPresent(UID);
+        List<Related> related = row != null ? row.top : List.of();
+        List<ProductRecommendation> result = new ArrayList<>(Math.min(limit, related.size()));
+        for (Related entry : related) {
+            if (result.size() == limit) {
+                break;
+            }
+            Product product = productCatalogService.getProduct(entry.UID);
+            if (product != null) {
+                result.add(new ProductRecommendation(product, entry.count));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Selecciona las mayores coocurrencias de una fila sin ordenarla entera.
+     * @param size Número de coocurrencias a conservar.
+     */
+    private static List<Related> top(Map<String, Long> row, int size) {
+        PriorityQueue<Related> best = new PriorityQueue<>(size + 1, Related::compareTo);
+        for (Map.Entry<String, Long> entry : row.entrySet()) {
+            best.offer(new Related(entry.getKey(), entry.getValue()));
+            if (best.size() > size) {
+                best.poll();
+            }
+        }
+        List<Related> result = new ArrayList<>(best.size());
+        while (!best.isEmpty()) {
+            result.add(0, best.poll());
+        }
+        return List.copyOf(result);
+    }
+
+    /**
+     * Productos más comprados junto con uno. Se guardan algunos más de los que se sirven para poder saltar
+     * productos eliminados del catálogo.
+     */
+    private static List<Related> top(Map<String, Long> row) {
+        return top(row, MAX_RECOMENDACIONES * 2);
+    }
+
+    /**
+     * Coocurrencias de un producto y su lista ya ordenada de productos más comprados a la vez.
+     * Se modifica con el cerrojo de la fila; {@code top} se sustituye entera y se lee sin cerrojo.
+     */
+    private static final class Row {
+        private final Map<String, Long> counts = new HashMap<>();
+        private volatile List<Related> top = List.of();
+
+        /**
+         * Al superar el máximo conserva las tres cuartas partes con más pedidos en común, de modo que
+         * el recorte se hace de vez en cuando y no en cada pedido.
+         */
+        private void prune() {
+            if (counts.size() <= MAX_COOCURRENCIAS_POR_PRODUCTO) {
+                return;
+            }
+            List<Related> kept = ProductRecommendationService.top(counts, MAX_COOCURRENCIAS_POR_PRODUCTO * 3 / 4);
+            counts.clear();
+            for (Related entry : kept) {
+                counts.put(entry.UID, entry.count);
+            }
+        }
+    }
+
+    /**
+     * Producto relacionado y número de pedidos en común. Se ordena de menos a más relevante
+     * (a igual número de pedidos, el UID menor es más relevante).
+     */
+    private static final class Related implements Comparable<Related> {
+        private final String UID;
+        private final long count;
+
+        private Related(String UID, long count) {
+            this.UID = UID;
+            this.count = count;
+        }
+
+        @Override
+        public int compareTo(Related other) {
+            int byCount = Long.compare(count, other.count);
+            return byCount != 0 ? byCount : other.UID.compareTo(UID);
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package com.example.pescAstur.service;
+
+import com.example.pescAstur.model.Product;
+import com.example.pescAstur.model.ProductSearchHit;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Búsqueda de texto completo sobre el catálogo en memoria.
+ * Mantiene un índice invertido de nombre, descripción, marca y categoría que se actualiza de forma
+ * incremental con los cambios del catálogo, y ordena los resultados con BM25 ponderando cada campo.
+ * Los términos de la consulta que no aparecen en el catálogo se corrigen con los términos más parecidos
+ * del vocabulario, localizados con un índice de trigramas y ordenados por distancia de edición.
+ */
+@Service
+public class ProductSearchService {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private static final double PESO_NOMBRE = 3.0;
+    private static final double PESO_MARCA = 2.0;
+    private static final double PESO_CATEGORIA = 2.0;
+    private static final double PESO_DESCRIPCION = 1.0;
+
+    // Correcciones de un término mal escrito: cuántas se usan y cuántos candidatos se comprueban como mucho
+    private static final int MAX_CORRECCIONES = 3;
+    private static final int MAX_CANDIDATOS = 200;
+
+    private final ProductCatalogService productCatalogService;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // término -> (UID -> frecuencia ponderada del término en el producto)
+    private final Map<String, Map<String, Double>> postings = new HashMap<>();
+    // UID -> términos indexados del producto, para poder retirarlo del índice
+    private final Map<String, IndexedDocument> documents = new HashMap<>();
+    // trigrama -> términos del vocabulario que lo contienen
+    private final Map<String, Set<String>> trigrams = new HashMap<>();
+    private double totalLength;
+
+    public ProductSearchService(ProductCatalogService productCatalogService) {
+        this.productCatalogService = productCatalogService;
+    }
+
+    /**
+     * Actualiza el índice con los productos creados, modificados o eliminados del catálogo.
+     */
+    @EventListener
+    public void onCatalogChanged(ProductCatalogChangedEvent event) {
+        lock.writeLock().lock();
+        try {
+            for (ProductChange change : event.getCambios()) {
+                remove(change.getUID());
+                if (!change.isEliminacion()) {
+                    add(change.getActual());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Busca productos cuyo texto contenga alguno de los términos de la consulta.
+     * Si un término no aparece en el catálogo se buscan en su lugar los términos a menor distancia de edición
+     * (una edición para palabras cortas, dos para las largas), con menos peso cuanto mayor es la distancia.
+     * @param query Texto de búsqueda.
+     * @param limit Número máximo de resultados.
+     * @return Productos ordenados por relevancia descendente.
+     */
+    public List<ProductSearchHit> search(String query, int limit) {
+        Map<String, Double> scores = score(new LinkedHashSet<>(SpanishAnalyzer.analyze(query)));
+        return topHits(scores, limit);
+    }
+
+    /**
+     * Calcula la puntuación BM25 de cada producto que contiene alguno de los términos o sus correcciones.
+     * @param terms Términos ya analizados y sin repetir.
+     * @return Puntuación por UID.
+     */
+    private Map<String, Double> score(Iterable<String> terms) {
+        Map<String, Double> scores = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            int count = documents.size();
+            if (count == 0) {
+                return scores;
+            }
+            double averageLength = totalLength / count;
+            for (String term : terms) {
+                if (postings.containsKey(term)) {
+                    addTermScores(term, 1.0, count, averageLength, scores);
+                    continue;
+                }
+                for (Correction correction : corrections(term)) {
+                    addTermScores(correction.term, 1.0 / (1 + correction.distance), count, averageLength, scores);
+                }
+            }
+            return scores;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void addTermScores(String term, double weight, int count, double averageLength, Map<String, Double> scores) {
+        Map<String, Double> posting = postings.get(term);
+        double idf = Math.log(1 + (count - posting.size() + 0.5) / (posting.size() + 0.5));
+        for (Map.Entry<String, Double> entry : posting.entrySet()) {
+            double tf = entry.getValue();
+            double length = documents.get(entry.getKey()).length;
+            double termScore = idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * length / averageLength));
+            scores.merge(entry.getKey(), weight * termScore, Double::sum);
+        }
+    }
+
+    /**
+     * Busca en el vocabulario los términos más parecidos a uno que no existe.
+     * Solo se comprueban los términos que comparten suficientes trigramas con él (cada edición cambia
+     * como mucho cuatro trigramas) y, de ellos, los que más comparten; nunca se recorre el catálogo entero.
+     * @param term Término analizado.
+     * @return Como mucho {@link #MAX_CORRECCIONES} términos ordenados por distancia de edición.
+     */
+    private List<Correction> corrections(String term) {
+        int maxEdits = maxEdits(term);
+        if (maxEdits == 0) {
+            return List.of();
+        }
+        List<String> termTrigrams = trigrams(term);
+        Map<String, Integer> shared = new HashMap<>();
+        for (String trigram : new LinkedHashSet<>(termTrigrams)) {
+            for (String candidate : trigrams.getOrDefault(trigram, Set.of())) {
+                if (Math.abs(candidate.length() - term.length()) <= maxEdits) {
+                    shared.merge(candidate, 1, Integer::sum);
+                }
+            }
+        }
+        int minShared = Math.max(1, termTrigrams.size() - 4 * maxEdits);
+        List<Map.Entry<String, Integer>> candidates = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : shared.entrySet()) {
+            if (entry.getValue() >= minShared) {
+                candidates.add(entry);
+            }
+        }
+        candidates.sort(Map.Entry.<String, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        List<Correction> corrections = new ArrayList<>();
+        for (Map.Entry<String, Integer> candidate : candidates.subList(0, Math.min(MAX_CANDIDATOS, candidates.size()))) {
+            int distance = editDistance(term, candidate.getKey(), maxEdits);
+            if (distance <= maxEdits) {
+                corrections.add(new Correction(candidate.getKey(), distance));
+            }
+        }
+        corrections.sort(Comparator.comparingInt((Correction correction) -> correction.distance)
+                .thenComparing(correction -> correction.term));
+        return corrections.subList(0, Math.min(MAX_CORRECCIONES, corrections.size()));
+    }
+
+    // Ediciones toleradas según la longitud: ninguna en palabras muy cortas, donde casi todo se parece
+    private static int maxEdits(String term) {
+        if (term.length() < 4) {
+            return 0;
+        }
+        return term.length() < 8 ? 1 : 2;
+    }
+
+    /**
+     * Trigramas de un término con marcas de inicio y fin ("$ca", "car", ..., "te$").
+     */
+    static List<String> trigrams(String term) {
+        String padded = "$" + term + "$";
+        List<String> result = new ArrayList<>(padded.length() - 2);
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            result.add(padded.substring(i, i + 3));
+        }
+        return result;
+    }
+
+    /**
+     * Distancia de edición entre dos términos contando inserciones, borrados, sustituciones y
+     * transposiciones de letras contiguas. Deja de calcular en cuanto se supera el máximo.
+     * @return La distancia, o {@code max + 1} si es mayor que el máximo.
+     */
+    static int editDistance(String a, String b, int max) {
+        if (Math.abs(a.length() - b.length()) > max) {
+            return max + 1;
+        }
+        int[] previous2 = new int[b.length() + 1];
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int value = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    value = Math.min(value, previous2[j - 2] + 1);
+                }
+                current[j] = value;
+                rowMin = Math.min(rowMin, value);
+            }
+            if (rowMin > max) {
+                return max + 1;
+            }
+            int[] recycled = previous2;
+            previous2 = previous;
+            previous = current;
+            current = recycled;
+        }
+        return Math.min(previous[b.length()], max + 1);
+    }
+
+    /**
+     * Selecciona los mejores resultados sin ordenar todas las puntuaciones.
+     */
+    private List<ProductSearchHit> topHits(Map<String, Double> scores, int limit) {
+        Comparator<Map.Entry<String, Double>> byScore = Map.Entry.<String, Double>comparingByValue()
+                .thenComparing(Map.Entry.comparingByKey(Comparator.reverseOrder()));
+        PriorityQueue<Map.Entry<String, Double>> best = new PriorityQueue<>(byScore);
+        for (Map.Entry<String, Double> entry : scores.entrySet()) {
+            best.offer(entry);
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+        List<ProductSearchHit> hits = new ArrayList<>(best.size());
+        while (!best.isEmpty()) {
+            Map.Entry<String, Double> entry = best.poll();
+            Product product = productCatalogService.getProduct(entry.getKey());
+            if (product != null) {
+                hits.add(new ProductSearchHit(product, entry.getValue()));
+            }
+        }
+        Collections.reverse(hits);
+        return hits;
+    }
+
+    private void add(Product product) {
+        Map<String, Double> frequencies = new HashMap<>();
+        double length = 0;
+        length += addField(product.getNombre(), PESO_NOMBRE, frequencies);
+        length += addField(product.getMarca(), PESO_MARCA, frequencies);
+        length += addField(product.getCategoria(), PESO_CATEGORIA, frequencies);
+        length += addField(product.getDescripcion(), PESO_DESCRIPCION, frequencies);
+        for (Map.Entry<String, Double> entry : frequencies.entrySet()) {
+            postings.computeIfAbsent(entry.getKey(), term -> {
+                for (String trigram : trigrams(term)) {
+                    trigrams.computeIfAbsent(trigram, ignored -> new HashSet<>()).add(term);
+                }
+                return new HashMap<>();
+            }).put(product.getUID(), entry.getValue());
+        }
+        documents.put(product.getUID(), new IndexedDocument(frequencies.keySet().toArray(new String[0]), length));
+        totalLength += length;
+    }
+
+    private static double addField(String text, double weight, Map<String, Double> frequencies) {
+        List<String> terms = SpanishAnalyzer.analyze(text);
+        for (String term : terms) {
+            frequencies.merge(term, weight, Double::sum);
+        }
+        return terms.size() * weight;
+    }
+
+    private void remove(String UID) {
+        IndexedDocument document = documents.remove(UID);
+        if (document == null) {
+            return;
+        }
+        for (String term : document.terms) {
+            Map<String, Double> posting = postings.get(term);
+            posting.remove(UID);
+            if (posting.isEmpty()) {
+                postings.remove(term);
+                removeTrigrams(term);
+            }
+        }
+        totalLength -= document.length;
+    }
+
+    private void removeTrigrams(String term) {
+        for (String trigram : trigrams(term)) {
+            Set<String> terms = trigrams.get(trigram);
+            if (terms != null) {
+                terms.remove(term);
+                if (terms.isEmpty()) {
+                    trigrams.remove(trigram);
+                }
+            }
+        }
+    }
+
+    private static final class Correction {
+        private final String term;
+        private final int distance;
+
+        private Correction(String term, int distance) {
+            this.term = term;
+            this.distance = distance;
+        }
+    }
+
+    private static final class IndexedDocument {
+        private final String[] terms;
+        private final double length;
+
+        private IndexedDocument(String[] terms, double length) {
+            this.terms = terms;
+            this.length = length;
+        }
+    }
+}
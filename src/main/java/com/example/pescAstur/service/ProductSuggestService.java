@@ -0,0 +1,329 @@
+package com.example.pescAstur.service;
+
+import com.example.pescAstur.model.Product;
+import com.example.pescAstur.model.ProductSuggestion;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Autocompletado de la caja de búsqueda sobre los nombres y las marcas de los productos.
+ * Las sugerencias se guardan en un trie por su texto normalizado y por cada palabra a partir de la que
+ * se puede empezar a escribir ("telesc" sugiere "Caña telescópica"). Cada nodo guarda ya calculadas sus
+ * mejores sugerencias por popularidad, de modo que una consulta solo recorre el prefijo.
+ * Cuando cambia un producto solo se recalculan los nodos de los caminos de sus sugerencias.
+ */
+@Service
+public class ProductSuggestService {
+
+    public static final String TIPO_NOMBRE = "nombre";
+    public static final String TIPO_MARCA = "marca";
+    public static final int MAX_SUGERENCIAS = 10;
+
+    private static final Comparator<Suggestion> POR_POPULARIDAD = Comparator
+            .comparingLong((Suggestion suggestion) -> suggestion.popularidad).reversed()
+            .thenComparing(suggestion -> suggestion.texto);
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Node root = new Node();
+    // tipo + texto normalizado -> sugerencia
+    private final Map<String, Suggestion> suggestions = new HashMap<>();
+    // UID -> sugerencias del producto y popularidad con la que contribuye a ellas
+    private final Map<String, IndexedProduct> products = new HashMap<>();
+
+    /**
+     * Actualiza las sugerencias con los productos creados, modificados o eliminados del catálogo.
+     */
+    @EventListener
+    public void onCatalogChanged(ProductCatalogChangedEvent event) {
+        lock.writeLock().lock();
+        try {
+            Set<Suggestion> changed = new LinkedHashSet<>();
+            for (ProductChange change : event.getCambios()) {
+                remove(change.getUID(), changed);
+                if (!change.isEliminacion()) {
+                    add(change.getActual(), changed);
+                }
+            }
+            reindex(changed);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Obtiene las sugerencias más populares que completan un prefijo.
+     * No distingue mayúsculas, acentos ni signos de puntuación.
+     * @param prefix Texto escrito por el usuario.
+     * @param limit Número máximo de sugerencias (como mucho {@link #MAX_SUGERENCIAS}).
+     * @return Sugerencias ordenadas por popularidad descendente.
+     */
+    public List<ProductSuggestion> suggest(String prefix, int limit) {
+        String key = key(prefix);
+        if (key.isEmpty()) {
+            return List.of();
+        }
+        lock.readLock().lock();
+        try {
+            Node node = root;
+            for (int i = 0; i < key.length() && node != null; i++) {
+                node = node.child(key.charAt(i));
+            }
+            if (node == null) {
+                return List.of();
+            }
+            int size = Math.min(limit, node.top.length);
+            List<ProductSuggestion> result = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                Suggestion suggestion = node.top[i];
+                result.add(new ProductSuggestion(suggestion.texto, suggestion.tipo, suggestion.popularidad));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Popularidad con la que un producto contribuye a sus sugerencias: el número de valoraciones recibidas.
+     */
+    static long popularidad(Product product) {
+        return product.getValoraciones() != null ? product.getValoraciones().getRecuento() : 0;
+    }
+
+    /**
+     * Texto normalizado de una sugerencia o de un prefijo: palabras normalizadas separadas por un espacio.
+     * Si el prefijo termina en espacio se conserva para que solo complete palabras terminadas.
+     */
+    static String key(String text) {
+        String key = String.join(" ", SpanishAnalyzer.tokenize(text));
+        if (!key.isEmpty() && Character.isWhitespace(text.charAt(text.length() - 1))) {
+            key += " ";
+        }
+        return key;
+    }
+
+    private void add(Product product, Set<Suggestion> changed) {
+        long popularidad = popularidad(product);
+        List<Suggestion> own = new ArrayList<>(2);
+        addTo(own, TIPO_NOMBRE, product.getNombre(), popularidad, changed);
+        addTo(own, TIPO_MARCA, product.getMarca(), popularidad, changed);
+        products.put(product.getUID(), new IndexedProduct(own.toArray(new Suggestion[0]), popularidad));
+    }
+
+    private void addTo(List<Suggestion> own, String tipo, String texto, long popularidad, Set<Suggestion> changed) {
+        if (texto == null || texto.isBlank()) {
+            return;
+        }
+        String key = String.join(" ", SpanishAnalyzer.tokenize(texto));
+        if (key.isEmpty()) {
+            return;
+        }
+        Suggestion suggestion = suggestions.computeIfAbsent(tipo + ":" + key,
+                ignored -> new Suggestion(texto.trim(), tipo, key));
+        if (own.contains(suggestion)) {
+            return;
+        }
+        suggestion.productos++;
+        suggestion.popularidad += popularidad;
+        own.add(suggestion);
+        changed.add(suggestion);
+    }
+
+    private void remove(String UID, Set<Suggestion> changed) {
+        IndexedProduct product = products.remove(UID);
+        if (product == null) {
+            return;
+        }
+        for (Suggestion suggestion : product.suggestions) {
+            suggestion.productos--;
+            suggestion.popularidad -= product.popularidad;
+            changed.add(suggestion);
+        }
+    }
+
+    /**
+     * Coloca en el trie las sugerencias nuevas, modificadas o que se han quedado sin productos, y recalcula
+     * las mejores sugerencias de los nodos de sus caminos. Los nodos se recalculan una sola vez por lote,
+     * de los más profundos a la raíz, y los que quedan vacíos se eliminan.
+     */
+    private void reindex(Set<Suggestion> changed) {
+        Map<Node, PathStep> dirty = new HashMap<>();
+        dirty.put(root, new PathStep(null, (char) 0, 0));
+        for (Suggestion suggestion : changed) {
+            boolean alive = suggestion.productos > 0;
+            if (!alive) {
+                suggestions.remove(suggestion.tipo + ":" + suggestion.key);
+            }
+            for (String path : paths(suggestion.key)) {
+                Node node = root;
+                for (int i = 0; i < path.length() && node != null; i++) {
+                    Node parent = node;
+                    node = alive ? parent.getOrAddChild(path.charAt(i)) : parent.child(path.charAt(i));
+                    if (node != null) {
+                        dirty.putIfAbsent(node, new PathStep(parent, path.charAt(i), i + 1));
+                    }
+                }
+                if (node != null) {
+                    node.setTerminal(suggestion, alive);
+                }
+            }
+        }
+        List<Map.Entry<Node, PathStep>> nodes = new ArrayList<>(dirty.entrySet());
+        nodes.sort(Comparator.comparingInt((Map.Entry<Node, PathStep> entry) -> entry.getValue().depth).reversed());
+        for (Map.Entry<Node, PathStep> entry : nodes) {
+            Node node = entry.getKey();
+            PathStep step = entry.getValue();
+            node.recomputeTop();
+            if (step.parent != null && node.isEmpty()) {
+                step.parent.removeChild(step.label);
+            }
+        }
+    }
+
+    // El texto completo y cada final que empieza en una palabra
+    private static List<String> paths(String key) {
+        List<String> paths = new ArrayList<>();
+        paths.add(key);
+        for (int i = key.indexOf(' '); i >= 0; i = key.indexOf(' ', i + 1)) {
+            paths.add(key.substring(i + 1));
+        }
+        return paths;
+    }
+
+    private static final class Suggestion {
+        private final String texto;
+        private final String tipo;
+        private final String key;
+        private int productos;
+        private long popularidad;
+
+        private Suggestion(String texto, String tipo, String key) {
+            this.texto = texto;
+            this.tipo = tipo;
+            this.key = key;
+        }
+    }
+
+    private static final class PathStep {
+        private final Node parent;
+        private final char label;
+        private final int depth;
+
+        private PathStep(Node parent, char label, int depth) {
+            this.parent = parent;
+            this.label = label;
+            this.depth = depth;
+        }
+    }
+
+    private static final class IndexedProduct {
+        private final Suggestion[] suggestions;
+        private final long popularidad;
+
+        private IndexedProduct(Suggestion[] suggestions, long popularidad) {
+            this.suggestions = suggestions;
+            this.popularidad = popularidad;
+        }
+    }
+
+    /**
+     * Nodo del trie. Los hijos se guardan en arrays ordenados por carácter para ocupar poco.
+     */
+    private static final class Node {
+        private static final char[] NO_LABELS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+        private static final Suggestion[] NO_SUGGESTIONS = new Suggestion[0];
+
+        private char[] labels = NO_LABELS;
+        private Node[] children = NO_CHILDREN;
+        // Sugerencias cuyo texto (o uno de sus finales) termina en este nodo
+        private Suggestion[] terminals = NO_SUGGESTIONS;
+        // Mejores sugerencias del subárbol, ordenadas
+        private Suggestion[] top = NO_SUGGESTIONS;
+
+        Node child(char label) {
+            int index = Arrays.binarySearch(labels, label);
+            return index >= 0 ? children[index] : null;
+        }
+
+        Node getOrAddChild(char label) {
+            int index = Arrays.binarySearch(labels, label);
+            if (index >= 0) {
+                return children[index];
+            }
+            int insert = -index - 1;
+            char[] newLabels = new char[labels.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(labels, 0, newLabels, 0, insert);
+            System.arraycopy(children, 0, newChildren, 0, insert);
+            newLabels[insert] = label;
+            newChildren[insert] = new Node();
+            System.arraycopy(labels, insert, newLabels, insert + 1, labels.length - insert);
+            System.arraycopy(children, insert, newChildren, insert + 1, children.length - insert);
+            labels = newLabels;
+            children = newChildren;
+            return newChildren[insert];
+        }
+
+        void removeChild(char label) {
+            int index = Arrays.binarySearch(labels, label);
+            if (index < 0) {
+                return;
+            }
+            char[] newLabels = new char[labels.length - 1];
+            Node[] newChildren = new Node[children.length - 1];
+            System.arraycopy(labels, 0, newLabels, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            System.arraycopy(labels, index + 1, newLabels, index, labels.length - index - 1);
+            System.arraycopy(children, index + 1, newChildren, index, children.length - index - 1);
+            labels = newLabels;
+            children = newChildren;
+        }
+
+        void setTerminal(Suggestion suggestion, boolean present) {
+            List<Suggestion> list = new ArrayList<>(Arrays.asList(terminals));
+            list.remove(suggestion);
+            if (present) {
+                list.add(suggestion);
+            }
+            terminals = list.toArray(NO_SUGGESTIONS);
+        }
+
+        boolean isEmpty() {
+            return terminals.length == 0 && children.length == 0;
+        }
+
+        /**
+         * Mejores sugerencias del nodo a partir de las suyas y de las mejores de cada hijo.
+         */
+        void recomputeTop() {
+            // Casos habituales en las cadenas de nodos de un solo texto: no hace falta mezclar ni ordenar
+            if (terminals.length == 0 && children.length == 1) {
+                top = children[0].top;
+                return;
+            }
+            if (terminals.length == 1 && children.length == 0) {
+                top = terminals;
+                return;
+            }
+            // Una sugerencia puede llegar por varios finales (por ejemplo "pesca pesca")
+            Set<Suggestion> unique = new LinkedHashSet<>(Arrays.asList(terminals));
+            for (Node child : children) {
+                unique.addAll(Arrays.asList(child.top));
+            }
+            List<Suggestion> candidates = new ArrayList<>(unique);
+            candidates.sort(POR_POPULARIDAD);
+            top = candidates.subList(0, Math.min(MAX_SUGERENCIAS, candidates.size())).toArray(NO_SUGGESTIONS);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.pescAstur.service;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Análisis de texto en español para los índices de búsqueda de productos.
+ * Pasa a minúsculas, elimina acentos y diéresis, descarta palabras vacías y aplica
+ * un stemming ligero (plurales y vocal final) para que "Cañas", "caña" y "cana" coincidan.
+ */
+public final class SpanishAnalyzer {
+
+    private static final int MIN_STEM_LENGTH = 3;
+
+    private static final Set<String> STOPWORDS = Set.of(
+            "a", "al", "con", "de", "del", "el", "en", "es", "la", "las", "lo", "los", "o", "para",
+            "por", "se", "sin", "su", "sus", "un", "una", "unas", "unos", "y");
+
+    private SpanishAnalyzer() {
+    }
+
+    /**
+     * Normaliza un texto: minúsculas y sin marcas diacríticas (á→a, ñ→n, ü→u).
+     * @param text Texto original, puede ser null.
+     * @return Texto normalizado, o cadena vacía si es null.
+     */
+    public static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(text.toLowerCase(), Normalizer.Form.NFD);
+        StringBuilder folded = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                folded.append(c);
+            }
+        }
+        return folded.toString();
+    }
+
+    /**
+     * Divide un texto normalizado en palabras alfanuméricas, sin eliminar palabras vacías ni aplicar stemming.
+     * @param text Texto original.
+     * @return Palabras normalizadas en orden de aparición.
+     */
+    public static List<String> tokenize(String text) {
+        String normalized = normalize(text);
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean letterOrDigit = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (letterOrDigit && start < 0) {
+                start = i;
+            } else if (!letterOrDigit && start >= 0) {
+                tokens.add(normalized.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Obtiene los términos indexables de un texto: palabras normalizadas, sin palabras vacías y con stemming.
+     * @param text Texto original.
+     * @return Términos en orden de aparición (con repeticiones).
+     */
+    public static List<String> analyze(String text) {
+        List<String> terms = new ArrayList<>();
+        for (String token : tokenize(text)) {
+            if (!STOPWORDS.contains(token)) {
+                terms.add(stem(token));
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Stemming ligero para español: elimina plurales ("-es", "-s") y la vocal final,
+     * y trata la "z" final como "c" para que "pez" y "peces" compartan raíz.
+     * @param token Palabra normalizada.
+     * @return Raíz de la palabra.
+     */
+    public static String stem(String token) {
+        String stem = token;
+        if (stem.endsWith("es") && stem.length() - 2 >= MIN_STEM_LENGTH && !isVowel(stem.charAt(stem.length() - 3))
+                && stem.charAt(stem.length() - 3) != 'c') {
+            stem = stem.substring(0, stem.length() - 2); // carretes -> carret, colores -> color
+        } else if (stem.endsWith("s") && stem.length() - 1 >= MIN_STEM_LENGTH) {
+            stem = stem.substring(0, stem.length() - 1); // señuelos -> senuelo, peces -> pece
+        }
+        if (stem.length() - 1 >= MIN_STEM_LENGTH && isVowel(stem.charAt(stem.length() - 1))) {
+            stem = stem.substring(0, stem.length() - 1);
+        }
+        if (stem.endsWith("z")) {
+            stem = stem.substring(0, stem.length() - 1) + "c";
+        }
+        return stem;
+    }
+
+    private static boolean isVowel(char c) {
+        return c == 'a' || c == 'e' || c == 'i' || c == 'o' || c == 'u';
+    }
+}
@@ -0,0 +1,470 @@
+package com.example.pescAstur.service;
+
+import com.example.pescAstur.model.Product;
+import com.example.pescAstur.model.StockReservation;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Reservas de stock en memoria para el carrito y el pago.
+ * Cada producto tiene contadores atómicos de stock disponible y reservado; reservar o liberar una reserva no
+ * accede a Firestore. Las reservas caducan pasado un tiempo y su stock vuelve a estar disponible, y mientras
+ * están pendientes los pedidos directos no pueden usar ese stock ({@link FirestoreService#setReservedStock}).
+ * Al confirmar una reserva su stock se descuenta en Firestore con las mismas comprobaciones que un pedido,
+ * agrupada con los pedidos simultáneos ({@link StockUpdateCoalescer}); si el stock ya no alcanza, la
+ * confirmación falla y la reserva se anula. Por eso solo reservar, anular y caducar son operaciones en memoria:
+ * la confirmación espera a la escritura agrupada en Firestore y no se escribe en segundo plano, ya que confirmar
+ * un pedido sin comprobar Firestore podría vender stock que otra instancia ya ha vendido.
+ * El stock de cada producto se lee de Firestore la primera vez que se reserva y se reajusta con los cambios del
+ * catálogo, de modo que los pedidos procesados por otras vías o por otras instancias también se descuentan.
+ * El stock de los productos fragmentados no está en el documento del producto, así que se vuelve a sumar de
+ * sus fragmentos periódicamente.
+ */
+@Service
+public class StockReservationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(StockReservationService.class);
+    public static final int MAX_LINEAS = 50;
+
+    private final FirestoreService firestoreService;
+    private final StockUpdateCoalescer stockUpdateCoalescer;
+    private final Duration holdTtl;
+    private final Duration refreshInterval;
+    private final ScheduledExecutorService executor;
+
+    private final ConcurrentHashMap<String, ProductStock> stocks = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Hold> holds = new ConcurrentHashMap<>();
+
+    @Autowired
+    public StockReservationService(FirestoreService firestoreService, StockUpdateCoalescer stockUpdateCoalescer,
+                                   @Value("${pescastur.stock.hold-ttl:PT10M}") Duration holdTtl,
+                                   @Value("${pescastur.stock.refresh-interval:PT1S}") Duration refreshInterval) {
+        this.firestoreService = firestoreService;
+        this.stockUpdateCoalescer = stockUpdateCoalescer;
+        this.holdTtl = holdTtl;
+        this.refreshInterval = refreshInterval;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stock-reservations");
+            thread.setDaemon(true);
+            return thread;
+        });
+        firestoreService.setReservedStock(this::getReserved);
+    }
+
+    /**
+     * Programa la caducidad de las reservas y el reajuste del stock de los productos fragmentados.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        long interval = refreshInterval.toMillis();
+        executor.scheduleWithFixedDelay(this::expireHolds, interval, interval, TimeUnit.MILLISECONDS);
+        executor.scheduleWithFixedDelay(this::refresh, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Reserva stock para las líneas de un carrito. O se reservan todas las líneas o ninguna.
+     * @param products Productos con la cantidad a reservar; las líneas repetidas de un producto se suman.
+     * @return Reserva con su identificador y su fecha de caducidad.
+     * @throws IllegalArgumentException si las líneas no son válidas o algún producto no existe.
+     * @throws IllegalStateException si no hay stock suficiente de algún producto.
+     * @throws ExecutionException
+     * @throws InterruptedException
+     */
+    public StockReservation reserve(List<Product> products) throws ExecutionException, InterruptedException {
+        if (products == null || products.isEmpty()) {
+            throw new IllegalArgumentException("La reserva no tiene productos.");
+        }
+        Map<String, Integer> cantidades = new LinkedHashMap<>();
+        for (Product product : products) {
+            if (product.getUID() == null || product.getCantidad() <= 0) {
+                throw new IllegalArgumentException("Cada producto necesita un UID y una cantidad positiva.");
+            }
+            cantidades.merge(product.getUID(), product.getCantidad(), Integer::sum);
+        }
+        if (cantidades.size() > MAX_LINEAS) {
+            throw new IllegalArgumentException("Una reserva admite como mucho " + MAX_LINEAS + " productos.");
+        }
+        // Todos los productos se cargan antes de reservar nada, de modo que un producto inexistente o un error de
+        // Firestore no dejan reservado el stock de las líneas anteriores
+        Map<String, ProductStock> lineas = new LinkedHashMap<>();
+        for (String UID : cantidades.keySet()) {
+            lineas.put(UID, stock(UID));
+        }
+        List<Map.Entry<String, Integer>> acquired = new ArrayList<>(cantidades.size());
+        for (Map.Entry<String, Integer> line : cantidades.entrySet()) {
+            if (!lineas.get(line.getKey()).reserve(line.getValue())) {
+                for (Map.Entry<String, Integer> previous : acquired) {
+                    lineas.get(previous.getKey()).release(previous.getValue());
+                }
+                throw new IllegalStateException("Stock insuficiente para el producto con ID " + line.getKey());
+            }
+            acquired.add(line);
+        }
+        Hold hold = new Hold(UUID.randomUUID().toString(), cantidades, System.nanoTime() + holdTtl.toNanos(),
+                Instant.now().plus(holdTtl));
+        holds.put(hold.id, hold);
+        return new StockReservation(hold.id, cantidades, hold.expira.toString());
+    }
+
+    /**
+     * Confirma una reserva: descuenta su stock en Firestore, comprobando que sigue habiendo stock suficiente.
+     * Si la escritura falla por un error transitorio la reserva se conserva para poder reintentar la confirmación.
+     * Si la escritura no termina en {@link StockUpdateCoalescer#getTimeout()} no se sabe si se aplicará: la reserva
+     * no se conserva y el stock se ajusta cuando llegue el resultado.
+     * @param id Identificador de la reserva.
+     * @return Cantidad confirmada por UID de producto.
+     * @throws IllegalArgumentException si la reserva no existe o ha caducado.
+     * @throws IllegalStateException si ya no hay stock suficiente en Firestore; la reserva queda anulada.
+     * @throws ExecutionException si falla la escritura en Firestore o no termina a tiempo.
+     * @throws InterruptedException
+     */
+    public Map<String, Integer> commit(String id) throws ExecutionException, InterruptedException {
+        Hold hold = id != null ? holds.remove(id) : null;
+        if (hold == null) {
+            throw new IllegalArgumentException("La reserva " + id + " no existe o ha caducado.");
+        }
+        if (hold.isExpired(System.nanoTime())) {
+            release(hold);
+            throw new IllegalArgumentException("La reserva " + id + " no existe o ha caducado.");
+        }
+        List<Product> lines = new ArrayList<>(hold.cantidades.size());
+        for (Map.Entry<String, Integer> line : hold.cantidades.entrySet()) {
+            // Desde aquí el stock de la reserva ya no cuenta como reservado frente a su propio pedido
+            stocks.get(line.getKey()).startCommit(line.getValue());
+            Product product = new Product();
+            product.setUID(line.getKey());
+            product.setCantidad(line.getValue());
+            lines.add(product);
+        }
+        CompletableFuture<StockUpdateResult> pending = stockUpdateCoalescer.submit(lines);
+        StockUpdateResult result;
+        try {
+            result = pending.get(stockUpdateCoalescer.getTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | InterruptedException e) {
+            pending.whenComplete((late, error) -> settle(hold, late, error));
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            throw new ExecutionException("La confirmación de la reserva " + id + " no ha terminado a tiempo", e);
+        } catch (ExecutionException | RuntimeException e) {
+            restore(hold);
+            throw e;
+        }
+        if (result.isReintentable()) {
+            restore(hold);
+            throw new ExecutionException(result.getMensaje(), null);
+        }
+        for (Map.Entry<String, Integer> line : hold.cantidades.entrySet()) {
+            stocks.get(line.getKey()).finishCommit(line.getValue(), result.isAplicado());
+        }
+        if (!result.isAplicado()) {
+            String mensaje = result.getMensaje();
+            throw new IllegalStateException(mensaje.startsWith("Error: ") ? mensaje.substring("Error: ".length()) : mensaje);
+        }
+        return hold.cantidades;
+    }
+
+    /**
+     * Anula una reserva y devuelve su stock.
+     * @param id Identificador de la reserva.
+     * @return true si la reserva existía.
+     */
+    public boolean cancel(String id) {
+        Hold hold = id != null ? holds.remove(id) : null;
+        if (hold == null) {
+            return false;
+        }
+        release(hold);
+        return true;
+    }
+
+    /**
+     * Devuelve al stock disponible las reservas caducadas.
+     * @return Número de reservas caducadas.
+     */
+    public int expireHolds() {
+        long now = System.nanoTime();
+        int expired = 0;
+        for (Hold hold : holds.values()) {
+            if (hold.isExpired(now) && holds.remove(hold.id, hold)) {
+                release(hold);
+                expired++;
+            }
+        }
+        if (expired > 0) {
+            logger.debug("{} reservas de stock caducadas", expired);
+        }
+        return expired;
+    }
+
+    /**
+     * Reajusta con Firestore el stock de los productos fragmentados y de los productos cuyo stock puede haber
+     * quedado desfasado tras una confirmación. El stock fragmentado es la suma de los fragmentos.
+     */
+    public void refresh() {
+        for (Map.Entry<String, ProductStock> entry : stocks.entrySet()) {
+            ProductStock stock = entry.getValue();
+            if (!stock.sharded && !stock.stale) {
+                continue;
+            }
+            stock.stale = false;
+            long commits = stock.commits.get();
+            try {
+                Long current = firestoreService.getProductStock(entry.getKey());
+                // Si ha terminado una confirmación durante la lectura no se sabe si la refleja: se repite después
+                if (!stock.rebase(current != null ? current : 0, commits)) {
+                    stock.stale = true;
+                }
+            } catch (ExecutionException | InterruptedException | RuntimeException e) {
+                stock.stale = true;
+                logger.warn("No se ha podido reajustar el stock del producto {}", entry.getKey(), e);
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stock disponible para reservar de un producto ya cargado.
+     * @param UID El identificador único del producto.
+     * @return Stock disponible, o null si el producto no se ha reservado nunca.
+     */
+    public Long getAvailable(String UID) {
+        ProductStock stock = stocks.get(UID);
+        return stock != null ? stock.available.get() : null;
+    }
+
+    /**
+     * Stock de un producto apartado por reservas pendientes de confirmar.
+     * @param UID El identificador único del producto.
+     * @return Stock reservado, 0 si no hay reservas del producto.
+     */
+    public long getReserved(String UID) {
+        ProductStock stock = stocks.get(UID);
+        return stock != null ? stock.held.get() : 0;
+    }
+
+    /**
+     * Reajusta el stock disponible de los productos cargados con el stock que indica Firestore.
+     */
+    @EventListener
+    public void onCatalogChanged(ProductCatalogChangedEvent event) {
+        for (ProductChange change : event.getCambios()) {
+            ProductStock stock = stocks.get(change.getUID());
+            if (stock == null) {
+                continue;
+            }
+            if (change.isEliminacion()) {
+                stock.sharded = false;
+                stock.rebase(0, stock.commits.get());
+            } else if (change.getActual().getFragmentosStock() > 0) {
+                // El documento no refleja el stock fragmentado: se suma de los fragmentos en el siguiente reajuste
+                stock.sharded = true;
+                stock.stale = true;
+            } else {
+                stock.sharded = false;
+                stock.rebase(change.getActual().getCantidadStock(), stock.commits.get());
+            }
+        }
+    }
+
+    private ProductStock stock(String UID) throws ExecutionException, InterruptedException {
+        ProductStock stock = stocks.get(UID);
+        if (stock != null) {
+            return stock;
+        }
+        Product product = firestoreService.getProductByUID(UID);
+        Long current = product != null ? firestoreService.getProductStock(UID) : null;
+        if (current == null) {
+            throw new IllegalArgumentException("Producto con ID " + UID + " no encontrado en la base de datos");
+        }
+        ProductStock created = new ProductStock(current);
+        created.sharded = product.getFragmentosStock() > 0;
+        ProductStock loaded = stocks.putIfAbsent(UID, created);
+        return loaded != null ? loaded : created;
+    }
+
+    private void release(Hold hold) {
+        for (Map.Entry<String, Integer> line : hold.cantidades.entrySet()) {
+            stocks.get(line.getKey()).release(line.getValue());
+        }
+    }
+
+    /**
+     * Termina la cuenta de una confirmación cuyo resultado ha llegado después de responder al cliente.
+     * La reserva ya no existe, así que el stock de una escritura fallida vuelve a estar disponible.
+     */
+    private void settle(Hold hold, StockUpdateResult result, Throwable error) {
+        boolean applied = error == null && result.isAplicado();
+        for (Map.Entry<String, Integer> line : hold.cantidades.entrySet()) {
+            stocks.get(line.getKey()).finishCommit(line.getValue(), applied);
+        }
+    }
+
+    /**
+     * Vuelve a dejar pendiente una reserva cuya confirmación no se ha podido escribir.
+     */
+    private void restore(Hold hold) {
+        for (Map.Entry<String, Integer> line : hold.cantidades.entrySet()) {
+            stocks.get(line.getKey()).abortCommit(line.getValue());
+        }
+        holds.put(hold.id, hold);
+    }
+
+    /**
+     * Contadores de stock de un producto.
+     * Las reservas y confirmaciones solo actualizan contadores atómicos (compartiendo el cerrojo de lectura);
+     * el reajuste con el stock de Firestore toma el cerrojo de escritura para ver los contadores quietos.
+     */
+    private static final class ProductStock {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        final AtomicLong available;
+        final AtomicLong held = new AtomicLong();
+        // Reservas confirmadas cuya escritura en Firestore está en curso
+        final AtomicLong committing = new AtomicLong();
+        // Confirmaciones terminadas; permite saber si una lectura de Firestore es anterior a alguna
+        final AtomicLong commits = new AtomicLong();
+        volatile boolean sharded;
+        volatile boolean stale;
+
+        ProductStock(long available) {
+            this.available = new AtomicLong(available);
+        }
+
+        boolean reserve(long cantidad) {
+            lock.readLock().lock();
+            try {
+                long current;
+                do {
+                    current = available.get();
+                    if (current < cantidad) {
+                        return false;
+                    }
+                } while (!available.compareAndSet(current, current - cantidad));
+                held.addAndGet(cantidad);
+                return true;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void release(long cantidad) {
+            lock.readLock().lock();
+            try {
+                held.addAndGet(-cantidad);
+                available.addAndGet(cantidad);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void startCommit(long cantidad) {
+            lock.readLock().lock();
+            try {
+                held.addAndGet(-cantidad);
+                committing.addAndGet(cantidad);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void abortCommit(long cantidad) {
+            lock.readLock().lock();
+            try {
+                committing.addAndGet(-cantidad);
+                held.addAndGet(cantidad);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * Termina una confirmación. Si se ha escrito, el stock ya estaba descontado de {@code available} desde la
+         * reserva; si no había stock suficiente en Firestore se devuelve. En ambos casos un reajuste hecho mientras
+         * tanto puede no cuadrar con la escritura, así que el stock se vuelve a leer en el siguiente reajuste.
+         */
+        void finishCommit(long cantidad, boolean applied) {
+            lock.readLock().lock();
+            try {
+                committing.addAndGet(-cantidad);
+                if (!applied) {
+                    available.addAndGet(cantidad);
+                }
+                commits.incrementAndGet();
+                stale = true;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * Ajusta el stock disponible al stock de Firestore, descontando lo reservado y lo que se está confirmando.
+         * @param firestoreStock Stock leído de Firestore.
+         * @param commitsSeen Confirmaciones terminadas cuando se leyó el stock.
+         * @return false si ha terminado alguna confirmación después de la lectura y no se ha reajustado.
+         */
+        boolean rebase(long firestoreStock, long commitsSeen) {
+            lock.writeLock().lock();
+            try {
+                if (commits.get() != commitsSeen) {
+                    return false;
+                }
+                available.set(firestoreStock - held.get() - committing.get());
+                return true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Reserva de stock pendiente de confirmar.
+     */
+    private static final class Hold {
+        final String id;
+        final Map<String, Integer> cantidades;
+        final long expiresAtNanos;
+        final Instant expira;
+
+        private Hold(String id, Map<String, Integer> cantidades, long expiresAtNanos, Instant expira) {
+            this.id = id;
+            this.cantidades = cantidades;
+            this.expiresAtNanos = expiresAtNanos;
+            this.expira = expira;
+        }
+
+        boolean isExpired(long now) {
+            return now - expiresAtNanos > 0;
+        }
+    }
+}
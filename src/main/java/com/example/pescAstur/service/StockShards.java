@@ -0,0 +1,60 @@
+package com.example.pescAstur.service;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Reparto del stock de un producto en fragmentos (contador distribuido).
+ * Firestore limita las escrituras sostenidas sobre un mismo documento, por lo que en los productos con muchos
+ * pedidos simultáneos el stock se guarda en {@code products/{UID}/stockShards/{i}} y cada pedido descuenta
+ * de uno de los fragmentos elegido al azar. El stock del producto es la suma de los fragmentos.
+ */
+public final class StockShards {
+
+    public static final String COLLECTION = "stockShards";
+    public static final String FIELD = "fragmentosStock";
+    public static final int MAX_FRAGMENTOS = 100;
+
+    private StockShards() {
+    }
+
+    /**
+     * Reparte un stock a partes iguales; los primeros fragmentos reciben el resto de la división.
+     * @param stock Stock total.
+     * @param fragmentos Número de fragmentos.
+     * @return Stock de cada fragmento.
+     */
+    public static long[] split(long stock, int fragmentos) {
+        long[] shards = new long[fragmentos];
+        for (int i = 0; i < fragmentos; i++) {
+            shards[i] = stock / fragmentos + (i < stock % fragmentos ? 1 : 0);
+        }
+        return shards;
+    }
+
+    /**
+     * Elige el fragmento por el que empieza a descontar un pedido, al azar para repartir las escrituras.
+     */
+    public static int firstShard(int fragmentos) {
+        return ThreadLocalRandom.current().nextInt(fragmentos);
+    }
+
+    /**
+     * Calcula cuánto se descuenta de cada fragmento para servir una cantidad, recorriendo los fragmentos
+     * desde {@code start} hasta cubrirla.
+     * @param available Stock disponible en cada fragmento.
+     * @param start Fragmento por el que se empieza.
+     * @param cantidad Cantidad pedida.
+     * @return Cantidad a descontar de cada fragmento, o null si la suma de los fragmentos no alcanza.
+     */
+    public static long[] take(long[] available, int start, long cantidad) {
+        long[] taken = new long[available.length];
+        long pending = cantidad;
+        for (int n = 0; n < available.length && pending > 0; n++) {
+            int i = (start + n) % available.length;
+            long amount = Math.min(pending, Math.max(0, available[i]));
+            taken[i] = amount;
+            pending -= amount;
+        }
+        return pending > 0 ? null : taken;
+    }
+}
@@ -0,0 +1,244 @@
+package com.example.pescAstur.service;
+
+import com.example.pescAstur.model.Product;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Agrupa las actualizaciones de stock que llegan casi a la vez (group commit).
+ * Un pedido que llega con la cola vacía se aplica en el acto; los que llegan mientras se escribe esperan a que
+ * quede libre un hilo de escritura y se aplican juntos con {@link FirestoreService#updateProductStocksGroup(List)}:
+ * una sola lectura y una sola escritura neta por producto para todo el grupo, en lugar de una transacción por
+ * pedido. Así no se espera ninguna ventana de tiempo y los grupos crecen solos con la carga.
+ * Un grupo solo reúne pedidos que comparten productos, de modo que los pedidos de productos distintos se escriben
+ * en paralelo en varios hilos. Cada pedido recibe su propio resultado; si el grupo entero falla, sus pedidos se
+ * reintentan uno a uno para que el fallo de uno no arrastre a los demás.
+ */
+@Service
+public class StockUpdateCoalescer {
+
+    private static final Logger logger = LoggerFactory.getLogger(StockUpdateCoalescer.class);
+    // Productos distintos por grupo, para no superar el límite de escrituras de una transacción
+    public static final int MAX_PRODUCTOS_GRUPO = 100;
+    // Pedidos en cola que se revisan como mucho al formar un grupo
+    private static final int MAX_REVISADOS = 256;
+
+    private final FirestoreService firestoreService;
+    private final int maxPedidos;
+    private final Duration timeout;
+    private final LinkedBlockingQueue<PendingOrder> queue = new LinkedBlockingQueue<>();
+    private final ExecutorService executor;
+
+    @Autowired
+    public StockUpdateCoalescer(FirestoreService firestoreService,
+                                @Value("${pescastur.stock.group-commit:true}") boolean enabled,
+                                @Value("${pescastur.stock.group-commit-writers:4}") int writers,
+                                @Value("${pescastur.stock.group-commit-max-orders:32}") int maxPedidos,
+                                @Value("${pescastur.stock.update-timeout:PT10S}") Duration timeout) {
+        this.firestoreService = firestoreService;
+        this.maxPedidos = maxPedidos;
+        this.timeout = timeout;
+        if (enabled) {
+            AtomicInteger threads = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(writers, runnable -> {
+                Thread thread = new Thread(runnable, "stock-group-commit-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            for (int i = 0; i < writers; i++) {
+                executor.execute(this::run);
+            }
+        } else {
+            this.executor = null;
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Tiempo máximo que se espera el resultado de un pedido. Si vence, no se sabe si el pedido se ha aplicado.
+     */
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Encola la actualización de stock de un pedido.
+     * @param products Productos del pedido con la cantidad a descontar.
+     * @return Resultado del pedido. Un pedido con líneas vacías o sin UID se rechaza sin encolarlo.
+     */
+    public CompletableFuture<StockUpdateResult> submit(List<Product> products) {
+        if (products == null || products.isEmpty()) {
+            return CompletableFuture.completedFuture(StockUpdateResult.rechazado("Error: El pedido no tiene productos"));
+        }
+        for (Product product : products) {
+            if (product == null || product.getUID() == null || product.getUID().isBlank()) {
+                return CompletableFuture.completedFuture(
+                        StockUpdateResult.rechazado("Error: El pedido contiene líneas sin producto"));
+            }
+        }
+        if (executor == null) {
+            // Sin agrupación cada pedido se aplica directamente
+            return CompletableFuture.completedFuture(firestoreService.updateProductStocksGroup(List.of(products)).get(0));
+        }
+        PendingOrder order = new PendingOrder(products);
+        queue.add(order);
+        return order.result;
+    }
+
+    /**
+     * Actualiza el stock de un pedido y espera su resultado como mucho {@link #getTimeout()}.
+     * @param products Productos del pedido con la cantidad a descontar.
+     * @return Resultado del pedido.
+     * @throws TimeoutException si el pedido no ha terminado a tiempo; puede aplicarse después.
+     * @throws ExecutionException si falla la escritura.
+     * @throws InterruptedException
+     */
+    public StockUpdateResult update(List<Product> products)
+            throws ExecutionException, InterruptedException, TimeoutException {
+        return submit(products).get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            List<PendingOrder> group = new ArrayList<>();
+            try {
+                nextGroup(group);
+                apply(group);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (PendingOrder order : group) {
+                    order.result.completeExceptionally(new IllegalStateException("La aplicación se está deteniendo"));
+                }
+            } catch (RuntimeException e) {
+                // Un error inesperado solo falla los pedidos de su grupo; el hilo sigue atendiendo la cola
+                logger.warn("Error al aplicar un grupo de {} pedidos", group.size(), e);
+                for (PendingOrder order : group) {
+                    order.result.completeExceptionally(e);
+                }
+            }
+        }
+        failPending();
+    }
+
+    /**
+     * Espera al primer pedido y le añade los pedidos en cola que comparten algún producto con el grupo, sin
+     * esperar a que lleguen más, hasta el máximo de pedidos o de productos distintos. Los demás pedidos quedan
+     * en la cola para otro hilo.
+     */
+    private void nextGroup(List<PendingOrder> group) throws InterruptedException {
+        PendingOrder first = queue.take();
+        group.add(first);
+        Set<String> UIDs = uids(first);
+        Iterator<PendingOrder> queued = queue.iterator();
+        for (int revisados = 0; queued.hasNext() && revisados < MAX_REVISADOS && group.size() < maxPedidos; revisados++) {
+            PendingOrder next = queued.next();
+            Set<String> other = uids(next);
+            if (Collections.disjoint(UIDs, other)) {
+                continue;
+            }
+            Set<String> merged = new HashSet<>(UIDs);
+            merged.addAll(other);
+            // Otro hilo puede haberse llevado el pedido mientras se recorría la cola
+            if (merged.size() <= MAX_PRODUCTOS_GRUPO && queue.remove(next)) {
+                UIDs = merged;
+                group.add(next);
+            }
+        }
+    }
+
+    private void apply(List<PendingOrder> group) {
+        List<List<Product>> orders = new ArrayList<>(group.size());
+        for (PendingOrder order : group) {
+            orders.add(order.products);
+        }
+        List<StockUpdateResult> results;
+        try {
+            results = firestoreService.updateProductStocksGroup(orders);
+        } catch (RuntimeException e) {
+            if (group.size() == 1) {
+                throw e;
+            }
+            logger.warn("Error al aplicar un grupo de {} pedidos; se aplican uno a uno", group.size(), e);
+            applyAlone(group);
+            return;
+        }
+        List<PendingOrder> failed = new ArrayList<>();
+        for (int i = 0; i < group.size(); i++) {
+            if (group.size() > 1 && results.get(i).isReintentable()) {
+                failed.add(group.get(i));
+            } else {
+                group.get(i).result.complete(results.get(i));
+            }
+        }
+        if (!failed.isEmpty()) {
+            logger.warn("Fallo transitorio en un grupo de {} pedidos; se aplican uno a uno", group.size());
+            applyAlone(failed);
+        } else if (group.size() > 1) {
+            logger.debug("Grupo de {} pedidos aplicado", group.size());
+        }
+    }
+
+    private void applyAlone(List<PendingOrder> orders) {
+        for (PendingOrder order : orders) {
+            try {
+                order.result.complete(firestoreService.updateProductStocksGroup(List.of(order.products)).get(0));
+            } catch (RuntimeException e) {
+                order.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void failPending() {
+        List<PendingOrder> pending = new ArrayList<>();
+        queue.drainTo(pending);
+        for (PendingOrder order : pending) {
+            order.result.completeExceptionally(new IllegalStateException("La aplicación se está deteniendo"));
+        }
+    }
+
+    private static Set<String> uids(PendingOrder order) {
+        Set<String> UIDs = new HashSet<>();
+        for (Product product : order.products) {
+            UIDs.add(product.getUID());
+        }
+        return UIDs;
+    }
+
+    /**
+     * Pedido a la espera de su grupo.
+     */
+    private static final class PendingOrder {
+        final List<Product> products;
+        final CompletableFuture<StockUpdateResult> result = new CompletableFuture<>();
+
+        private PendingOrder(List<Product> products) {
+            this.products = products;
+        }
+    }
+}
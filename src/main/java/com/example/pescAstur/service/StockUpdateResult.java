@@ -0,0 +1,27 @@
+package com.example.pescAstur.service;
+
+import lombok.Value;
+
+/**
+ * Resultado de la actualización de stock de un pedido.
+ * Un pedido rechazado (producto inexistente, stock insuficiente...) no se debe reintentar tal cual; un fallo
+ * transitorio de Firestore no ha descontado stock y el mismo pedido se puede reintentar.
+ */
+@Value
+public class StockUpdateResult {
+    String mensaje;
+    boolean aplicado;
+    boolean reintentable;
+
+    public static StockUpdateResult aplicado(String mensaje) {
+        return new StockUpdateResult(mensaje, true, false);
+    }
+
+    public static StockUpdateResult rechazado(String mensaje) {
+        return new StockUpdateResult(mensaje, false, false);
+    }
+
+    public static StockUpdateResult fallido(String mensaje) {
+        return new StockUpdateResult(mensaje, false, true);
+    }
+}
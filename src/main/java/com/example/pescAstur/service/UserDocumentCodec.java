@@ -0,0 +1,100 @@
+package com.example.pescAstur.service;
+
+import com.example.pescAstur.model.User;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentSnapshot;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Conversión explícita entre los documentos de la colección users y {@link User}.
+ * Los campos del documento se escriben y se leen siempre con los mismos nombres; la foto de perfil
+ * se gestiona aparte porque depende de Firebase Storage.
+ */
+public final class UserDocumentCodec {
+
+    // Campos de toData más la foto de perfil que añade quien guarda el documento
+    private static final int FIELDS = 15;
+
+    private UserDocumentCodec() {
+    }
+
+    /**
+     * Campos de Firestore de un usuario, sin la foto de perfil.
+     * El mapa tiene capacidad para añadir {@code fotoPerfil} sin redimensionarse.
+     * @param user Usuario.
+     * @return Campos del documento.
+     */
+    public static Map<String, Object> toData(User user) {
+        Map<String, Object> data = new HashMap<>(FIELDS * 4 / 3 + 1);
+        data.put("nombre", user.getNombre());
+        data.put("apellido", user.getApellido());
+        data.put("telefono", user.getTelefono());
+        data.put("direccion", user.getDireccion());
+        data.put("ciudad", user.getCiudad());
+        data.put("provincia", user.getProvincia());
+        data.put("codigoPostal", user.getCodigoPostal());
+        data.put("pais", user.getPais());
+        data.put("fechaNacimiento", user.getFechaNacimiento());
+        data.put("fechaRegistro", user.getFechaRegistro());
+        data.put("idiomaPreferido", user.getIdiomaPreferido());
+        data.put("estadoCuenta", user.getEstadoCuenta());
+        data.put("nombreUsuario", user.getUserName());
+        data.put("DNI", user.getDNI());
+        return data;
+    }
+
+    /**
+     * Convierte un documento de usuario.
+     * @param document Documento de Firestore.
+     * @return Usuario, o null si el documento no existe.
+     */
+    public static User fromDocument(DocumentSnapshot document) {
+        Map<String, Object> data = document.getData();
+        return data != null ? fromData(data) : null;
+    }
+
+    /**
+     * Convierte los campos de un documento de usuario. Los campos con un tipo inesperado se dejan vacíos.
+     * @param data Campos del documento.
+     * @return Usuario.
+     */
+    public static User fromData(Map<String, Object> data) {
+        User user = new User();
+        for (Map.Entry<String, Object> field : data.entrySet()) {
+            Object value = field.getValue();
+            switch (field.getKey()) {
+                case "nombre" -> user.setNombre(string(value));
+                case "apellido" -> user.setApellido(string(value));
+                case "telefono" -> user.setTelefono(string(value));
+                case "direccion" -> user.setDireccion(string(value));
+                case "ciudad" -> user.setCiudad(string(value));
+                case "provincia" -> user.setProvincia(string(value));
+                case "codigoPostal" -> user.setCodigoPostal(string(value));
+                case "pais" -> user.setPais(string(value));
+                case "fechaNacimiento" -> user.setFechaNacimiento(date(value));
+                case "fechaRegistro" -> user.setFechaRegistro(date(value));
+                case "idiomaPreferido" -> user.setIdiomaPreferido(string(value));
+                case "estadoCuenta" -> user.setEstadoCuenta(string(value));
+                case "nombreUsuario" -> user.setUserName(string(value));
+                case "DNI" -> user.setDNI(string(value));
+                default -> {
+                }
+            }
+        }
+        return user;
+    }
+
+    private static String string(Object value) {
+        return value instanceof String string ? string : null;
+    }
+
+    private static Date date(Object value) {
+        if (value instanceof Timestamp timestamp) {
+            return timestamp.toDate();
+        }
+        return value instanceof Date date ? date : null;
+    }
+}
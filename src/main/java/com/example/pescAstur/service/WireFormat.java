@@ -0,0 +1,76 @@
+package com.example.pescAstur.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Codificaciones disponibles para las respuestas de producto.
+ * Además de JSON se ofrecen CBOR y Smile, dos formatos binarios con el mismo modelo de datos que JSON
+ * que los clientes pueden pedir con la cabecera Accept.
+ */
+public enum WireFormat {
+
+    JSON(MediaType.APPLICATION_JSON),
+    CBOR(MediaType.APPLICATION_CBOR),
+    SMILE(new MediaType("application", "x-jackson-smile"));
+
+    private final MediaType mediaType;
+
+    WireFormat(MediaType mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * Obtiene un ObjectMapper para este formato con la misma configuración que el de JSON.
+     * @param json ObjectMapper de JSON de la aplicación.
+     * @return ObjectMapper que escribe en este formato.
+     */
+    public ObjectMapper mapper(ObjectMapper json) {
+        return switch (this) {
+            case JSON -> json;
+            case CBOR -> json.copyWith(new CBORFactory());
+            case SMILE -> json.copyWith(new SmileFactory());
+        };
+    }
+
+    /**
+     * Elige el formato de respuesta según la cabecera Accept, respetando las preferencias (q) del cliente.
+     * Si la cabecera no existe, no es válida o no pide ningún formato binario se usa JSON.
+     * @param accept Valor de la cabecera Accept, puede ser null.
+     * @return Formato de la respuesta.
+     */
+    public static WireFormat negotiate(String accept) {
+        if (accept == null || accept.isBlank()) {
+            return JSON;
+        }
+        try {
+            List<MediaType> acceptable = new ArrayList<>(MediaType.parseMediaTypes(accept));
+            // Orden estable: a igual calidad se respeta el orden de la cabecera
+            acceptable.sort(Comparator.comparingDouble(MediaType::getQualityValue).reversed());
+            for (MediaType requested : acceptable) {
+                if (requested.getQualityValue() == 0 || requested.isWildcardType()) {
+                    continue;
+                }
+                for (WireFormat format : values()) {
+                    if (requested.isCompatibleWith(format.mediaType)) {
+                        return format;
+                    }
+                }
+            }
+        } catch (InvalidMediaTypeException e) {
+            return JSON;
+        }
+        return JSON;
+    }
+}
@@ -1,31 +1,69 @@
 package com.example.pescAstur.controllerTest;
 
 import com.example.pescAstur.controller.ProductController;
+import com.example.pescAstur.model.IdempotentResponse;
 import com.example.pescAstur.model.Product;
+import com.example.pescAstur.model.ProductFacetResult;
+import com.example.pescAstur.model.ProductLookup;
+import com.example.pescAstur.model.ProductPage;
+import com.example.pescAstur.model.ProductRecommendation;
+import com.example.pescAstur.model.ProductSearchHit;
+import com.example.pescAstur.model.ProductSuggestion;
+import com.example.pescAstur.model.ProductSyncResult;
+import com.example.pescAstur.model.StockReservation;
+import com.example.pescAstur.service.CatalogResponseCache;
 import com.example.pescAstur.service.FirestoreService;
+import com.example.pescAstur.service.IdempotencyService;
+import com.example.pescAstur.service.ProductCatalogService;
+import com.example.pescAstur.service.ProductFacetService;
+import com.example.pescAstur.service.ProductRankingService;
+import com.example.pescAstur.service.ProductRecommendationService;
+import com.example.pescAstur.service.ProductSearchService;
+import com.example.pescAstur.service.ProductSuggestService;
+import com.example.pescAstur.service.StockReservationService;
+import com.example.pescAstur.service.StockUpdateResult;
+import com.example.pescAstur.service.StockUpdateCoalescer;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import java.io.ByteArrayInputStream;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPInputStream;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasItem;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 
 
 @WebMvcTest(ProductController.class)
+@Import({CatalogResponseCache.class, StockUpdateCoalescer.class})
 public class ProductControllerTest {
 
     @Autowired
@@ -34,12 +72,36 @@ public class ProductControllerTest {
     @MockBean
     private FirestoreService firestoreService;
 
+    @MockBean
+    private ProductCatalogService productCatalogService;
+
+    @MockBean
+    private ProductSearchService productSearchService;
+
+    @MockBean
+    private ProductFacetService productFacetService;
+
+    @MockBean
+    private ProductRankingService productRankingService;
+
+    @MockBean
+    private ProductSuggestService productSuggestService;
+
+    @MockBean
+    private ProductRecommendationService productRecommendationService;
+
+    @MockBean
+    private StockReservationService stockReservationService;
+
+    @MockBean
+    private IdempotencyService idempotencyService;
+
     @Autowired
     private ObjectMapper objectMapper;
 
     /**
      * Test para verificar el comportamiento del controlador al obtener todos los productos de forma exitosa.
-     * Este método simula una llamada al servicio de Firestore para recuperar una lista de productos.
+     * Este método simula una llamada al catálogo en memoria para recuperar una lista de productos.
      * Se crea una lista de productos de prueba con diferentes atributos y se espera que el controlador
      * responda con un estado HTTP 200 (OK) y que los datos devueltos coincidan con los productos simulados.
      * Se valida que la respuesta contenga las propiedades esperadas para cada producto,
@@ -91,7 +153,7 @@ public class ProductControllerTest {
         List<Product> products = Arrays.asList(product1, product2);
 
         // Simulamos la respuesta del servicio
-        when(firestoreService.getAllProducts()).thenReturn(products);
+        when(productCatalogService.getAllProducts()).thenReturn(products);
 
         // Act & Assert
         mockMvc.perform(get("/api/products/all")
@@ -112,7 +174,7 @@ public class ProductControllerTest {
     /**
      * Test para verificar el comportamiento del controlador cuando se produce un error en el servidor
      * al intentar obtener todos los productos.
-     * Este método simula una situación en la que el servicio de Firestore lanza una
+     * Este método simula una situación en la que el catálogo, sin cargar aún, lanza una
      * {@link ExecutionException}. Se espera que, en esta situación, el controlador responda
      * con un estado HTTP 500 (Internal Server Error).
      * @throws Exception si ocurre algún error durante la ejecución de la prueba.
@@ -120,7 +182,7 @@ public class ProductControllerTest {
     @Test
     void testGetAllProducts_ServerError() throws Exception {
         // Arrange: Simula que el método lanza una ExecutionException
-        when(firestoreService.getAllProducts()).thenThrow(new ExecutionException("Firestore Error", new Throwable()));
+        when(productCatalogService.getAllProducts()).thenThrow(new ExecutionException("Firestore Error", new Throwable()));
 
         // Act & Assert
         mockMvc.perform(get("/api/products/all")
@@ -282,7 +344,8 @@ public class ProductControllerTest {
 
         // Simulamos que el servicio devuelve un mensaje de éxito
         String successMessage = "Stocks actualizados correctamente";
-        when(firestoreService.updateProductStocks(products)).thenReturn(successMessage);
+        when(firestoreService.updateProductStocksGroup(List.of(products)))
+                .thenReturn(List.of(StockUpdateResult.aplicado(successMessage)));
 
         // Act & Assert
         mockMvc.perform(post("/api/products/update-stocks")
@@ -290,7 +353,78 @@ public class ProductControllerTest {
                         .content(new ObjectMapper().writeValueAsString(products)))
                 .andExpect(status().isOk())
                 .andExpect(content().string(successMessage));
+        verify(productRecommendationService).recordOrder(List.of("UID001", "UID002"));
+    }
+    /**
+     * Prueba la reserva de stock de un carrito: devuelve la reserva concedida, responde 409 si no hay
+     * stock suficiente y al confirmarla registra el pedido para las recomendaciones.
+     * @throws Exception si ocurre un error durante la ejecución de la solicitud
+     */
+    @Test
+    void testReserveAndCommitStock() throws Exception {
+        // Arrange
+        Product line = new Product();
+        line.setUID("UID001");
+        line.setCantidad(2);
+        List<Product> products = List.of(line);
+        when(stockReservationService.reserve(products))
+                .thenReturn(new StockReservation("R1", Map.of("UID001", 2), "2024-11-01T11:10:00Z"))
+                .thenThrow(new IllegalStateException("Stock insuficiente para el producto con ID UID001"));
+        when(stockReservationService.commit("R1")).thenReturn(Map.of("UID001", 2));
+        String body = new ObjectMapper().writeValueAsString(products);
+
+        // Act & Assert
+        mockMvc.perform(post("/api/products/reservations").contentType(MediaType.APPLICATION_JSON).content(body))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value("R1"))
+                .andExpect(jsonPath("$.productos.UID001").value(2));
+        mockMvc.perform(post("/api/products/reservations").contentType(MediaType.APPLICATION_JSON).content(body))
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.message").value("Stock insuficiente para el producto con ID UID001"));
+        mockMvc.perform(post("/api/products/reservations/commit").param("id", "R1"))
+                .andExpect(status().isOk());
+        verify(productRecommendationService).recordOrder(Set.of("UID001"));
+    }
+
+    /**
+     * Prueba la actualización de stock con la cabecera Idempotency-Key: la primera petición aplica el pedido,
+     * la repetición devuelve la respuesta guardada sin volver a descontar el stock y una clave no válida se
+     * rechaza con 400.
+     * @throws Exception si ocurre un error durante la ejecución de la solicitud
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    void testUpdateProductStocks_IdempotencyKey() throws Exception {
+        // Arrange
+        Product line = new Product();
+        line.setUID("UID001");
+        line.setCantidad(2);
+        List<Product> products = List.of(line);
+        String body = new ObjectMapper().writeValueAsString(products);
+        when(firestoreService.updateProductStocksGroup(anyList()))
+                .thenReturn(List.of(StockUpdateResult.aplicado("Stocks actualizados correctamente")));
+        when(idempotencyService.execute(eq("pedido-1"), anyString(), any()))
+                .thenAnswer(invocation -> ((Callable<IdempotentResponse>) invocation.getArgument(2)).call())
+                .thenReturn(new IdempotentResponse(200, "Stocks actualizados correctamente", "huella", false, true));
+
+        // Act & Assert
+        mockMvc.perform(post("/api/products/update-stocks").header("Idempotency-Key", "pedido-1")
+                        .contentType(MediaType.APPLICATION_JSON).content(body))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("Idempotent-Replayed"))
+                .andExpect(content().string("Stocks actualizados correctamente"));
+        mockMvc.perform(post("/api/products/update-stocks").header("Idempotency-Key", "pedido-1")
+                        .contentType(MediaType.APPLICATION_JSON).content(body))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Idempotent-Replayed", "true"))
+                .andExpect(content().string("Stocks actualizados correctamente"));
+        mockMvc.perform(post("/api/products/update-stocks").header("Idempotency-Key", "pedido/1")
+                        .contentType(MediaType.APPLICATION_JSON).content(body))
+                .andExpect(status().isBadRequest());
+        verify(firestoreService, times(1)).updateProductStocksGroup(anyList());
+        verify(productRecommendationService, times(1)).recordOrder(List.of("UID001"));
     }
+
     /**
      * Prueba el método {@link ProductController#updateProductStocks(List)} para un escenario no exitoso
      * donde ocurre un error al actualizar los stocks de los productos.
@@ -319,7 +453,8 @@ public class ProductControllerTest {
 
         // Simulamos que el servicio devuelve un mensaje de error
         String errorMessage = "Error al actualizar los stocks";
-        when(firestoreService.updateProductStocks(anyList())).thenReturn(errorMessage);
+        when(firestoreService.updateProductStocksGroup(anyList()))
+                .thenReturn(List.of(StockUpdateResult.rechazado(errorMessage)));
 
         // Act & Assert
         mockMvc.perform(post("/api/products/update-stocks")
@@ -327,6 +462,421 @@ public class ProductControllerTest {
                         .content(new ObjectMapper().writeValueAsString(products)))
                 .andExpect(status().isBadRequest())
                 .andExpect(content().string(errorMessage));
+        verify(productRecommendationService, never()).recordOrder(anyList());
+    }
+
+    /**
+     * Prueba que un pedido con una línea vacía se rechaza con 400 sin llegar a Firestore y que los pedidos
+     * siguientes se siguen procesando.
+     * @throws Exception si hay un error durante la ejecución de la prueba.
+     */
+    @Test
+    void testUpdateProductStocks_NullLine() throws Exception {
+        // Arrange
+        Product line = new Product();
+        line.setUID("UID001");
+        line.setCantidad(1);
+        when(firestoreService.updateProductStocksGroup(List.of(List.of(line))))
+                .thenReturn(List.of(StockUpdateResult.aplicado("Stocks actualizados correctamente")));
+
+        // Act & Assert
+        mockMvc.perform(post("/api/products/update-stocks")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[null]"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(post("/api/products/update-stocks")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(new ObjectMapper().writeValueAsString(List.of(line))))
+                .andExpect(status().isOk());
+        verify(firestoreService, times(1)).updateProductStocksGroup(anyList());
+    }
+
+    /**
+     * Test para verificar que el endpoint de paginación devuelve la página del catálogo
+     * junto con el cursor de la página siguiente.
+     * @throws Exception si ocurre algún error durante la ejecución de la prueba.
+     */
+    @Test
+    void testGetProductsPage_Success() throws Exception {
+        // Arrange
+        Product product = new Product();
+        product.setUID("UID001");
+        product.setNombre("Producto A");
+        when(productCatalogService.getProductsPage(1, null, null))
+                .thenReturn(new ProductPage<>(List.of(product), "VUlEMDAx"));
+
+        // Act & Assert
+        mockMvc.perform(get("/api/products/page").param("pageSize", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.productos[0].uid").value("UID001"))
+                .andExpect(jsonPath("$.siguienteCursor").value("VUlEMDAx"));
+    }
+
+    /**
+     * Test para verificar que se rechazan tamaños de página fuera de rango y cursores no válidos.
+     * @throws Exception si ocurre algún error durante la ejecución de la prueba.
+     */
+    @Test
+    void testGetProductsPage_BadRequest() throws Exception {
+        when(productCatalogService.getProductsPage(20, "invalido", null))
+                .thenThrow(new IllegalArgumentException("Cursor de paginación no válido"));
+
+        mockMvc.perform(get("/api/products/page").param("pageSize", "0"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/products/page").param("cursor", "invalido"))
+                .andExpect(status().isBadRequest());
+    }
+
+    /**
+     * Test para verificar que con el parámetro fields solo se serializan el UID y los campos pedidos,
+     * sin las listas de valoraciones y comentarios.
+     * @throws Exception si ocurre algún error durante la ejecución de la prueba.
+     */
+    @Test
+    void testGetAllProducts_WithFields() throws Exception {
+        // Arrange
+        Product product = new Product();
+        product.setUID("UID001");
+        product.setNombre("Producto A");
+        product.setPrecio(100.0);
+        product.setDescripcion("No se pide");
+        product.setRating(List.of(5));
+        product.setComentarios(List.of("No se pide"));
+        Set<String> fields = Set.of("nombre", "precio");
+        when(productCatalogService.getAllProducts(fields)).thenReturn(List.of(product));
+
+        // Act & Assert
+        mockMvc.perform(get("/api/products/all").param("fields", "nombre,precio"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].uid").value("UID001"))
+                .andExpect(jsonPath("$[0].nombre").value("Producto A"))
+                .andExpect(jsonPath("$[0].precio").value(100.0))
+                .andExpect(jsonPath("$[0].descripcion").doesNotExist())
+                .andExpect(jsonPath("$[0].rating").doesNotExist())
+                .andExpect(jsonPath("$[0].comentarios").doesNotExist());
+    }
+
+    /**
+     * Test para verificar que se rechaza una proyección con campos desconocidos o no proyectables.
+     * @throws Exception si ocurre algún error durante la ejecución de la prueba.
+     */
+    @Test
+    void testGetAllProducts_WithInvalidFields() throws Exception {
+        mockMvc.perform(get("/api/products/all").param("fields", "nombre,comentarios"))
+                .andExpect(status().isBadRequest());
+    }
+
+    /**
+     * Test para verificar que con el catálogo cargado la respuesta se serializa una sola vez por versión,
+     * se envía con ETag y que una petición con If-None-Match igual recibe 304 sin cuerpo.
+     * @throws Exception si ocurre algún error durante la ejecución de la prueba.
+     */
+    @Test
+    void testGetAllProducts_NotModified() throws Exception {
+        // Arrange
+        Product product = new Product();
+        product.setUID("UID001");
+        product.setNombre("Producto A");
+        when(productCatalogService.isLoaded()).thenReturn(true);
+        when(productCatalogService.getVersion()).thenReturn(7L);
+        when(productCatalogService.getAllProducts()).thenReturn(List.of(product));
+
+        // Act
+        String etag = mockMvc.perform(get("/api/products/all"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andExpect(jsonPath("$[0].uid").value("UID001"))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        // Assert
+        mockMvc.perform(get("/api/products/all").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+        verify(productCatalogService, times(1)).getAllProducts();
+    }
+
+    /**
+     * Prueba la negociación de formato: con {@code Accept: application/cbor} el catálogo y el resto de
+     * respuestas de producto se codifican en CBOR, con un ETag distinto al de la representación JSON.
+     * @throws Exception si hay un error durante la ejecución de la prueba.
+     */
+    @Test
+    void testGetAllProducts_Cbor() throws Exception {
+        // Arrange
+        Product product = new Product();
+        product.setUID("UID001");
+        product.setNombre("Producto A");
+        when(productCatalogService.isLoaded()).thenReturn(true);
+        when(productCatalogService.getVersion()).thenReturn(8L);
+        when(productCatalogService.getAllProducts()).thenReturn(List.of(product));
+        when(productSearchService.search("producto", 20)).thenReturn(List.of(new ProductSearchHit(product, 1.5)));
+
+        // Act
+        MvcResult cbor = mockMvc.perform(get("/api/products/all").accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andExpect(header().stringValues(HttpHeaders.VARY, hasItem(containsString(HttpHeaders.ACCEPT))))
+                .andReturn();
+        String jsonEtag = mockMvc.perform(get("/api/products/all"))
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        MvcResult search = mockMvc.perform(get("/api/products/search").param("q", "producto")
+                        .accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andReturn();
+
+        // Assert
+        ObjectMapper cborMapper = new CBORMapper();
+        JsonNode products = cborMapper.readTree(cbor.getResponse().getContentAsByteArray());
+        assertEquals("UID001", products.get(0).get("uid").asText());
+        assertNotEquals(jsonEtag, cbor.getResponse().getHeader(HttpHeaders.ETAG));
+        JsonNode hits = cborMapper.readTree(search.getResponse().getContentAsByteArray());
+        assertEquals("Producto A", hits.get(0).get("producto").get("nombre").asText());
+    }
+
+    /**
+     * Test para verificar que con Accept-Encoding se sirve la variante comprimida guardada en la caché,
+     * con su propio ETag, y que una petición con ese ETag en If-None-Match recibe 304.
+     * @throws Exception si ocurre algún error durante la ejecución de la prueba.
+     */
+    @Test
+    void testGetAllProducts_Gzip() throws Exception {
+        // Arrange
+        Product product = new Product();
+        product.setUID("UID001");
+        product.setNombre("Producto A");
+        product.setDescripcion("Caña de pesca telescópica de carbono. ".repeat(50));
+        when(productCatalogService.isLoaded()).thenReturn(true);
+        when(productCatalogService.getVersion()).thenReturn(9L);
+        when(productCatalogService.getAllProducts()).thenReturn(List.of(product));
+
+        // Act
+        MvcResult gzip = mockMvc.perform(get("/api/products/all").header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andExpect(header().stringValues(HttpHeaders.VARY, hasItem(containsString(HttpHeaders.ACCEPT_ENCODING))))
+                .andReturn();
+        String etag = gzip.getResponse().getHeader(HttpHeaders.ETAG);
+
+        // Assert
+        byte[] body;
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip.getResponse().getContentAsByteArray()))) {
+            body = in.readAllBytes();
+        }
+        assertEquals("UID001", new ObjectMapper().readTree(body).get(0).get("uid").asText());
+        mockMvc.perform(get("/api/products/all").header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                        .header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+        mockMvc.perform(get("/api/products/all"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                .andExpect(jsonPath("$[0].uid").value("UID001"));
+    }
+
+    /**
+     * Test para verificar que la búsqueda devuelve los resultados del índice en memoria
+     * y que rechaza consultas vacías.
+     * @throws Exception si ocurre algún error durante la ejecución de la prueba.
+     */
+    @Test
+    void testSearchProducts_Success() throws Exception {
+        // Arrange
+        Product product = new Product();
+        product.setUID("UID001");
+        product.setNombre("Carrete Shimano");
+        when(productCatalogService.isLoaded()).thenReturn(true);
+        when(productSearchService.search("carretes", 20)).thenReturn(List.of(new ProductSearchHit(product, 2.5)));
+
+        // Act & Assert
+        mockMvc.perform(get("/api/products/search").param("q", "carretes"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].producto.uid").value("UID001"))
+                .andExpect(jsonPath("$[0].puntuacion").value(2.5));
+        mockMvc.perform(get("/api/products/search").param("q", " "))
+                .andExpect(status().isBadRequest());
+    }
+
+    /**
+     * Test para verificar que el endpoint de autocompletado devuelve las sugerencias del índice
+     * y rechaza consultas vacías o límites fuera de rango.
+     * @throws Exception si ocurre algún error durante la ejecución de la prueba.
+     */
+    @Test
+    void testSuggestProducts_Success() throws Exception {
+        // Arrange
+        when(productCatalogService.isLoaded()).thenReturn(true);
+        when(productSuggestService.suggest("shim", 8)).thenReturn(List.of(
+                new ProductSuggestion("Shimano", ProductSuggestService.TIPO_MARCA, 7)));
+
+        // Act & Assert
+        mockMvc.perform(get("/api/products/suggest").param("q", "shim"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].texto").value("Shimano"))
+                .andExpect(jsonPath("$[0].tipo").value("marca"))
+                .andExpect(jsonPath("$[0].popularidad").value(7));
+        mockMvc.perform(get("/api/products/suggest").param("q", " "))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/products/suggest").param("q", "shim").param("limit", "50"))
+                .andExpect(status().isBadRequest());
+    }
+
+    /**
+     * Test para verificar que el endpoint de productos relacionados devuelve las recomendaciones
+     * ya calculadas y rechaza límites fuera de rango.
+     * @throws Exception si ocurre algún error durante la ejecución de la prueba.
+     */
+    @Test
+    void testGetRelatedProducts_Success() throws Exception {
+        // Arrange
+        Product product = new Product();
+        product.setUID("UID002");
+        product.setNombre("Sedal trenzado");
+        when(productRecommendationService.getRelated("UID001", 5)).thenReturn(List.of(new ProductRecommendation(product, 3)));
+
+        // Act & Assert
+        mockMvc.perform(get("/api/products/related").param("uid", "UID001"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].producto.uid").value("UID002"))
+                .andExpect(jsonPath("$[0].compradosJuntos").value(3));
+        mockMvc.perform(get("/api/products/related").param("uid", "UID001").param("limit", "0"))
+                .andExpect(status().isBadRequest());
+    }
+
+    /**
+     * Test para verificar que el endpoint de facetas pasa al servicio los valores de cada faceta
+     * y devuelve los productos y recuentos calculados.
+     * @throws Exception si ocurre algún error durante la ejecución de la prueba.
+     */
+    @Test
+    void testGetProductFacets_Success() throws Exception {
+        // Arrange
+        Product product = new Product();
+        product.setUID("UID001");
+        when(productCatalogService.isLoaded()).thenReturn(true);
+        when(productFacetService.query(argThat(filters -> List.of("Carretes", "Cañas").equals(filters.get("categoria"))
+                && filters.get("marca") == null), eq(0), eq(20)))
+                .thenReturn(new ProductFacetResult(List.of(product), 1, Map.of("marca", Map.of("Shimano", 1))));
+
+        // Act & Assert
+        mockMvc.perform(get("/api/products/facets").param("categoria", "Carretes", "Cañas"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.productos[0].uid").value("UID001"))
+                .andExpect(jsonPath("$.total").value(1))
+                .andExpect(jsonPath("$.facetas.marca.Shimano").value(1));
+    }
+
+    /**
+     * Prueba el endpoint {@code /sorted}: por defecto ordena por precio de menor a mayor,
+     * y rechaza criterios desconocidos con 400.
+     * @throws Exception si hay un error durante la ejecución de la prueba.
+     */
+    @Test
+    void testGetSortedProducts() throws Exception {
+        // Arrange
+        Product product = new Product();
+        product.setUID("UID001");
+        when(productCatalogService.isLoaded()).thenReturn(true);
+        when(productRankingService.query("precio", false, null, "50", 5)).thenReturn(List.of(product));
+        when(productRankingService.query(eq("nombre"), anyBoolean(), any(), any(), anyInt()))
+                .thenThrow(new IllegalArgumentException("Criterio de ordenación desconocido: nombre"));
+
+        // Act & Assert
+        mockMvc.perform(get("/api/products/sorted").param("by", "precio").param("max", "50").param("limit", "5"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].uid").value("UID001"));
+        mockMvc.perform(get("/api/products/sorted").param("by", "nombre"))
+                .andExpect(status().isBadRequest());
+    }
+
+    /**
+     * Prueba el endpoint {@code /sync}: devuelve los cambios desde el token recibido y rechaza tokens no válidos.
+     * @throws Exception si hay un error durante la ejecución de la prueba.
+     */
+    @Test
+    void testSyncProducts() throws Exception {
+        // Arrange
+        Product product = new Product();
+        product.setUID("UID001");
+        when(productCatalogService.isLoaded()).thenReturn(true);
+        when(productCatalogService.getChangesSince("2024-11-01T12:00:00Z"))
+                .thenReturn(new ProductSyncResult(List.of(product), List.of("UID002"), "2024-11-01T12:05:00Z", false));
+        when(productCatalogService.getChangesSince("ayer")).thenThrow(new IllegalArgumentException("Token no válido"));
+
+        // Act & Assert
+        mockMvc.perform(get("/api/products/sync").param("since", "2024-11-01T12:00:00Z"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.productos[0].uid").value("UID001"))
+                .andExpect(jsonPath("$.eliminados[0]").value("UID002"))
+                .andExpect(jsonPath("$.token").value("2024-11-01T12:05:00Z"))
+                .andExpect(jsonPath("$.completo").value(false));
+        mockMvc.perform(get("/api/products/sync").param("since", "ayer"))
+                .andExpect(status().isBadRequest());
+    }
+
+    /**
+     * Test para verificar que la exportación escribe un producto JSON por línea según los entrega
+     * la consulta en streaming de Firestore.
+     * @throws Exception si ocurre algún error durante la ejecución de la prueba.
+     */
+    @Test
+    void testExportProducts_Ndjson() throws Exception {
+        // Arrange
+        Product product1 = new Product();
+        product1.setUID("UID001");
+        Product product2 = new Product();
+        product2.setUID("UID002");
+        doAnswer(invocation -> {
+            FirestoreService.ProductConsumer consumer = invocation.getArgument(0);
+            consumer.accept(product1);
+            consumer.accept(product2);
+            return null;
+        }).when(firestoreService).streamAllProducts(any());
+
+        // Act
+        MvcResult result = mockMvc.perform(get("/api/products/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // Assert
+        String body = mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andReturn().getResponse().getContentAsString();
+        String[] lines = body.split("\n");
+        assertEquals(2, lines.length);
+        assertEquals("UID001", objectMapper.readValue(lines[0], Product.class).getUID());
+        assertEquals("UID002", objectMapper.readValue(lines[1], Product.class).getUID());
+    }
+
+    /**
+     * Test para verificar que la consulta por lotes devuelve los productos en el orden pedido,
+     * marcando los que no existen, y que rechaza UIDs vacíos.
+     * @throws Exception si ocurre algún error durante la ejecución de la prueba.
+     */
+    @Test
+    void testGetProductsByUIDs_Success() throws Exception {
+        // Arrange
+        Product product = new Product();
+        product.setUID("UID002");
+        List<String> uids = List.of("UID002", "UID404");
+        when(firestoreService.getProductsByUIDs(uids)).thenReturn(List.of(
+                new ProductLookup("UID002", true, product),
+                new ProductLookup("UID404", false, null)));
+
+        // Act & Assert
+        mockMvc.perform(post("/api/products/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(uids)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].uid").value("UID002"))
+                .andExpect(jsonPath("$[0].encontrado").value(true))
+                .andExpect(jsonPath("$[0].producto.uid").value("UID002"))
+                .andExpect(jsonPath("$[1].encontrado").value(false));
+        mockMvc.perform(post("/api/products/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[\"\"]"))
+                .andExpect(status().isBadRequest());
     }
 
 }
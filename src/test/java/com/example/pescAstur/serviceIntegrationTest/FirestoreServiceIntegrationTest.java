@@ -1,5 +1,6 @@
 package com.example.pescAstur.serviceIntegrationTest;
 import com.example.pescAstur.model.Product;
+import com.example.pescAstur.model.RatingSummary;
 import com.example.pescAstur.model.User; // Asegúrate de que la ruta sea correcta
 import com.example.pescAstur.service.FirestoreService; // Ajusta la ruta según tu estructura de paquetes
 import com.google.cloud.firestore.DocumentSnapshot;
@@ -308,16 +309,14 @@ public class FirestoreServiceIntegrationTest {
      * El flujo del test es el siguiente:
      * 1. Se utiliza un documento de prueba con un ID predefinido (documentId) de la colección "products".
      * 2. Se define una calificación (rating) para agregar al documento.
-     * 3. Se llama al método {@link FirestoreService#addRatingToRatings(String, int)} para agregar la calificación al campo "rating" del documento en Firestore.
+     * 3. Se llama al método {@link FirestoreService#addRatingToRatings(String, int)} para agregar la calificación al agregado "valoraciones" del documento en Firestore.
      * 4. Se verifica que el tiempo de actualización no sea nulo para confirmar que la operación de actualización fue exitosa.
      * 5. Se realiza una espera de 1 segundo (Thread.sleep) para garantizar que los cambios se hayan propagado en Firestore.
-     * 6. Se obtiene el documento actualizado desde Firestore para validar que la calificación ha sido agregada al campo "rating".
-     * 7. Se comprueba que el documento exista y que el campo "rating" sea una lista de calificaciones.
-     * 8. Se asegura que el campo "rating" contenga los valores correctos y refleja los cambios de la operación de actualización.
+     * 6. Se obtiene el documento actualizado desde Firestore para validar que la calificación ha sido agregada.
+     * 7. Se comprueba que el documento exista, que tenga el agregado "valoraciones" y que ya no tenga la lista "rating".
      * Pasos de verificación:
-     * - Se verifica que el campo "rating" no sea nulo y sea una lista.
-     * - Se realiza un cast del objeto a una lista de enteros (List<Integer>).
-     * - Se imprime el contenido de la lista de calificaciones para inspeccionar el resultado de la actualización.
+     * - Se verifica que el agregado no sea nulo y que cuente al menos una valoración de 5 estrellas.
+     * - Se imprime el agregado para inspeccionar el resultado de la actualización.
      * @throws ExecutionException si ocurre un error durante la ejecución de la actualización en Firestore.
      * @throws InterruptedException si el hilo es interrumpido mientras se espera la propagación de los cambios.
      */
@@ -337,15 +336,13 @@ public class FirestoreServiceIntegrationTest {
                 .document(documentId).get().get();
         // Verifica que el documento exista
         assertTrue(document.exists(), "El documento no existe");
-        // Obtén el array de calificaciones del documento
-        Object ratingsObject = document.get("rating");
-        // Verifica que el objeto no sea nulo y sea una lista
-        assertNotNull(ratingsObject, "Las calificaciones no pueden ser nulas");
-        assertTrue(ratingsObject instanceof List, "El campo 'rating' no es una lista");
-        // Cast seguro del objeto a List<Integer>
-        List<Integer> ratings = (List<Integer>) ratingsObject;
-        // Imprime el contenido del array de calificaciones para inspeccionar
-        System.out.println("Ratings after update: " + ratings);
+        // Obtén el agregado de valoraciones del documento
+        RatingSummary valoraciones = document.get("valoraciones", RatingSummary.class);
+        assertNotNull(valoraciones, "El agregado de valoraciones no puede ser nulo");
+        assertTrue(valoraciones.getRecuento() > 0, "El agregado no cuenta la valoración");
+        assertTrue(valoraciones.getHistograma().get(rating - 1) > 0, "El histograma no cuenta la valoración");
+        assertNull(document.get("rating"), "La lista de valoraciones debería haberse eliminado");
+        System.out.println("Ratings after update: " + valoraciones);
     }
 
     /**
@@ -0,0 +1,182 @@
+package com.example.pescAstur.serviceTest;
+
+import com.example.pescAstur.service.CatalogResponseCache;
+import com.example.pescAstur.service.CatalogResponseCache.CachedResponse;
+import com.example.pescAstur.service.ContentEncoding;
+import com.example.pescAstur.service.ProductCatalogChangedEvent;
+import com.example.pescAstur.service.ProductCatalogService;
+import com.example.pescAstur.service.WireFormat;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class CatalogResponseCacheTest {
+
+    private ProductCatalogService productCatalogService;
+    private CatalogResponseCache catalogResponseCache;
+    private final AtomicInteger serializations = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        productCatalogService = mock(ProductCatalogService.class);
+        catalogResponseCache = new CatalogResponseCache(new ObjectMapper(), productCatalogService);
+    }
+
+    private CachedResponse get(String key, Object body) throws Exception {
+        return catalogResponseCache.get(key, () -> {
+            serializations.incrementAndGet();
+            return body;
+        });
+    }
+
+    /**
+     * Verifica que una vista se serializa una vez por versión del catálogo y que su ETag
+     * solo cambia cuando cambia el contenido.
+     */
+    @Test
+    void testGet_CachesPerCatalogVersion() throws Exception {
+        when(productCatalogService.isLoaded()).thenReturn(true);
+        when(productCatalogService.getVersion()).thenReturn(1L);
+
+        CachedResponse first = get("all", List.of("a"));
+        CachedResponse second = get("all", List.of("a"));
+        assertSame(first, second);
+        assertEquals("[\"a\"]", new String(first.getBody()));
+        assertTrue(first.getEtag().startsWith("\"") && first.getEtag().endsWith("\""));
+        assertEquals(1, serializations.get());
+
+        when(productCatalogService.getVersion()).thenReturn(2L);
+        CachedResponse unchanged = get("all", List.of("a"));
+        CachedResponse changed = get("other", List.of("b"));
+        assertEquals(first.getEtag(), unchanged.getEtag());
+        assertNotEquals(first.getEtag(), changed.getEtag());
+        assertEquals(3, serializations.get());
+    }
+
+    /**
+     * Verifica que las respuestas no se guardan mientras el catálogo no está cargado
+     * y que un cambio del catálogo descarta las guardadas.
+     */
+    @Test
+    void testGet_NotCachedUntilLoadedAndClearedOnChange() throws Exception {
+        when(productCatalogService.isLoaded()).thenReturn(false);
+        get("all", List.of("a"));
+        get("all", List.of("a"));
+        assertEquals(2, serializations.get());
+
+        when(productCatalogService.isLoaded()).thenReturn(true);
+        get("all", List.of("a"));
+        catalogResponseCache.onCatalogChanged(new ProductCatalogChangedEvent(1, List.of()));
+        get("all", List.of("a"));
+        assertEquals(4, serializations.get());
+    }
+
+    /**
+     * Verifica que las peticiones simultáneas de una vista que no está en caché esperan a una única
+     * serialización en lugar de serializar cada una la suya.
+     */
+    @Test
+    void testGet_SingleFlight() throws Exception {
+        when(productCatalogService.isLoaded()).thenReturn(true);
+        when(productCatalogService.getVersion()).thenReturn(1L);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<CachedResponse> first = executor.submit(() -> catalogResponseCache.get("all", () -> {
+                serializations.incrementAndGet();
+                started.countDown();
+                release.await();
+                return List.of("a");
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            List<Future<CachedResponse>> others = List.of(
+                    executor.submit(() -> get("all", List.of("a"))),
+                    executor.submit(() -> get("all", List.of("a"))));
+            release.countDown();
+
+            CachedResponse response = first.get(5, TimeUnit.SECONDS);
+            for (Future<CachedResponse> other : others) {
+                assertSame(response, other.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, serializations.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Verifica que cada formato se guarda por separado y que la negociación respeta la cabecera Accept.
+     */
+    @Test
+    void testGet_PerWireFormat() throws Exception {
+        when(productCatalogService.isLoaded()).thenReturn(true);
+        when(productCatalogService.getVersion()).thenReturn(1L);
+
+        CachedResponse json = catalogResponseCache.get("all", WireFormat.JSON, () -> List.of("a"));
+        CachedResponse smile = catalogResponseCache.get("all", WireFormat.SMILE, () -> List.of("a"));
+        assertEquals(WireFormat.SMILE, smile.getFormat());
+        assertNotEquals(json.getEtag(), smile.getEtag());
+        assertEquals(List.of("a"), new SmileMapper().readValue(smile.getBody(), List.class));
+
+        assertEquals(WireFormat.JSON, WireFormat.negotiate(null));
+        assertEquals(WireFormat.JSON, WireFormat.negotiate("*/*"));
+        assertEquals(WireFormat.CBOR, WireFormat.negotiate("application/cbor, application/json;q=0.5"));
+        assertEquals(WireFormat.JSON, WireFormat.negotiate("application/cbor;q=0.1, application/json"));
+        assertEquals(WireFormat.SMILE, WireFormat.negotiate("application/x-jackson-smile"));
+        assertEquals(WireFormat.JSON, WireFormat.negotiate("no es un tipo"));
+    }
+
+    /**
+     * Verifica que las respuestas guardadas llevan sus variantes comprimidas calculadas de antemano,
+     * que cada una tiene su ETag y que la negociación respeta Accept-Encoding.
+     */
+    @Test
+    void testGet_CompressedVariants() throws Exception {
+        when(productCatalogService.isLoaded()).thenReturn(true);
+        when(productCatalogService.getVersion()).thenReturn(1L);
+        List<String> body = Collections.nCopies(200, "producto de pesca");
+
+        CachedResponse response = get("all", body);
+        byte[] gzip = response.getBody(ContentEncoding.GZIP);
+        assertNotNull(gzip);
+        assertTrue(gzip.length < response.getBody().length);
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+            assertArrayEquals(response.getBody(), in.readAllBytes());
+        }
+        assertNotEquals(response.getEtag(), response.getEtag(ContentEncoding.GZIP));
+        assertEquals(response.getEtag(), response.getEtag(ContentEncoding.IDENTITY));
+
+        assertEquals(ContentEncoding.IDENTITY, response.negotiate(null));
+        assertEquals(ContentEncoding.GZIP, response.negotiate("gzip, deflate"));
+        assertEquals(ContentEncoding.IDENTITY, response.negotiate("gzip;q=0, deflate"));
+        assertEquals(ContentEncoding.GZIP, response.negotiate("br;q=0.5, gzip"));
+        assertEquals(ContentEncoding.IDENTITY, response.negotiate("gzip;q=0.1, identity;q=1"));
+        assertEquals(ContentEncoding.IDENTITY, response.negotiate("gzip;q=0.5, br;q=0.5, *;q=0.8"));
+        assertEquals(ContentEncoding.GZIP, response.negotiate("gzip, identity"));
+        assertEquals(ContentEncoding.GZIP, response.negotiate("gzip;q=0.8, identity;q=0.5"));
+        if (ContentEncoding.BROTLI.isAvailable()) {
+            assertNotNull(response.getBody(ContentEncoding.BROTLI));
+            assertEquals(ContentEncoding.BROTLI, response.negotiate("gzip, deflate, br"));
+            assertEquals(ContentEncoding.BROTLI, response.negotiate("*"));
+        }
+
+        // Las respuestas pequeñas o que no se guardan no se comprimen
+        assertNull(get("small", List.of("a")).getBody(ContentEncoding.GZIP));
+        when(productCatalogService.isLoaded()).thenReturn(false);
+        assertNull(get("all", body).getBody(ContentEncoding.GZIP));
+    }
+}
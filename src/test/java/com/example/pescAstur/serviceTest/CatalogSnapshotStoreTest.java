@@ -0,0 +1,101 @@
+package com.example.pescAstur.serviceTest;
+
+import com.example.pescAstur.model.Product;
+import com.example.pescAstur.service.CatalogSnapshotStore;
+import com.example.pescAstur.service.ProductRatings;
+import com.google.cloud.Timestamp;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CatalogSnapshotStoreTest {
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Verifica que una instantánea guardada se vuelve a leer con todos los campos del producto,
+     * el agregado de valoraciones y la fecha de actualización de Firestore.
+     */
+    @Test
+    void testSaveAndLoad_RoundTrip() {
+        Product product = new Product();
+        product.setUID("UID1");
+        product.setNombre("Caña telescópica");
+        product.setMarca("Shimano");
+        product.setPrecio(59.9);
+        product.setDescuento(10);
+        product.setCantidadStock(7);
+        product.setComentarios(List.of("Muy buena", "Ligera"));
+        product.setValoraciones(ProductRatings.fromRatings(List.of(5, 4)));
+        Product empty = new Product();
+        empty.setUID("UID2");
+        Timestamp updateTime = Timestamp.ofTimeSecondsAndNanos(1730000000, 123000);
+        CatalogSnapshotStore store = new CatalogSnapshotStore(directory.resolve("catalog.snapshot"));
+
+        Timestamp readTime = Timestamp.ofTimeSecondsAndNanos(1730000100, 0);
+        store.save(List.of(new CatalogSnapshotStore.Entry(product, updateTime), new CatalogSnapshotStore.Entry(empty, null)),
+                readTime);
+        CatalogSnapshotStore.Snapshot snapshot = store.load();
+        List<CatalogSnapshotStore.Entry> loaded = snapshot.getEntries();
+
+        assertEquals(2, loaded.size());
+        assertEquals(product, loaded.get(0).getProduct());
+        assertEquals(updateTime, loaded.get(0).getUpdateTime());
+        assertEquals(empty, loaded.get(1).getProduct());
+        assertEquals(readTime, snapshot.getReadTime());
+    }
+
+    /**
+     * Verifica que un fichero inexistente o corrupto no impide arrancar: se ignora la instantánea.
+     */
+    @Test
+    void testLoad_MissingOrCorrupt() throws Exception {
+        Path file = directory.resolve("catalog.snapshot");
+        CatalogSnapshotStore store = new CatalogSnapshotStore(file);
+        assertNull(store.load());
+
+        Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13});
+        assertNull(store.load());
+        assertNull(new CatalogSnapshotStore((Path) null).load());
+    }
+
+    /**
+     * Verifica que un número de entradas o de elementos imposible (negativo o mayor que lo que queda del
+     * fichero) hace que se ignore la instantánea en lugar de reservar memoria para él.
+     */
+    @Test
+    void testLoad_ImpossibleCounts() throws Exception {
+        Path file = directory.resolve("catalog.snapshot");
+        CatalogSnapshotStore store = new CatalogSnapshotStore(file);
+        Product product = new Product();
+        product.setUID("UID1");
+        product.setComentarios(List.of("Muy buena"));
+        store.save(List.of(new CatalogSnapshotStore.Entry(product, null)), Timestamp.now());
+        byte[] valid = Files.readAllBytes(file);
+        // Cabecera: magic, versión, fecha de lectura (8 + 4) y número de entradas
+        int countOffset = 4 + 4 + 8 + 4;
+
+        for (int count : new int[]{Integer.MAX_VALUE, -5}) {
+            byte[] corrupt = valid.clone();
+            ByteBuffer.wrap(corrupt).putInt(countOffset, count);
+            Files.write(file, corrupt);
+            assertNull(store.load());
+        }
+
+        // Número de comentarios, justo antes del único comentario al final del fichero
+        int comentariosOffset = valid.length - (4 + "Muy buena".length()) - 4;
+        for (int count : new int[]{Integer.MAX_VALUE, -7}) {
+            byte[] corrupt = valid.clone();
+            ByteBuffer.wrap(corrupt).putInt(comentariosOffset, count);
+            Files.write(file, corrupt);
+            assertNull(store.load());
+        }
+        Files.write(file, valid);
+        assertEquals(1, store.load().getEntries().size());
+    }
+}
@@ -1,9 +1,19 @@
 package com.example.pescAstur.serviceTest;
 import com.example.pescAstur.model.Product;
+import com.example.pescAstur.model.ProductLookup;
+import com.example.pescAstur.model.ProductPage;
+import com.example.pescAstur.model.RatingSummary;
 import com.example.pescAstur.model.User;
 import com.example.pescAstur.service.FireStorageService;
 import com.example.pescAstur.service.FirestoreService;
+import com.example.pescAstur.service.ProductCatalogChangedEvent;
+import com.example.pescAstur.service.ProductChange;
+import com.example.pescAstur.service.ProductDocumentCodec;
+import com.example.pescAstur.service.StockUpdateResult;
+import com.example.pescAstur.service.UserDocumentCodec;
 import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.api.gax.rpc.ApiStreamObserver;
 import com.google.cloud.Timestamp;
 import com.google.cloud.firestore.*;
 import org.junit.jupiter.api.BeforeEach;
@@ -17,8 +27,11 @@ import org.springframework.web.multipart.MultipartFile;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -78,6 +91,17 @@ public class FirestoreServiceTest {
         user.setDNI("12345678X");
     }
 
+    /**
+     * Campos del documento de Firestore de un producto, incluida la lista antigua de valoraciones si la tiene.
+     */
+    private static Map<String, Object> documentData(Product product) {
+        Map<String, Object> data = ProductDocumentCodec.toData(product);
+        if (product.getRating() != null) {
+            data.put("rating", product.getRating());
+        }
+        return data;
+    }
+
     /**
      * Prueba el guardado exitoso de los detalles del usuario en Firestore.
      *
@@ -561,6 +585,33 @@ public class FirestoreServiceTest {
         assertNull(actualPhotoUrl);
     }
 
+    /**
+     * Prueba unitaria para el método {@link FirestoreService#getUserDetails(String)} que verifica
+     * que los campos del documento se leen con los mismos nombres con los que los escribe saveUserDetails.
+     * @throws Exception si ocurre una excepción durante la ejecución de la operación asíncrona
+     */
+    @Test
+    void testGetUserDetails_Success() throws Exception {
+        // Arrange
+        Map<String, Object> data = UserDocumentCodec.toData(user);
+        data.put("fechaNacimiento", Timestamp.of(user.getFechaNacimiento()));
+        data.put("fotoPerfil", "http://example.com/photo.jpg");
+        when(db.collection("users").document(userId)).thenReturn(mockDocRef);
+        when(mockDocRef.get()).thenReturn(mockFuture);
+        when(mockFuture.get()).thenReturn(mockDocument);
+        when(mockDocument.exists()).thenReturn(true);
+        when(mockDocument.getData()).thenReturn(data);
+        // Act
+        User actual = firestoreService.getUserDetails(userId);
+        // Assert
+        assertEquals(user.getNombre(), actual.getNombre());
+        assertEquals(user.getUserName(), actual.getUserName());
+        assertEquals(user.getEstadoCuenta(), actual.getEstadoCuenta());
+        assertEquals(user.getDNI(), actual.getDNI());
+        assertEquals(user.getFechaNacimiento(), actual.getFechaNacimiento());
+        assertEquals(user.getFechaRegistro(), actual.getFechaRegistro());
+    }
+
     /**
      * Prueba unitaria para el método {@link FirestoreService#getAllProducts()} que verifica
      * que se obtienen correctamente todos los productos de la colección "products" en Firestore.
@@ -582,11 +633,11 @@ public class FirestoreServiceTest {
         List<QueryDocumentSnapshot> mockDocuments = new ArrayList<>();
         QueryDocumentSnapshot mockDoc1 = mock(QueryDocumentSnapshot.class);
         QueryDocumentSnapshot mockDoc2 = mock(QueryDocumentSnapshot.class);
-        Product product1 = new Product(100,"Prueba1",10.50,"descripcion1",0.0,"grande","01/11/2024","foto1","marca1","producto1","peso1",20.80,puntuacion,comentarios,"UID1",1);
-        Product product2 = new Product(200,"Prueba2",11.50,"descripcion2",0.0,"grande","01/11/2024","foto1","marca1","producto2","peso1",20.80,puntuacion,comentarios,"UID2",1);
+        Product product1 = new Product(100,"Prueba1",10.50,"descripcion1",0.0,"grande","01/11/2024","foto1","marca1","producto1","peso1",20.80,puntuacion,null,comentarios,"UID1",1,0);
+        Product product2 = new Product(200,"Prueba2",11.50,"descripcion2",0.0,"grande","01/11/2024","foto1","marca1","producto2","peso1",20.80,puntuacion,null,comentarios,"UID2",1,0);
 
-        when(mockDoc1.toObject(Product.class)).thenReturn(product1);
-        when(mockDoc2.toObject(Product.class)).thenReturn(product2);
+        when(mockDoc1.getData()).thenReturn(documentData(product1));
+        when(mockDoc2.getData()).thenReturn(documentData(product2));
         when(mockDoc1.getId()).thenReturn("UID1");
         when(mockDoc2.getId()).thenReturn("UID2");
         mockDocuments.add(mockDoc1);
@@ -606,6 +657,8 @@ public class FirestoreServiceTest {
         assertEquals("UID2", actualProducts.get(1).getUID());
         assertEquals("producto1", actualProducts.get(0).getNombre());
         assertEquals("producto2", actualProducts.get(1).getNombre());
+        assertNull(actualProducts.get(0).getRating());
+        assertEquals(1, actualProducts.get(0).getValoraciones().getRecuento());
     }
 
     /**
@@ -655,8 +708,9 @@ public class FirestoreServiceTest {
     }
 
     /**
-     * Testea el método addRatingToRatings para asegurarse de que se agrega correctamente una
-     * calificación a los ratings del documento. Se espera que el método retorne el tiempo de actualización.
+     * Testea el método addRatingToRatings para asegurarse de que la calificación se acumula en el agregado
+     * de valoraciones (partiendo de la lista antigua del documento) y que la lista se elimina, leyendo y
+     * escribiendo el documento dentro de una transacción. Se espera que el método retorne la fecha de confirmación.
      * @throws Exception si ocurre algún error durante la ejecución
      */
     @Test
@@ -664,24 +718,74 @@ public class FirestoreServiceTest {
         // Arrange
         String documentId = "testDocumentId";
         int rating = 5;
-        String expectedUpdateTime = "2024-11-01T12:00:00Z";
-        // Mock de DocumentReference y WriteResult
         DocumentReference mockDocRef = mock(DocumentReference.class);
-        WriteResult mockWriteResult = mock(WriteResult.class);
-        ApiFuture<WriteResult> mockFuture = mock(ApiFuture.class);
-        // Configura el mock para el comportamiento esperado
+        DocumentSnapshot mockDocument = mock(DocumentSnapshot.class);
+        Transaction transaction = mock(Transaction.class);
+        Product stored = new Product();
+        stored.setRating(new ArrayList<>(List.of(4, 3)));
         when(db.collection("products").document(documentId)).thenReturn(mockDocRef);
-        when(mockDocRef.update("rating", FieldValue.arrayUnion(rating))).thenReturn(mockFuture);
-        when(mockFuture.get()).thenReturn(mockWriteResult);
-        when(mockWriteResult.getUpdateTime()).thenReturn(Timestamp.parseTimestamp(expectedUpdateTime));
+        mockTransaction(transaction);
+        when(transaction.get(mockDocRef)).thenReturn(ApiFutures.immediateFuture(mockDocument));
+        when(mockDocument.exists()).thenReturn(true);
+        when(mockDocument.getId()).thenReturn(documentId);
+        when(mockDocument.getData()).thenReturn(documentData(stored));
+        ArgumentCaptor<Map<String, Object>> updates = ArgumentCaptor.forClass(Map.class);
         // Act
         String actualUpdateTime = firestoreService.addRatingToRatings(documentId, rating);
         // Assert
-        assertEquals(expectedUpdateTime, actualUpdateTime);
+        assertNotNull(Timestamp.parseTimestamp(actualUpdateTime));
+        verify(transaction).update(eq(mockDocRef), updates.capture());
+        RatingSummary summary = (RatingSummary) updates.getValue().get("valoraciones");
+        assertEquals(3, summary.getRecuento());
+        assertEquals(12, summary.getSuma());
+        assertEquals(4.0, summary.getMedia());
+        assertEquals(List.of(0L, 0L, 1L, 1L, 1L), summary.getHistograma());
+        assertEquals(FieldValue.delete(), updates.getValue().get("rating"));
+        assertThrows(IllegalArgumentException.class, () -> firestoreService.addRatingToRatings(documentId, 6));
+    }
+
+    /**
+     * Testea que addRatingToRatings rechaza con IllegalArgumentException la valoración de un producto
+     * que no existe, sin escribir nada.
+     * @throws Exception si ocurre algún error durante la ejecución
+     */
+    @Test
+    void testAddRatingToRatings_MissingProduct() throws Exception {
+        // Arrange
+        String documentId = "missingId";
+        DocumentReference mockDocRef = mock(DocumentReference.class);
+        DocumentSnapshot mockDocument = mock(DocumentSnapshot.class);
+        Transaction transaction = mock(Transaction.class);
+        when(db.collection("products").document(documentId)).thenReturn(mockDocRef);
+        when(db.runTransaction(any(Transaction.Function.class))).thenAnswer(invocation -> {
+            Transaction.Function<?> function = invocation.getArgument(0);
+            try {
+                return ApiFutures.immediateFuture(function.updateCallback(transaction));
+            } catch (Exception e) {
+                return ApiFutures.immediateFailedFuture(e);
+            }
+        });
+        when(transaction.get(mockDocRef)).thenReturn(ApiFutures.immediateFuture(mockDocument));
+        when(mockDocument.exists()).thenReturn(false);
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class, () -> firestoreService.addRatingToRatings(documentId, 4));
+        verify(transaction, never()).update(any(DocumentReference.class), anyMap());
+    }
+
+    /**
+     * Simula la ejecución de {@link Firestore#runTransaction} invocando la función con la transacción dada.
+     */
+    private void mockTransaction(Transaction transaction) {
+        when(db.runTransaction(any(Transaction.Function.class))).thenAnswer(invocation -> {
+            Transaction.Function<?> function = invocation.getArgument(0);
+            return ApiFutures.immediateFuture(function.updateCallback(transaction));
+        });
     }
+
     /**
      * Testea el método updateProductStocks para asegurarse de que actualiza correctamente
-     * los stocks de los productos si hay suficiente stock disponible.
+     * los stocks de los productos si hay suficiente stock disponible, leyendo todos los documentos
+     * con un único getAll dentro de la transacción.
      * @throws ExecutionException si ocurre un error durante la ejecución
      * @throws InterruptedException si la operación es interrumpida
      */
@@ -706,36 +810,61 @@ public class FirestoreServiceTest {
         DocumentReference mockDocRef2 = mock(DocumentReference.class);
         DocumentSnapshot mockDocument1 = mock(DocumentSnapshot.class);
         DocumentSnapshot mockDocument2 = mock(DocumentSnapshot.class);
-        ApiFuture<DocumentSnapshot> mockFuture1 = mock(ApiFuture.class);
-        ApiFuture<DocumentSnapshot> mockFuture2 = mock(ApiFuture.class);
-        ApiFuture<WriteResult> mockWriteFuture1 = mock(ApiFuture.class);
-        ApiFuture<WriteResult> mockWriteFuture2 = mock(ApiFuture.class);
-        WriteResult mockWriteResult = mock(WriteResult.class);
+        Transaction transaction = mock(Transaction.class);
         // Configuración de mocks
         when(db.collection("products").document("UID1")).thenReturn(mockDocRef1);
         when(db.collection("products").document("UID2")).thenReturn(mockDocRef2);
-        when(mockDocRef1.get()).thenReturn(mockFuture1);
-        when(mockFuture1.get()).thenReturn(mockDocument1);
+        mockTransaction(transaction);
+        when(transaction.getAll(mockDocRef1, mockDocRef2))
+                .thenReturn(ApiFutures.immediateFuture(List.of(mockDocument1, mockDocument2)));
         when(mockDocument1.exists()).thenReturn(true);
         when(mockDocument1.getLong("cantidadStock")).thenReturn(10L); // Stock actual de 10
-        when(mockDocRef2.get()).thenReturn(mockFuture2);
-        when(mockFuture2.get()).thenReturn(mockDocument2);
         when(mockDocument2.exists()).thenReturn(true);
         when(mockDocument2.getLong("cantidadStock")).thenReturn(15L); // Stock actual de 15
-        // Simulando que la actualización se realiza correctamente
-        when(mockDocRef1.update("cantidadStock", 5)).thenReturn(mockWriteFuture1);
-        when(mockWriteFuture1.get()).thenReturn(mockWriteResult);
-        when(mockDocRef2.update("cantidadStock", 5)).thenReturn(mockWriteFuture2);
-        when(mockWriteFuture2.get()).thenReturn(mockWriteResult);
         // Act
         String result = firestoreService.updateProductStocks(products);
         // Assert
         assertEquals("Pedido procesado y stock actualizado correctamente para todos los productos", result);
+        verify(transaction).update(mockDocRef1, "cantidadStock", 5L);
+        verify(transaction).update(mockDocRef2, "cantidadStock", 5L);
+        verify(mockDocRef1, never()).get();
+        verify(mockDocRef2, never()).get();
+    }
+
+    /**
+     * Testea el método updateProductStocks para asegurarse de que las líneas repetidas de un mismo
+     * producto se suman y se descuentan con una sola escritura.
+     * @throws ExecutionException si ocurre un error durante la ejecución
+     * @throws InterruptedException si la operación es interrumpida
+     */
+    @Test
+    void testUpdateProductStocks_MergesRepeatedProducts() throws ExecutionException, InterruptedException {
+        // Arrange
+        Product line1 = new Product();
+        line1.setUID("UID1");
+        line1.setCantidad(3);
+        Product line2 = new Product();
+        line2.setUID("UID1");
+        line2.setCantidad(4);
+        DocumentReference mockDocRef = mock(DocumentReference.class);
+        DocumentSnapshot mockDocument = mock(DocumentSnapshot.class);
+        Transaction transaction = mock(Transaction.class);
+        when(db.collection("products").document("UID1")).thenReturn(mockDocRef);
+        mockTransaction(transaction);
+        when(transaction.getAll(mockDocRef)).thenReturn(ApiFutures.immediateFuture(List.of(mockDocument)));
+        when(mockDocument.exists()).thenReturn(true);
+        when(mockDocument.getLong("cantidadStock")).thenReturn(10L);
+        // Act
+        String result = firestoreService.updateProductStocks(List.of(line1, line2));
+        // Assert
+        assertEquals("Pedido procesado y stock actualizado correctamente para todos los productos", result);
+        verify(transaction, times(1)).update(mockDocRef, "cantidadStock", 3L);
     }
 
     /**
      * Testea el método updateProductStocks para asegurarse de que maneja correctamente
-     * el caso en el que un producto no se encuentra en la base de datos.
+     * el caso en el que un producto no se encuentra en la base de datos, sin escribir nada,
+     * y de que los siguientes pedidos con ese UID se rechazan sin abrir otra transacción.
      * @throws ExecutionException si ocurre un error durante la ejecución
      * @throws InterruptedException si la operación es interrumpida
      */
@@ -749,48 +878,626 @@ public class FirestoreServiceTest {
         products.add(product);
         DocumentReference mockDocRef = mock(DocumentReference.class);
         DocumentSnapshot mockDocument = mock(DocumentSnapshot.class);
-        ApiFuture<DocumentSnapshot> mockFuture = mock(ApiFuture.class);
+        Transaction transaction = mock(Transaction.class);
         // Configuración de mocks
         when(db.collection("products").document("UID1")).thenReturn(mockDocRef);
-        when(mockDocRef.get()).thenReturn(mockFuture);
-        when(mockFuture.get()).thenReturn(mockDocument);
+        mockTransaction(transaction);
+        when(transaction.getAll(mockDocRef)).thenReturn(ApiFutures.immediateFuture(List.of(mockDocument)));
         when(mockDocument.exists()).thenReturn(false); // Producto no encontrado
         // Act
         String result = firestoreService.updateProductStocks(products);
+        String cached = firestoreService.updateProductStocks(products);
         // Assert
         assertEquals("Error: Producto con ID UID1 no encontrado en la base de datos", result);
+        assertEquals(result, cached);
+        verify(transaction, never()).update(any(DocumentReference.class), anyString(), any());
+        verify(db, times(1)).runTransaction(any(Transaction.Function.class));
     }
 
     /**
      * Testea el método updateProductStocks para asegurarse de que maneja correctamente
-     * el caso en el que el stock es insuficiente.
+     * el caso en el que el stock es insuficiente y de que, en ese caso, no se descuenta
+     * el stock de ningún producto del pedido.
      * @throws ExecutionException si ocurre un error durante la ejecución
      * @throws InterruptedException si la operación es interrumpida
      */
     @Test
     void testUpdateProductStocks_InsufficientStock() throws ExecutionException, InterruptedException {
+        // Arrange
+        Product product1 = new Product();
+        product1.setUID("UID1");
+        product1.setCantidad(5); // Solicita 5 de un stock de 10
+        Product product2 = new Product();
+        product2.setUID("UID2");
+        product2.setCantidad(15); // Solicita 15
+        product2.setCantidadStock(10); // Stock actual de 10
+        List<Product> products = new ArrayList<>();
+        products.add(product1);
+        products.add(product2);
+        DocumentReference mockDocRef1 = mock(DocumentReference.class);
+        DocumentReference mockDocRef2 = mock(DocumentReference.class);
+        DocumentSnapshot mockDocument1 = mock(DocumentSnapshot.class);
+        DocumentSnapshot mockDocument2 = mock(DocumentSnapshot.class);
+        Transaction transaction = mock(Transaction.class);
+        // Configuración de mocks
+        when(db.collection("products").document("UID1")).thenReturn(mockDocRef1);
+        when(db.collection("products").document("UID2")).thenReturn(mockDocRef2);
+        mockTransaction(transaction);
+        when(transaction.getAll(mockDocRef1, mockDocRef2))
+                .thenReturn(ApiFutures.immediateFuture(List.of(mockDocument1, mockDocument2)));
+        when(mockDocument1.exists()).thenReturn(true);
+        when(mockDocument1.getLong("cantidadStock")).thenReturn(10L);
+        when(mockDocument2.exists()).thenReturn(true); // Producto encontrado
+        when(mockDocument2.getLong("cantidadStock")).thenReturn(10L); // Stock actual de 10
+        // Act
+        String result = firestoreService.updateProductStocks(products);
+        // Assert
+        assertEquals("Error: Stock insuficiente para el producto con ID UID2", result);
+        verify(transaction, never()).update(any(DocumentReference.class), anyString(), any());
+    }
+
+    /**
+     * Testea que el stock apartado por reservas pendientes no está disponible para los pedidos directos.
+     * @throws ExecutionException si ocurre un error durante la ejecución
+     * @throws InterruptedException si la operación es interrumpida
+     */
+    @Test
+    void testUpdateProductStocks_ReservedStockNotAvailable() throws ExecutionException, InterruptedException {
         // Arrange
         Product product = new Product();
         product.setUID("UID1");
-        product.setCantidad(15); // Solicita 15
-        product.setCantidadStock(10); // Stock actual de 10
-        List<Product> products = new ArrayList<>();
-        products.add(product);
+        product.setCantidad(5); // Solicita 5 de un stock de 10 con 8 reservados
         DocumentReference mockDocRef = mock(DocumentReference.class);
         DocumentSnapshot mockDocument = mock(DocumentSnapshot.class);
-        ApiFuture<DocumentSnapshot> mockFuture = mock(ApiFuture.class);
-        // Configuración de mocks
+        Transaction transaction = mock(Transaction.class);
         when(db.collection("products").document("UID1")).thenReturn(mockDocRef);
-        when(mockDocRef.get()).thenReturn(mockFuture);
-        when(mockFuture.get()).thenReturn(mockDocument);
-        when(mockDocument.exists()).thenReturn(true); // Producto encontrado
-        when(mockDocument.getLong("cantidadStock")).thenReturn(10L); // Stock actual de 10
+        mockTransaction(transaction);
+        when(transaction.getAll(mockDocRef)).thenReturn(ApiFutures.immediateFuture(List.of(mockDocument)));
+        when(mockDocument.exists()).thenReturn(true);
+        when(mockDocument.getLong("cantidadStock")).thenReturn(10L);
+        firestoreService.setReservedStock(UID -> "UID1".equals(UID) ? 8 : 0);
         // Act
-        String result = firestoreService.updateProductStocks(products);
+        String result = firestoreService.updateProductStocks(List.of(product));
         // Assert
         assertEquals("Error: Stock insuficiente para el producto con ID UID1", result);
+        verify(transaction, never()).update(any(DocumentReference.class), anyString(), any());
     }
 
-}
+    /**
+     * Testea que, si el catálogo ha informado del stock y la fecha de actualización de los productos,
+     * updateProductStocks descuenta el stock con un único lote de incrementos condicionados, sin leer
+     * los documentos ni abrir una transacción, y que el siguiente pedido parte de la versión escrita.
+     * @throws ExecutionException si ocurre un error durante la ejecución
+     * @throws InterruptedException si la operación es interrumpida
+     */
+    @Test
+    void testUpdateProductStocks_FastPathWithoutReads() throws ExecutionException, InterruptedException {
+        // Arrange
+        Timestamp catalogTime = Timestamp.parseTimestamp("2024-11-01T11:00:00Z");
+        Timestamp writeTime = Timestamp.parseTimestamp("2024-11-01T11:00:05Z");
+        Product stored = new Product();
+        stored.setUID("UID1");
+        stored.setCantidadStock(10);
+        firestoreService.onCatalogChanged(new ProductCatalogChangedEvent(1,
+                List.of(new ProductChange(null, stored, catalogTime))));
+        Product line = new Product();
+        line.setUID("UID1");
+        line.setCantidad(4);
+        DocumentReference mockDocRef = mock(DocumentReference.class);
+        WriteBatch batch = mock(WriteBatch.class);
+        WriteResult writeResult = mock(WriteResult.class);
+        when(db.collection("products").document("UID1")).thenReturn(mockDocRef);
+        when(db.batch()).thenReturn(batch);
+        when(batch.commit()).thenReturn(ApiFutures.immediateFuture(List.of(writeResult)));
+        when(writeResult.getUpdateTime()).thenReturn(writeTime);
+        // Act
+        String first = firestoreService.updateProductStocks(List.of(line));
+        String second = firestoreService.updateProductStocks(List.of(line));
+        // Assert
+        assertEquals("Pedido procesado y stock actualizado correctamente para todos los productos", first);
+        assertEquals(first, second);
+        verify(batch).update(eq(mockDocRef), eq(Precondition.updatedAt(catalogTime)), eq("cantidadStock"), any());
+        verify(batch).update(eq(mockDocRef), eq(Precondition.updatedAt(writeTime)), eq("cantidadStock"), any());
+        verify(db, never()).runTransaction(any(Transaction.Function.class));
+        verify(mockDocRef, never()).get();
+        assertEquals(2, firestoreService.getStockUpdateStats().getViaRapida());
+        assertEquals(1.0, firestoreService.getStockUpdateStats().getIdasYVueltasPorLinea());
+        assertEquals(1.0, firestoreService.getStockUpdateStats().getIdasYVueltasAhorradasPorLinea());
+    }
 
+    /**
+     * Testea que, si otro proceso ha modificado un producto desde la versión conocida, el lote condicionado
+     * se rechaza y el pedido se procesa con la transacción completa.
+     * @throws ExecutionException si ocurre un error durante la ejecución
+     * @throws InterruptedException si la operación es interrumpida
+     */
+    @Test
+    void testUpdateProductStocks_FallsBackToTransactionOnConflict() throws ExecutionException, InterruptedException {
+        // Arrange
+        Timestamp catalogTime = Timestamp.parseTimestamp("2024-11-01T11:00:00Z");
+        Product stored = new Product();
+        stored.setUID("UID1");
+        stored.setCantidadStock(10);
+        firestoreService.onCatalogChanged(new ProductCatalogChangedEvent(1,
+                List.of(new ProductChange(null, stored, catalogTime))));
+        Product line = new Product();
+        line.setUID("UID1");
+        line.setCantidad(4);
+        DocumentReference mockDocRef = mock(DocumentReference.class);
+        DocumentSnapshot mockDocument = mock(DocumentSnapshot.class);
+        WriteBatch batch = mock(WriteBatch.class);
+        Transaction transaction = mock(Transaction.class);
+        when(db.collection("products").document("UID1")).thenReturn(mockDocRef);
+        when(db.batch()).thenReturn(batch);
+        when(batch.commit()).thenReturn(ApiFutures.immediateFailedFuture(FirestoreException.forServerRejection(
+                io.grpc.Status.FAILED_PRECONDITION, "El documento ha cambiado")));
+        mockTransaction(transaction);
+        when(transaction.getAll(mockDocRef)).thenReturn(ApiFutures.immediateFuture(List.of(mockDocument)));
+        when(mockDocument.exists()).thenReturn(true);
+        when(mockDocument.getLong("cantidadStock")).thenReturn(7L); // Otro pedido ya ha descontado 3
+        // Act
+        String result = firestoreService.updateProductStocks(List.of(line));
+        // Assert
+        assertEquals("Pedido procesado y stock actualizado correctamente para todos los productos", result);
+        verify(transaction).update(mockDocRef, "cantidadStock", 3L);
+        assertEquals(1, firestoreService.getStockUpdateStats().getConflictos());
+        assertEquals(1, firestoreService.getStockUpdateStats().getTransacciones());
+    }
+
+    /**
+     * Testea que un grupo de pedidos se comprueba en orden contra el stock que dejan los anteriores,
+     * que cada pedido recibe su propio resultado y que el producto se escribe una sola vez con el descuento neto.
+     * @throws ExecutionException si ocurre un error durante la ejecución
+     * @throws InterruptedException si la operación es interrumpida
+     */
+    @Test
+    void testUpdateProductStocksGroup_NetsDecrements() throws ExecutionException, InterruptedException {
+        // Arrange
+        DocumentReference mockDocRef = mock(DocumentReference.class);
+        DocumentSnapshot mockDocument = mock(DocumentSnapshot.class);
+        Transaction transaction = mock(Transaction.class);
+        when(db.collection("products").document("UID1")).thenReturn(mockDocRef);
+        mockTransaction(transaction);
+        when(transaction.getAll(mockDocRef)).thenReturn(ApiFutures.immediateFuture(List.of(mockDocument)));
+        when(mockDocument.exists()).thenReturn(true);
+        when(mockDocument.getLong("cantidadStock")).thenReturn(10L);
+        Product six = new Product();
+        six.setUID("UID1");
+        six.setCantidad(6);
+        Product three = new Product();
+        three.setUID("UID1");
+        three.setCantidad(3);
+        // Act
+        List<String> results = firestoreService.updateProductStocksGroup(List.of(List.of(six), List.of(six), List.of(three)))
+                .stream().map(StockUpdateResult::getMensaje).toList();
+        // Assert
+        assertEquals(List.of("Pedido procesado y stock actualizado correctamente para todos los productos",
+                "Error: Stock insuficiente para el producto con ID UID1",
+                "Pedido procesado y stock actualizado correctamente para todos los productos"), results);
+        verify(transaction, times(1)).update(mockDocRef, "cantidadStock", 1L);
+        verify(db, times(1)).runTransaction(any(Transaction.Function.class));
+    }
+    /**
+     * Testea que un fallo de Firestore al descontar el stock se marca como reintentable y no como rechazo.
+     * @throws ExecutionException si ocurre un error durante la ejecución
+     * @throws InterruptedException si la operación es interrumpida
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    void testUpdateProductStocksGroup_TransientFailure() throws ExecutionException, InterruptedException {
+        // Arrange
+        when(db.collection("products").document("UID1")).thenReturn(mock(DocumentReference.class));
+        when(db.runTransaction(any(Transaction.Function.class)))
+                .thenReturn(ApiFutures.immediateFailedFuture(new IllegalStateException("Firestore no disponible")));
+        Product line = new Product();
+        line.setUID("UID1");
+        line.setCantidad(1);
+        // Act
+        StockUpdateResult result = firestoreService.updateProductStocksGroup(List.of(List.of(line))).get(0);
+        // Assert
+        assertFalse(result.isAplicado());
+        assertTrue(result.isReintentable());
+        assertTrue(result.getMensaje().startsWith("Error al procesar el pedido"));
+    }
 
+    /**
+     * Testea que un UID que no es un ID de documento válido solo rechaza su propio pedido
+     * y que el resto del grupo se aplica.
+     * @throws ExecutionException si ocurre un error durante la ejecución
+     * @throws InterruptedException si la operación es interrumpida
+     */
+    @Test
+    void testUpdateProductStocksGroup_InvalidUID() throws ExecutionException, InterruptedException {
+        // Arrange
+        DocumentReference mockDocRef = mock(DocumentReference.class);
+        DocumentSnapshot mockDocument = mock(DocumentSnapshot.class);
+        Transaction transaction = mock(Transaction.class);
+        when(db.collection("products").document("UID1")).thenReturn(mockDocRef);
+        mockTransaction(transaction);
+        when(transaction.getAll(mockDocRef)).thenReturn(ApiFutures.immediateFuture(List.of(mockDocument)));
+        when(mockDocument.exists()).thenReturn(true);
+        when(mockDocument.getLong("cantidadStock")).thenReturn(10L);
+        Product valid = new Product();
+        valid.setUID("UID1");
+        valid.setCantidad(2);
+        Product withoutUID = new Product();
+        withoutUID.setCantidad(1);
+        Product withSlash = new Product();
+        withSlash.setUID("UID1/otro");
+        withSlash.setCantidad(1);
+        // Act
+        List<StockUpdateResult> results = firestoreService.updateProductStocksGroup(
+                List.of(List.of(withoutUID), List.of(valid), List.of(withSlash)));
+        // Assert
+        assertEquals(List.of(StockUpdateResult.rechazado("Error: El ID de producto null no es válido"),
+                StockUpdateResult.aplicado("Pedido procesado y stock actualizado correctamente para todos los productos"),
+                StockUpdateResult.rechazado("Error: El ID de producto UID1/otro no es válido")), results);
+        verify(transaction).update(mockDocRef, "cantidadStock", 8L);
+    }
+
+
+    /**
+     * Testea que en un producto con el stock fragmentado el pedido solo lee el documento del producto,
+     * descuenta de los fragmentos necesarios y no escribe el documento del producto.
+     * @throws ExecutionException si ocurre un error durante la ejecución
+     * @throws InterruptedException si la operación es interrumpida
+     */
+    @Test
+    void testUpdateProductStocks_ShardedStock() throws ExecutionException, InterruptedException {
+        // Arrange
+        Product line = new Product();
+        line.setUID("UID1");
+        line.setCantidad(5);
+        DocumentReference mockDocRef = mock(DocumentReference.class);
+        DocumentSnapshot mockDocument = mock(DocumentSnapshot.class);
+        CollectionReference shardCollection = mock(CollectionReference.class);
+        DocumentReference shard0 = mock(DocumentReference.class);
+        DocumentReference shard1 = mock(DocumentReference.class);
+        DocumentSnapshot shardDoc0 = mock(DocumentSnapshot.class);
+        DocumentSnapshot shardDoc1 = mock(DocumentSnapshot.class);
+        Transaction transaction = mock(Transaction.class);
+        when(db.collection("products").document("UID1")).thenReturn(mockDocRef);
+        when(mockDocRef.collection("stockShards")).thenReturn(shardCollection);
+        when(shardCollection.document("0")).thenReturn(shard0);
+        when(shardCollection.document("1")).thenReturn(shard1);
+        mockTransaction(transaction);
+        when(transaction.getAll(mockDocRef)).thenReturn(ApiFutures.immediateFuture(List.of(mockDocument)));
+        when(mockDocument.exists()).thenReturn(true);
+        when(mockDocument.contains("fragmentosStock")).thenReturn(true);
+        when(mockDocument.getLong("fragmentosStock")).thenReturn(2L);
+        // Cada fragmento tiene 3 unidades: ninguno basta por sí solo. El fragmento inicial es aleatorio.
+        lenient().when(transaction.get(shard0)).thenReturn(ApiFutures.immediateFuture(shardDoc0));
+        lenient().when(transaction.get(shard1)).thenReturn(ApiFutures.immediateFuture(shardDoc1));
+        lenient().when(transaction.getAll(shard0)).thenReturn(ApiFutures.immediateFuture(List.of(shardDoc0)));
+        lenient().when(transaction.getAll(shard1)).thenReturn(ApiFutures.immediateFuture(List.of(shardDoc1)));
+        when(shardDoc0.exists()).thenReturn(true);
+        when(shardDoc0.getLong("cantidadStock")).thenReturn(3L);
+        when(shardDoc1.exists()).thenReturn(true);
+        when(shardDoc1.getLong("cantidadStock")).thenReturn(3L);
+        // Act
+        String result = firestoreService.updateProductStocks(List.of(line));
+        // Assert
+        assertEquals("Pedido procesado y stock actualizado correctamente para todos los productos", result);
+        ArgumentCaptor<Object> remaining = ArgumentCaptor.forClass(Object.class);
+        verify(transaction).update(eq(shard0), eq("cantidadStock"), remaining.capture());
+        verify(transaction).update(eq(shard1), eq("cantidadStock"), remaining.capture());
+        assertEquals(1L, (long) remaining.getAllValues().get(0) + (long) remaining.getAllValues().get(1));
+        verify(transaction, never()).update(eq(mockDocRef), anyString(), any());
+    }
+
+    /**
+     * Testea que el stock de un producto fragmentado es la suma real de sus fragmentos aunque alguno sea negativo:
+     * un pedido que solo cabe si se ignora el fragmento negativo se rechaza, y uno que cabe reparte de nuevo
+     * el stock que queda para que ningún fragmento quede en negativo.
+     * @throws ExecutionException si ocurre un error durante la ejecución
+     * @throws InterruptedException si la operación es interrumpida
+     */
+    @Test
+    void testUpdateProductStocks_NegativeShard() throws ExecutionException, InterruptedException {
+        // Arrange: fragmentos con 4, 4 y -2 unidades (6 en total); ninguno basta por sí solo
+        DocumentReference mockDocRef = mock(DocumentReference.class);
+        DocumentSnapshot mockDocument = mock(DocumentSnapshot.class);
+        CollectionReference shardCollection = mock(CollectionReference.class);
+        Transaction transaction = mock(Transaction.class);
+        Map<DocumentReference, DocumentSnapshot> shards = new HashMap<>();
+        DocumentReference[] shardRefs = new DocumentReference[3];
+        long[] stock = {4, 4, -2};
+        for (int i = 0; i < 3; i++) {
+            shardRefs[i] = mock(DocumentReference.class);
+            DocumentSnapshot shardDoc = mock(DocumentSnapshot.class);
+            when(shardDoc.exists()).thenReturn(true);
+            when(shardDoc.getLong("cantidadStock")).thenReturn(stock[i]);
+            when(shardCollection.document(String.valueOf(i))).thenReturn(shardRefs[i]);
+            lenient().when(transaction.get(shardRefs[i])).thenReturn(ApiFutures.immediateFuture(shardDoc));
+            shards.put(shardRefs[i], shardDoc);
+        }
+        when(db.collection("products").document("UID1")).thenReturn(mockDocRef);
+        when(mockDocRef.collection("stockShards")).thenReturn(shardCollection);
+        mockTransaction(transaction);
+        when(transaction.getAll(any(DocumentReference[].class))).thenAnswer(invocation -> {
+            List<DocumentSnapshot> result = new ArrayList<>();
+            for (Object ref : invocation.getArguments()) {
+                result.add(ref == mockDocRef ? mockDocument : shards.get(ref));
+            }
+            return ApiFutures.immediateFuture(result);
+        });
+        when(mockDocument.exists()).thenReturn(true);
+        when(mockDocument.contains("fragmentosStock")).thenReturn(true);
+        when(mockDocument.getLong("fragmentosStock")).thenReturn(3L);
+        Product tooMany = new Product();
+        tooMany.setUID("UID1");
+        tooMany.setCantidad(7);
+        Product line = new Product();
+        line.setUID("UID1");
+        line.setCantidad(5);
+        // Act
+        String rejected = firestoreService.updateProductStocks(List.of(tooMany));
+        String accepted = firestoreService.updateProductStocks(List.of(line));
+        // Assert
+        assertTrue(rejected.contains("Stock insuficiente"), rejected);
+        assertEquals("Pedido procesado y stock actualizado correctamente para todos los productos", accepted);
+        verify(transaction).update(shardRefs[0], "cantidadStock", 1L);
+        verify(transaction).update(shardRefs[1], "cantidadStock", 0L);
+        verify(transaction).update(shardRefs[2], "cantidadStock", 0L);
+    }
+
+    /**
+     * Testea que al fragmentar el stock de un producto se reparte su cantidadStock entre los fragmentos
+     * y se marca el documento con el número de fragmentos.
+     * @throws ExecutionException si ocurre un error durante la ejecución
+     * @throws InterruptedException si la operación es interrumpida
+     */
+    @Test
+    void testEnableStockShards() throws ExecutionException, InterruptedException {
+        // Arrange
+        DocumentReference mockDocRef = mock(DocumentReference.class);
+        DocumentSnapshot mockDocument = mock(DocumentSnapshot.class);
+        CollectionReference shardCollection = mock(CollectionReference.class);
+        DocumentReference shard0 = mock(DocumentReference.class);
+        DocumentReference shard1 = mock(DocumentReference.class);
+        Transaction transaction = mock(Transaction.class);
+        when(db.collection("products").document("UID1")).thenReturn(mockDocRef);
+        when(mockDocRef.collection("stockShards")).thenReturn(shardCollection);
+        when(shardCollection.document("0")).thenReturn(shard0);
+        when(shardCollection.document("1")).thenReturn(shard1);
+        mockTransaction(transaction);
+        when(transaction.get(mockDocRef)).thenReturn(ApiFutures.immediateFuture(mockDocument));
+        when(mockDocument.exists()).thenReturn(true);
+        when(mockDocument.getLong("cantidadStock")).thenReturn(7L);
+        // Act
+        firestoreService.enableStockShards("UID1", 2);
+        // Assert
+        verify(transaction).set(shard0, Map.of("cantidadStock", 4L));
+        verify(transaction).set(shard1, Map.of("cantidadStock", 3L));
+        verify(transaction).update(mockDocRef, "fragmentosStock", 2L);
+        assertThrows(IllegalArgumentException.class, () -> firestoreService.enableStockShards("UID1", 1));
+    }
+
+    /**
+     * Prueba unitaria para el método {@link FirestoreService#streamAllProducts} que verifica que cada documento
+     * recibido de la consulta en streaming se entrega convertido en producto, y que un error del receptor
+     * se propaga como {@link ExecutionException}.
+     * @throws Exception si ocurre un error inesperado
+     */
+    @Test
+    void testStreamAllProducts() throws Exception {
+        // Arrange
+        QueryDocumentSnapshot mockDoc = mock(QueryDocumentSnapshot.class);
+        when(mockDoc.getData()).thenReturn(documentData(new Product()));
+        when(mockDoc.getId()).thenReturn("UID1");
+        CollectionReference productsCollection = db.collection("products");
+        doAnswer(invocation -> {
+            ApiStreamObserver<DocumentSnapshot> observer = invocation.getArgument(0);
+            observer.onNext(mockDoc);
+            observer.onNext(mockDoc);
+            observer.onCompleted();
+            return null;
+        }).when(productsCollection).stream(any());
+        List<String> received = new ArrayList<>();
+
+        // Act
+        firestoreService.streamAllProducts(product -> received.add(product.getUID()));
+
+        // Assert
+        assertEquals(List.of("UID1", "UID1"), received);
+        ExecutionException exception = assertThrows(ExecutionException.class, () ->
+                firestoreService.streamAllProducts(product -> {
+                    throw new IOException("Cliente desconectado");
+                }));
+        assertInstanceOf(IOException.class, exception.getCause());
+    }
+
+    /**
+     * Prueba unitaria para el método {@link FirestoreService#getAllProducts(Set)} que verifica
+     * que la consulta se limita con select() a los campos pedidos.
+     * @throws ExecutionException si ocurre un error durante la ejecución de la operación asíncrona
+     * @throws InterruptedException si la operación es interrumpida
+     */
+    @Test
+    void testGetAllProducts_WithFields() throws ExecutionException, InterruptedException {
+        // Arrange
+        Query mockQuery = mock(Query.class);
+        QuerySnapshot mockQuerySnapshot = mock(QuerySnapshot.class);
+        ApiFuture<QuerySnapshot> mockFuture = mock(ApiFuture.class);
+        QueryDocumentSnapshot mockDoc = mock(QueryDocumentSnapshot.class);
+        Product partial = new Product();
+        partial.setNombre("producto1");
+        when(mockDoc.getData()).thenReturn(documentData(partial));
+        when(mockDoc.getId()).thenReturn("UID1");
+        when(db.collection("products").select("nombre", "precio")).thenReturn(mockQuery);
+        when(mockQuery.get()).thenReturn(mockFuture);
+        when(mockFuture.get()).thenReturn(mockQuerySnapshot);
+        when(mockQuerySnapshot.getDocuments()).thenReturn(List.of(mockDoc));
+
+        // Act
+        List<Product> products = firestoreService.getAllProducts(new LinkedHashSet<>(List.of("nombre", "precio")));
+
+        // Assert
+        assertEquals(1, products.size());
+        assertEquals("UID1", products.get(0).getUID());
+        assertEquals("producto1", products.get(0).getNombre());
+    }
+
+    /**
+     * Prueba unitaria para el método {@link FirestoreService#getAllProducts(Set)} que verifica
+     * que al pedir las valoraciones se lee también la lista antigua rating y se calcula con ella el agregado
+     * de los documentos que aún no lo tienen.
+     * @throws ExecutionException si ocurre un error durante la ejecución de la operación asíncrona
+     * @throws InterruptedException si la operación es interrumpida
+     */
+    @Test
+    void testGetAllProducts_WithLegacyRatingsField() throws ExecutionException, InterruptedException {
+        // Arrange
+        Query mockQuery = mock(Query.class);
+        QuerySnapshot mockQuerySnapshot = mock(QuerySnapshot.class);
+        ApiFuture<QuerySnapshot> mockFuture = mock(ApiFuture.class);
+        QueryDocumentSnapshot mockDoc = mock(QueryDocumentSnapshot.class);
+        when(mockDoc.getData()).thenReturn(Map.of("rating", List.of(4L, 5L)));
+        when(mockDoc.getId()).thenReturn("UID1");
+        when(db.collection("products").select("valoraciones", "rating")).thenReturn(mockQuery);
+        when(mockQuery.get()).thenReturn(mockFuture);
+        when(mockFuture.get()).thenReturn(mockQuerySnapshot);
+        when(mockQuerySnapshot.getDocuments()).thenReturn(List.of(mockDoc));
+
+        // Act
+        List<Product> products = firestoreService.getAllProducts(Set.of("valoraciones"));
+
+        // Assert
+        assertEquals(1, products.size());
+        assertNotNull(products.get(0).getValoraciones());
+        assertEquals(2, products.get(0).getValoraciones().getRecuento());
+    }
+
+    /**
+     * Prueba unitaria para el método {@link FirestoreService#getProductsPage(int, String)} que verifica
+     * que se consulta Firestore ordenando por UID a partir del cursor recibido y que se devuelve
+     * el cursor de la página siguiente cuando hay más documentos que el tamaño de página.
+     * @throws ExecutionException si ocurre un error durante la ejecución de la operación asíncrona
+     * @throws InterruptedException si la operación es interrumpida
+     */
+    @Test
+    void testGetProductsPage_WithNextPage() throws ExecutionException, InterruptedException {
+        // Arrange
+        Query mockQuery = mock(Query.class);
+        QuerySnapshot mockQuerySnapshot = mock(QuerySnapshot.class);
+        ApiFuture<QuerySnapshot> mockFuture = mock(ApiFuture.class);
+        List<QueryDocumentSnapshot> mockDocuments = new ArrayList<>();
+        for (String uid : List.of("UID2", "UID3", "UID4")) {
+            QueryDocumentSnapshot mockDoc = mock(QueryDocumentSnapshot.class);
+            lenient().when(mockDoc.getData()).thenReturn(documentData(new Product()));
+            lenient().when(mockDoc.getId()).thenReturn(uid);
+            mockDocuments.add(mockDoc);
+        }
+        when(db.collection("products").orderBy(FieldPath.documentId())).thenReturn(mockQuery);
+        when(mockQuery.startAfter("UID1")).thenReturn(mockQuery);
+        when(mockQuery.limit(3)).thenReturn(mockQuery);
+        when(mockQuery.get()).thenReturn(mockFuture);
+        when(mockFuture.get()).thenReturn(mockQuerySnapshot);
+        when(mockQuerySnapshot.getDocuments()).thenReturn(mockDocuments);
+
+        // Act
+        ProductPage<Product> page = firestoreService.getProductsPage(2, FirestoreService.encodeCursor("UID1"));
+
+        // Assert
+        assertEquals(2, page.getProductos().size());
+        assertEquals("UID2", page.getProductos().get(0).getUID());
+        assertEquals("UID3", FirestoreService.decodeCursor(page.getSiguienteCursor()));
+    }
+
+    /**
+     * Verifica que un cursor que no es Base64 válido se rechaza con {@link IllegalArgumentException}.
+     */
+    @Test
+    void testDecodeCursor_Invalid() {
+        assertNull(FirestoreService.decodeCursor(null));
+        assertThrows(IllegalArgumentException.class, () -> FirestoreService.decodeCursor("no es un cursor"));
+    }
+
+    /**
+     * Prueba unitaria para el método {@link FirestoreService#getProductsByUIDs(List)} que verifica que
+     * todos los documentos se leen con una única llamada a getAll() y que el resultado respeta el orden pedido.
+     * @throws ExecutionException si ocurre un error durante la ejecución de la operación asíncrona
+     * @throws InterruptedException si la operación es interrumpida
+     */
+    @Test
+    void testGetProductsByUIDs() throws ExecutionException, InterruptedException {
+        // Arrange
+        CollectionReference productsCollection = db.collection("products");
+        DocumentReference ref1 = mock(DocumentReference.class);
+        DocumentReference ref2 = mock(DocumentReference.class);
+        when(productsCollection.document("UID1")).thenReturn(ref1);
+        when(productsCollection.document("UID2")).thenReturn(ref2);
+        DocumentSnapshot doc1 = mock(DocumentSnapshot.class);
+        DocumentSnapshot doc2 = mock(DocumentSnapshot.class);
+        when(doc1.getId()).thenReturn("UID1");
+        when(doc1.exists()).thenReturn(true);
+        when(doc1.getData()).thenReturn(documentData(new Product()));
+        when(doc2.getId()).thenReturn("UID2");
+        when(doc2.exists()).thenReturn(false);
+        ApiFuture<List<DocumentSnapshot>> future = mock(ApiFuture.class);
+        when(future.get()).thenReturn(List.of(doc2, doc1));
+        when(db.getAll(ref2, ref1)).thenReturn(future);
+
+        // Act
+        List<ProductLookup> lookups = firestoreService.getProductsByUIDs(List.of("UID2", "UID1"));
+
+        // Assert
+        assertEquals(2, lookups.size());
+        assertEquals("UID2", lookups.get(0).getUid());
+        assertFalse(lookups.get(0).isEncontrado());
+        assertNull(lookups.get(0).getProducto());
+        assertTrue(lookups.get(1).isEncontrado());
+        assertEquals("UID1", lookups.get(1).getProducto().getUID());
+        verify(db, times(1)).getAll(any(DocumentReference[].class));
+    }
+
+    /**
+     * Prueba unitaria para el método {@link FirestoreService#getProductByUID(String)} que verifica que las
+     * lecturas repetidas, también de productos inexistentes, se sirven desde la caché sin volver a Firestore,
+     * y que escribir un producto descarta su entrada.
+     * @throws ExecutionException si ocurre un error durante la ejecución de la operación asíncrona
+     * @throws InterruptedException si la operación es interrumpida
+     */
+    @Test
+    void testGetProductByUID_Cached() throws ExecutionException, InterruptedException {
+        // Arrange
+        CollectionReference productsCollection = db.collection("products");
+        DocumentReference ref1 = mock(DocumentReference.class);
+        DocumentReference missingRef = mock(DocumentReference.class);
+        when(productsCollection.document("UID1")).thenReturn(ref1);
+        when(productsCollection.document("missing")).thenReturn(missingRef);
+        DocumentSnapshot doc1 = mock(DocumentSnapshot.class);
+        DocumentSnapshot missing = mock(DocumentSnapshot.class);
+        when(doc1.exists()).thenReturn(true);
+        when(doc1.getId()).thenReturn("UID1");
+        when(doc1.getData()).thenReturn(documentData(new Product()));
+        when(missing.exists()).thenReturn(false);
+        ApiFuture<DocumentSnapshot> future1 = mock(ApiFuture.class);
+        ApiFuture<DocumentSnapshot> missingFuture = mock(ApiFuture.class);
+        when(future1.get()).thenReturn(doc1);
+        when(missingFuture.get()).thenReturn(missing);
+        when(ref1.get()).thenReturn(future1);
+        when(missingRef.get()).thenReturn(missingFuture);
+        ApiFuture<WriteResult> writeFuture = mock(ApiFuture.class);
+        WriteResult writeResult = mock(WriteResult.class);
+        when(writeFuture.get()).thenReturn(writeResult);
+        when(writeResult.getUpdateTime()).thenReturn(Timestamp.now());
+        when(ref1.update(eq("comentarios"), any())).thenReturn(writeFuture);
+
+        // Act
+        Product first = firestoreService.getProductByUID("UID1");
+        Product second = firestoreService.getProductByUID("UID1");
+        assertNull(firestoreService.getProductByUID("missing"));
+        assertNull(firestoreService.getProductByUID("missing"));
+        firestoreService.addCommentToComments("UID1", "Muy buena");
+        firestoreService.getProductByUID("UID1");
+
+        // Assert
+        assertSame(first, second);
+        verify(ref1, times(2)).get();
+        verify(missingRef, times(1)).get();
+        assertEquals(2, firestoreService.getProductCacheStats().getAciertos());
+        assertEquals(1, firestoreService.getProductCacheStats().getEntradasNegativas());
+    }
+
+}
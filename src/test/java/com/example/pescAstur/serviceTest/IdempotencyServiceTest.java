@@ -0,0 +1,258 @@
+package com.example.pescAstur.serviceTest;
+
+import com.example.pescAstur.model.IdempotentResponse;
+import com.example.pescAstur.service.FirestoreService;
+import com.example.pescAstur.service.IdempotencyService;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreException;
+import com.google.cloud.firestore.Precondition;
+import com.google.cloud.firestore.WriteResult;
+import io.grpc.Status;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class IdempotencyServiceTest {
+
+    private static final Timestamp CLAIMED = Timestamp.parseTimestamp("2024-11-01T11:00:01Z");
+
+    private DocumentReference document;
+    private IdempotencyService idempotencyService;
+
+    @BeforeEach
+    void setUp() {
+        FirestoreService firestoreService = mock(FirestoreService.class);
+        Firestore db = mock(Firestore.class);
+        CollectionReference collection = mock(CollectionReference.class);
+        document = mock(DocumentReference.class);
+        when(firestoreService.getDb()).thenReturn(db);
+        when(db.collection(IdempotencyService.COLLECTION)).thenReturn(collection);
+        when(collection.document("pedido-1")).thenReturn(document);
+        idempotencyService = new IdempotencyService(firestoreService, Duration.ofMinutes(2));
+    }
+
+    private static WriteResult written(Timestamp updateTime) {
+        WriteResult result = mock(WriteResult.class);
+        when(result.getUpdateTime()).thenReturn(updateTime);
+        return result;
+    }
+
+    /**
+     * Simula que la reserva de la clave se crea y se marca como iniciada.
+     */
+    private void claimSucceeds() {
+        WriteResult created = written(CLAIMED);
+        when(document.create(anyMap())).thenReturn(ApiFutures.immediateFuture(created));
+        when(document.update(Map.of("estado", "iniciada"), Precondition.updatedAt(CLAIMED)))
+                .thenReturn(ApiFutures.immediateFuture(created));
+    }
+
+    /**
+     * Verifica que la operación se ejecuta una sola vez: la repetición con la misma clave recibe la respuesta
+     * guardada desde memoria, sin acceder a Firestore, y la misma clave con otra petición se rechaza.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    void testExecute_ReplaysStoredResponse() throws Exception {
+        claimSucceeds();
+        when(document.set(anyMap())).thenReturn(ApiFutures.immediateFuture(null));
+        AtomicInteger calls = new AtomicInteger();
+
+        IdempotentResponse first = idempotencyService.execute("pedido-1", "huella", () -> {
+            calls.incrementAndGet();
+            return new IdempotentResponse(200, "Stocks actualizados correctamente", null, false, false);
+        });
+        IdempotentResponse replay = idempotencyService.execute("pedido-1", "huella", () -> {
+            calls.incrementAndGet();
+            return new IdempotentResponse(200, "otra vez", null, false, false);
+        });
+
+        assertEquals(1, calls.get());
+        assertFalse(first.isRepetida());
+        assertTrue(replay.isRepetida());
+        assertEquals("Stocks actualizados correctamente", replay.getCuerpo());
+        assertThrows(IllegalArgumentException.class, () -> idempotencyService.execute("pedido-1", "otra huella",
+                () -> new IdempotentResponse(200, "otra vez", null, false, false)));
+        verify(document, times(1)).create(anyMap());
+        verify(document, times(1)).update(Map.of("estado", "iniciada"), Precondition.updatedAt(CLAIMED));
+        verify(document, times(1)).set(argThat((Map<String, Object> record) ->
+                "completada".equals(record.get("estado")) && Long.valueOf(200).equals(record.get("codigo"))));
+        verifyNoMoreInteractions(document);
+    }
+
+    /**
+     * Verifica que una clave ya registrada en Firestore (por ejemplo, por otra instancia) devuelve la respuesta
+     * guardada sin ejecutar la operación, y que una clave aún pendiente dentro de su concesión se rechaza como
+     * conflicto.
+     */
+    @Test
+    void testExecute_KeyStoredInFirestore() throws Exception {
+        FirestoreException alreadyExists = mock(FirestoreException.class);
+        when(alreadyExists.getStatus()).thenReturn(Status.ALREADY_EXISTS);
+        when(document.create(anyMap())).thenReturn(ApiFutures.immediateFailedFuture(alreadyExists));
+        DocumentSnapshot pending = mock(DocumentSnapshot.class);
+        when(pending.exists()).thenReturn(true);
+        when(pending.getString("estado")).thenReturn("pendiente");
+        when(pending.getString("huella")).thenReturn("huella");
+        when(pending.getTimestamp("reclamado")).thenReturn(Timestamp.now());
+        DocumentSnapshot stored = mock(DocumentSnapshot.class);
+        when(stored.exists()).thenReturn(true);
+        when(stored.getString("estado")).thenReturn("completada");
+        when(stored.getString("huella")).thenReturn("huella");
+        when(stored.getString("cuerpo")).thenReturn("Stock insuficiente para el producto con ID UID1");
+        when(stored.getLong("codigo")).thenReturn(400L);
+        when(document.get()).thenReturn(ApiFutures.immediateFuture(pending), ApiFutures.immediateFuture(stored));
+
+        assertThrows(IllegalStateException.class, () -> idempotencyService.execute("pedido-1", "huella",
+                () -> fail("La operación no debe ejecutarse")));
+        IdempotentResponse replay = idempotencyService.execute("pedido-1", "huella",
+                () -> fail("La operación no debe ejecutarse"));
+
+        assertTrue(replay.isRepetida());
+        assertEquals(400, replay.getCodigo());
+        assertEquals("Stock insuficiente para el producto con ID UID1", replay.getCuerpo());
+    }
+
+    /**
+     * Verifica que una clave que sigue pendiente después de su concesión (la instancia que la reservó se cayó antes
+     * de empezar la operación) se reclama condicionada a la versión leída y la operación se ejecuta.
+     */
+    @Test
+    void testExecute_TakesOverStaleClaim() throws Exception {
+        FirestoreException alreadyExists = mock(FirestoreException.class);
+        when(alreadyExists.getStatus()).thenReturn(Status.ALREADY_EXISTS);
+        when(document.create(anyMap())).thenReturn(ApiFutures.immediateFailedFuture(alreadyExists));
+        Timestamp updateTime = Timestamp.parseTimestamp("2024-11-01T11:00:00Z");
+        DocumentSnapshot pending = mock(DocumentSnapshot.class);
+        when(pending.exists()).thenReturn(true);
+        when(pending.getString("estado")).thenReturn("pendiente");
+        when(pending.getString("huella")).thenReturn("huella");
+        when(pending.getTimestamp("reclamado")).thenReturn(Timestamp.ofTimeSecondsAndNanos(
+                Timestamp.now().getSeconds() - Duration.ofMinutes(5).toSeconds(), 0));
+        when(pending.getUpdateTime()).thenReturn(updateTime);
+        when(document.get()).thenReturn(ApiFutures.immediateFuture(pending));
+        WriteResult claimed = written(CLAIMED);
+        when(document.update(anyMap(), eq(Precondition.updatedAt(updateTime))))
+                .thenReturn(ApiFutures.immediateFuture(claimed));
+        when(document.update(Map.of("estado", "iniciada"), Precondition.updatedAt(CLAIMED)))
+                .thenReturn(ApiFutures.immediateFuture(claimed));
+        when(document.set(anyMap())).thenReturn(ApiFutures.immediateFuture(null));
+
+        IdempotentResponse response = idempotencyService.execute("pedido-1", "huella",
+                () -> new IdempotentResponse(200, "Stocks actualizados correctamente", null, false, false));
+
+        assertFalse(response.isRepetida());
+        assertEquals(200, response.getCodigo());
+        verify(document).update(argThat((Map<String, Object> record) -> "pendiente".equals(record.get("estado"))
+                && record.get("reclamado") != null), eq(Precondition.updatedAt(updateTime)));
+        assertThrows(IllegalArgumentException.class, () -> idempotencyService.execute("pedido-1", "otra huella",
+                () -> fail("La operación no debe ejecutarse")));
+    }
+
+    /**
+     * Verifica que una clave cuya operación ya empezó no se reclama nunca, aunque su concesión haya vencido y no
+     * llegara a guardarse la respuesta: la operación podría haberse aplicado.
+     */
+    @Test
+    void testExecute_StartedClaimNeverTakenOver() throws Exception {
+        FirestoreException alreadyExists = mock(FirestoreException.class);
+        when(alreadyExists.getStatus()).thenReturn(Status.ALREADY_EXISTS);
+        when(document.create(anyMap())).thenReturn(ApiFutures.immediateFailedFuture(alreadyExists));
+        DocumentSnapshot started = mock(DocumentSnapshot.class);
+        when(started.exists()).thenReturn(true);
+        when(started.getString("estado")).thenReturn("iniciada");
+        when(started.getString("huella")).thenReturn("huella");
+        when(started.getTimestamp("reclamado")).thenReturn(Timestamp.ofTimeSecondsAndNanos(
+                Timestamp.now().getSeconds() - Duration.ofHours(1).toSeconds(), 0));
+        when(document.get()).thenReturn(ApiFutures.immediateFuture(started));
+
+        assertThrows(IllegalStateException.class, () -> idempotencyService.execute("pedido-1", "huella",
+                () -> fail("La operación no debe ejecutarse")));
+        verify(document, never()).update(anyMap(), any(Precondition.class));
+    }
+
+    /**
+     * Verifica que una repetición que esperaba a la petición original en esta instancia la vuelve a intentar
+     * si la original termina con un fallo transitorio, en lugar de repetir el fallo.
+     */
+    @Test
+    void testExecute_WaiterRetriesAfterRetryableResult() throws Exception {
+        claimSucceeds();
+        when(document.delete()).thenReturn(ApiFutures.immediateFuture(null));
+        when(document.set(anyMap())).thenReturn(ApiFutures.immediateFuture(null));
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<IdempotentResponse> original = executor.submit(() -> idempotencyService.execute("pedido-1", "huella", () -> {
+                running.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return new IdempotentResponse(500, "Error al procesar el pedido: timeout", null, true, false);
+            }));
+            assertTrue(running.await(5, TimeUnit.SECONDS));
+            Future<IdempotentResponse> retried = executor.submit(() -> idempotencyService.execute("pedido-1", "huella",
+                    () -> new IdempotentResponse(200, "Stocks actualizados correctamente", null, false, false)));
+            // La repetición queda esperando a la petición original
+            Thread.sleep(100);
+            release.countDown();
+
+            assertEquals(500, original.get(5, TimeUnit.SECONDS).getCodigo());
+            assertFalse(retried.get(5, TimeUnit.SECONDS).isRepetida());
+            assertEquals(200, retried.get().getCodigo());
+            verify(document, times(2)).create(anyMap());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Verifica que un fallo transitorio libera la clave para que el pedido se pueda reintentar.
+     */
+    @Test
+    void testExecute_RetryableResultReleasesKey() throws Exception {
+        claimSucceeds();
+        when(document.delete()).thenReturn(ApiFutures.immediateFuture(null));
+        when(document.set(anyMap())).thenReturn(ApiFutures.immediateFuture(null));
+
+        IdempotentResponse failed = idempotencyService.execute("pedido-1", "huella",
+                () -> new IdempotentResponse(400, "Error al procesar el pedido: timeout", null, true, false));
+        IdempotentResponse retried = idempotencyService.execute("pedido-1", "huella",
+                () -> new IdempotentResponse(200, "Stocks actualizados correctamente", null, false, false));
+
+        assertEquals(400, failed.getCodigo());
+        assertFalse(retried.isRepetida());
+        assertEquals(200, retried.getCodigo());
+        verify(document, times(1)).delete();
+        verify(document, times(2)).create(anyMap());
+    }
+
+    /**
+     * Verifica el formato admitido de las claves de idempotencia.
+     */
+    @Test
+    void testIsValidKey() {
+        assertTrue(IdempotencyService.isValidKey("3f9c2a1e-7b4d-4e0a-9c1f-2d8e6b5a4c3b"));
+        assertFalse(IdempotencyService.isValidKey(""));
+        assertFalse(IdempotencyService.isValidKey("pedido/1"));
+        assertFalse(IdempotencyService.isValidKey("."));
+        assertFalse(IdempotencyService.isValidKey(".."));
+        assertFalse(IdempotencyService.isValidKey("__pedido__"));
+        assertTrue(IdempotencyService.isValidKey("..."));
+        assertTrue(IdempotencyService.isValidKey("__pedido"));
+        assertFalse(IdempotencyService.isValidKey("a".repeat(IdempotencyService.MAX_KEY_LENGTH + 1)));
+    }
+}
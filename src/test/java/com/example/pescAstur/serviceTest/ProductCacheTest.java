@@ -0,0 +1,134 @@
+package com.example.pescAstur.serviceTest;
+
+import com.example.pescAstur.model.Product;
+import com.example.pescAstur.model.ProductCacheStats;
+import com.example.pescAstur.service.ProductCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProductCacheTest {
+
+    private ProductCache productCache;
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        productCache = new ProductCache();
+    }
+
+    private Product load(String UID) throws Exception {
+        return productCache.get(UID, uid -> {
+            loads.incrementAndGet();
+            if (uid.startsWith("missing")) {
+                return null;
+            }
+            Product product = new Product();
+            product.setUID(uid);
+            product.setNombre("Producto " + uid);
+            return product;
+        });
+    }
+
+    /**
+     * Verifica que un producto solo se lee de Firestore la primera vez y que las métricas
+     * reflejan aciertos y fallos.
+     */
+    @Test
+    void testGet_ReadThrough() throws Exception {
+        Product first = load("UID1");
+        Product second = load("UID1");
+
+        assertSame(first, second);
+        assertEquals(1, loads.get());
+        ProductCacheStats stats = productCache.stats();
+        assertEquals(1, stats.getAciertos());
+        assertEquals(1, stats.getFallos());
+        assertEquals(1, stats.getEntradas());
+        assertTrue(stats.getPesoBytes() > 0);
+    }
+
+    /**
+     * Verifica que los UIDs inexistentes se guardan como negativos y no se vuelven a consultar.
+     */
+    @Test
+    void testGet_NegativeCaching() throws Exception {
+        assertNull(load("missing1"));
+        assertNull(load("missing1"));
+
+        assertEquals(1, loads.get());
+        assertTrue(productCache.isKnownMissing("missing1"));
+        assertEquals(Optional.empty(), productCache.getIfPresent("missing1"));
+        assertNull(productCache.getIfPresent("UID1"));
+        assertEquals(1, productCache.stats().getEntradasNegativas());
+    }
+
+    /**
+     * Verifica que invalidar una entrada obliga a volver a leer el producto.
+     */
+    @Test
+    void testInvalidate() throws Exception {
+        load("UID1");
+        productCache.invalidate("UID1");
+        load("UID1");
+
+        assertEquals(2, loads.get());
+    }
+
+    /**
+     * Verifica que las entradas negativas caducan antes que las positivas.
+     */
+    @Test
+    void testNegativeEntriesExpireSooner() throws Exception {
+        productCache = new ProductCache(ProductCache.DEFAULT_MAX_WEIGHT_BYTES, Duration.ofMinutes(5), Duration.ofMillis(1));
+        load("UID1");
+        load("missing1");
+        Thread.sleep(20);
+
+        assertNotNull(productCache.getIfPresent("UID1"));
+        assertNull(productCache.getIfPresent("missing1"));
+    }
+
+    /**
+     * Verifica que una invalidación que llega durante la lectura de Firestore no se pierde: el valor
+     * leído antes del cambio no queda guardado.
+     */
+    @Test
+    void testInvalidateDuringLoad() throws Exception {
+        Product stale = new Product();
+        stale.setUID("UID1");
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread reader = new Thread(() -> {
+            try {
+                productCache.get("UID1", uid -> {
+                    loading.countDown();
+                    release.await();
+                    return stale;
+                });
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        reader.start();
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        Thread invalidator = new Thread(() -> productCache.invalidate("UID1"));
+        invalidator.start();
+        release.countDown();
+        reader.join(5000);
+        invalidator.join(5000);
+
+        assertNull(productCache.getIfPresent("UID1"));
+
+        // Lo mismo para las lecturas por lotes, que guardan su resultado con una marca
+        long stamp = productCache.stamp();
+        productCache.invalidate("UID2");
+        productCache.put("UID2", stale, stamp);
+        assertNull(productCache.getIfPresent("UID2"));
+    }
+}
@@ -0,0 +1,238 @@
+package com.example.pescAstur.serviceTest;
+
+import com.example.pescAstur.model.Product;
+import com.example.pescAstur.model.ProductPage;
+import com.example.pescAstur.model.ProductSyncResult;
+import com.example.pescAstur.service.CatalogSnapshotStore;
+import com.example.pescAstur.service.FirestoreService;
+import com.example.pescAstur.service.ProductCatalogChangedEvent;
+import com.example.pescAstur.service.ProductCatalogService;
+import com.example.pescAstur.service.ProductDocumentCodec;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
+import java.util.List;
+import java.util.concurrent.Executor;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+public class ProductCatalogServiceTest {
+
+    private FirestoreService firestoreService;
+    private ApplicationEventPublisher eventPublisher;
+    private CatalogSnapshotStore snapshotStore;
+    private ProductCatalogService productCatalogService;
+    private EventListener<QuerySnapshot> listener;
+    private ArgumentCaptor<EventListener<QuerySnapshot>> captor;
+
+    @BeforeEach
+    void setUp() {
+        Firestore db = mock(Firestore.class);
+        CollectionReference productsCollection = mock(CollectionReference.class);
+        when(db.collection("products")).thenReturn(productsCollection);
+        firestoreService = spy(new FirestoreService(db, null));
+        eventPublisher = mock(ApplicationEventPublisher.class);
+        snapshotStore = mock(CatalogSnapshotStore.class);
+        productCatalogService = new ProductCatalogService(firestoreService, eventPublisher, snapshotStore);
+
+        captor = ArgumentCaptor.forClass(EventListener.class);
+        when(productsCollection.addSnapshotListener(any(Executor.class), captor.capture()))
+                .thenReturn(mock(ListenerRegistration.class));
+        productCatalogService.start();
+        listener = captor.getValue();
+    }
+
+    /**
+     * Crea un documento simulado de la colección products.
+     */
+    private QueryDocumentSnapshot document(String uid, String nombre, long seconds) {
+        QueryDocumentSnapshot document = mock(QueryDocumentSnapshot.class);
+        Product product = new Product();
+        product.setNombre(nombre);
+        lenient().when(document.getId()).thenReturn(uid);
+        lenient().when(document.getUpdateTime()).thenReturn(Timestamp.ofTimeSecondsAndNanos(seconds, 0));
+        lenient().when(document.getData()).thenReturn(ProductDocumentCodec.toData(product));
+        return document;
+    }
+
+    private DocumentChange change(DocumentChange.Type type, QueryDocumentSnapshot document) {
+        DocumentChange change = mock(DocumentChange.class);
+        when(change.getType()).thenReturn(type);
+        when(change.getDocument()).thenReturn(document);
+        return change;
+    }
+
+    /**
+     * Verifica que antes de recibir la primera instantánea el catálogo consulta Firestore directamente.
+     */
+    @Test
+    void testGetAllProducts_BeforeInitialSnapshot_QueriesFirestore() throws Exception {
+        List<Product> fromFirestore = List.of(new Product());
+        doReturn(fromFirestore).when(firestoreService).getAllProducts();
+
+        assertFalse(productCatalogService.isLoaded());
+        assertSame(fromFirestore, productCatalogService.getAllProducts());
+    }
+
+    /**
+     * Verifica que la primera instantánea carga el catálogo completo, ordenado por UID,
+     * y que las lecturas posteriores no consultan Firestore.
+     */
+    @Test
+    void testInitialSnapshot_LoadsCatalog() throws Exception {
+        List<QueryDocumentSnapshot> documents = List.of(document("UID2", "Caña", 1), document("UID1", "Carrete", 1));
+        QuerySnapshot snapshot = mock(QuerySnapshot.class);
+        when(snapshot.getDocuments()).thenReturn(documents);
+
+        listener.onEvent(snapshot, null);
+
+        List<Product> products = productCatalogService.getAllProducts();
+        assertTrue(productCatalogService.isLoaded());
+        assertEquals(1, productCatalogService.getVersion());
+        assertEquals(2, products.size());
+        assertEquals("UID1", products.get(0).getUID());
+        assertEquals("Caña", productCatalogService.getProduct("UID2").getNombre());
+        verify(firestoreService, never()).getAllProducts();
+
+        ArgumentCaptor<ProductCatalogChangedEvent> event = ArgumentCaptor.forClass(ProductCatalogChangedEvent.class);
+        verify(eventPublisher).publishEvent(event.capture());
+        assertEquals(2, event.getValue().getCambios().size());
+        assertTrue(event.getValue().getCambios().get(0).isCreacion());
+    }
+
+    /**
+     * Verifica que los cambios posteriores se aplican de forma incremental y que
+     * los documentos sin cambios en su fecha de actualización se ignoran.
+     */
+    @Test
+    void testDocumentChanges_AppliedIncrementally() {
+        List<QueryDocumentSnapshot> documents = List.of(document("UID1", "Carrete", 1), document("UID2", "Caña", 1));
+        QuerySnapshot initial = mock(QuerySnapshot.class);
+        when(initial.getDocuments()).thenReturn(documents);
+        listener.onEvent(initial, null);
+
+        List<DocumentChange> changes = List.of(
+                change(DocumentChange.Type.MODIFIED, document("UID1", "Carrete Shimano", 2)),
+                change(DocumentChange.Type.MODIFIED, document("UID2", "Caña", 1)),
+                change(DocumentChange.Type.REMOVED, document("UID2", "Caña", 1)),
+                change(DocumentChange.Type.ADDED, document("UID3", "Señuelo", 2)));
+        QuerySnapshot update = mock(QuerySnapshot.class);
+        when(update.getDocumentChanges()).thenReturn(changes);
+        listener.onEvent(update, null);
+
+        assertEquals(2, productCatalogService.getVersion());
+        assertEquals("Carrete Shimano", productCatalogService.getProduct("UID1").getNombre());
+        assertNull(productCatalogService.getProduct("UID2"));
+        assertNotNull(productCatalogService.getProduct("UID3"));
+
+        ArgumentCaptor<ProductCatalogChangedEvent> event = ArgumentCaptor.forClass(ProductCatalogChangedEvent.class);
+        verify(eventPublisher, times(2)).publishEvent(event.capture());
+        ProductCatalogChangedEvent last = event.getAllValues().get(1);
+        assertEquals(3, last.getCambios().size());
+        assertEquals("Carrete", last.getCambios().get(0).getAnterior().getNombre());
+        assertTrue(last.getCambios().get(1).isEliminacion());
+    }
+    /**
+     * Verifica que la paginación desde memoria recorre el catálogo por UID con el mismo cursor que Firestore.
+     */
+    @Test
+    void testGetProductsPage_FromMemory() throws Exception {
+        List<QueryDocumentSnapshot> documents = List.of(document("UID1", "Carrete", 1),
+                document("UID2", "Caña", 1), document("UID3", "Señuelo", 1));
+        QuerySnapshot snapshot = mock(QuerySnapshot.class);
+        when(snapshot.getDocuments()).thenReturn(documents);
+        listener.onEvent(snapshot, null);
+
+        ProductPage<Product> first = productCatalogService.getProductsPage(2, null, null);
+        ProductPage<Product> second = productCatalogService.getProductsPage(2, first.getSiguienteCursor(), null);
+
+        assertEquals(List.of("UID1", "UID2"), first.getProductos().stream().map(Product::getUID).toList());
+        assertEquals(List.of("UID3"), second.getProductos().stream().map(Product::getUID).toList());
+        assertNull(second.getSiguienteCursor());
+        verify(firestoreService, never()).getProductsPage(anyInt(), any(), any());
+    }
+
+    /**
+     * Verifica que con una instantánea local el catálogo se sirve desde el arranque, y que la primera
+     * instantánea de Firestore solo publica los productos que han cambiado desde entonces.
+     */
+    @Test
+    void testStart_WarmStartFromLocalSnapshot() throws Exception {
+        Product carrete = new Product();
+        carrete.setUID("UID1");
+        carrete.setNombre("Carrete");
+        Product caña = new Product();
+        caña.setUID("UID2");
+        caña.setNombre("Caña");
+        when(snapshotStore.load()).thenReturn(new CatalogSnapshotStore.Snapshot(List.of(
+                new CatalogSnapshotStore.Entry(carrete, Timestamp.ofTimeSecondsAndNanos(1, 0)),
+                new CatalogSnapshotStore.Entry(caña, Timestamp.ofTimeSecondsAndNanos(1, 0))),
+                Timestamp.ofTimeSecondsAndNanos(1, 0)));
+        ProductCatalogService warm = new ProductCatalogService(firestoreService, eventPublisher, snapshotStore);
+
+        warm.start();
+
+        assertTrue(warm.isLoaded());
+        assertEquals(List.of("UID1", "UID2"), warm.getAllProducts().stream().map(Product::getUID).toList());
+        verify(firestoreService, never()).getAllProducts();
+
+        List<QueryDocumentSnapshot> documents = List.of(document("UID1", "Carrete", 1), document("UID3", "Señuelo", 2));
+        QuerySnapshot snapshot = mock(QuerySnapshot.class);
+        when(snapshot.getDocuments()).thenReturn(documents);
+        captor.getValue().onEvent(snapshot, null);
+
+        ArgumentCaptor<ProductCatalogChangedEvent> event = ArgumentCaptor.forClass(ProductCatalogChangedEvent.class);
+        verify(eventPublisher, times(2)).publishEvent(event.capture());
+        ProductCatalogChangedEvent reconciled = event.getAllValues().get(1);
+        assertEquals(2, reconciled.getCambios().size());
+        assertEquals("UID3", reconciled.getCambios().get(0).getUID());
+        assertTrue(reconciled.getCambios().get(1).isEliminacion());
+        assertEquals(List.of("UID1", "UID3"), warm.getAllProducts().stream().map(Product::getUID).toList());
+        warm.stop();
+        verify(snapshotStore).save(argThat(entries -> entries.size() == 2), any());
+    }
+
+    /**
+     * Verifica la sincronización incremental: sin token se devuelve el catálogo completo y con el token
+     * devuelto solo los productos creados, modificados o eliminados después.
+     */
+    @Test
+    void testGetChangesSince() {
+        List<QueryDocumentSnapshot> documents = List.of(document("UID1", "Carrete", 1), document("UID2", "Caña", 1));
+        QuerySnapshot initial = mock(QuerySnapshot.class);
+        when(initial.getDocuments()).thenReturn(documents);
+        when(initial.getReadTime()).thenReturn(Timestamp.ofTimeSecondsAndNanos(10, 0));
+        listener.onEvent(initial, null);
+
+        ProductSyncResult full = productCatalogService.getChangesSince(null);
+        assertTrue(full.isCompleto());
+        assertEquals(2, full.getProductos().size());
+
+        List<DocumentChange> changes = List.of(
+                change(DocumentChange.Type.MODIFIED, document("UID1", "Carrete Shimano", 11)),
+                change(DocumentChange.Type.REMOVED, document("UID2", "Caña", 1)),
+                change(DocumentChange.Type.ADDED, document("UID3", "Señuelo", 12)));
+        QuerySnapshot update = mock(QuerySnapshot.class);
+        when(update.getDocumentChanges()).thenReturn(changes);
+        when(update.getReadTime()).thenReturn(Timestamp.ofTimeSecondsAndNanos(12, 0));
+        listener.onEvent(update, null);
+
+        ProductSyncResult delta = productCatalogService.getChangesSince(full.getToken());
+        assertFalse(delta.isCompleto());
+        assertEquals(List.of("UID1", "UID3"), delta.getProductos().stream().map(Product::getUID).toList());
+        assertEquals(List.of("UID2"), delta.getEliminados());
+        assertEquals(Timestamp.ofTimeSecondsAndNanos(12, 0).toString(), delta.getToken());
+
+        ProductSyncResult empty = productCatalogService.getChangesSince(delta.getToken());
+        assertTrue(empty.getProductos().isEmpty());
+        assertTrue(empty.getEliminados().isEmpty());
+        assertTrue(productCatalogService.getChangesSince(Timestamp.ofTimeSecondsAndNanos(5, 0).toString()).isCompleto());
+        assertThrows(IllegalArgumentException.class, () -> productCatalogService.getChangesSince("ayer"));
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.pescAstur.serviceTest;
+
+import com.example.pescAstur.model.Product;
+import com.example.pescAstur.service.ProductDocumentCodec;
+import com.example.pescAstur.service.ProductRatings;
+import org.junit.jupiter.api.Test;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProductDocumentCodecTest {
+
+    /**
+     * Verifica que un producto escrito con toData se lee igual, con los tipos que devuelve Firestore
+     * (enteros como Long) y el UID del documento.
+     */
+    @Test
+    void testRoundTrip() {
+        Product product = new Product();
+        product.setNombre("Caña telescópica");
+        product.setCategoria("Cañas");
+        product.setImagenURL("http://example.com/cana.jpg");
+        product.setCantidadStock(12);
+        product.setPrecio(49.9);
+        product.setDescuento(10);
+        product.setComentarios(List.of("Muy buena"));
+        product.setValoraciones(ProductRatings.fromRatings(List.of(5, 4)));
+
+        Map<String, Object> data = ProductDocumentCodec.toData(product);
+        assertEquals(12L, data.get("cantidadStock"));
+        data.put("uid", "ignorado");
+        Product read = ProductDocumentCodec.fromData("UID1", data);
+
+        product.setUID("UID1");
+        assertEquals(product, read);
+    }
+
+    /**
+     * Verifica que la lista antigua de valoraciones se resume en el agregado y no se conserva.
+     */
+    @Test
+    void testLegacyRatings() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("nombre", "Carrete");
+        data.put("rating", List.of(4L, 3L));
+        data.put("precio", 20L);
+
+        Product product = ProductDocumentCodec.fromData("UID1", data);
+
+        assertNull(product.getRating());
+        assertEquals(2, product.getValoraciones().getRecuento());
+        assertEquals(3.5, product.getValoraciones().getMedia());
+        assertEquals(20.0, product.getPrecio());
+    }
+
+    /**
+     * Verifica que un campo con un tipo que no corresponde se rechaza.
+     */
+    @Test
+    void testInvalidField() {
+        assertThrows(IllegalArgumentException.class,
+                () -> ProductDocumentCodec.fromData("UID1", Map.of("cantidadStock", "doce")));
+        assertThrows(IllegalArgumentException.class,
+                () -> ProductDocumentCodec.fromData("UID1", Map.of("cantidadStock", 1L << 40)));
+        assertThrows(IllegalArgumentException.class,
+                () -> ProductDocumentCodec.fromData("UID1", Map.of("comentarios", List.of(1L))));
+    }
+
+    /**
+     * Verifica que los números guardados como Double se convierten igual que con toObject: los campos enteros
+     * se truncan si caben en su tipo y los que no caben se rechazan.
+     */
+    @Test
+    void testDoubleNumbers() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("cantidadStock", 12.0);
+        data.put("fragmentosStock", 4.7);
+        data.put("precio", 20L);
+        data.put("valoraciones", Map.of("recuento", 2.0, "suma", 9.0, "media", 4.5, "histograma", List.of(0.0, 0.0, 0.0, 1.0, 1.0)));
+
+        Product product = ProductDocumentCodec.fromData("UID1", data);
+
+        assertEquals(12, product.getCantidadStock());
+        assertEquals(4, product.getFragmentosStock());
+        assertEquals(20.0, product.getPrecio());
+        assertEquals(2, product.getValoraciones().getRecuento());
+        assertEquals(9, product.getValoraciones().getSuma());
+        assertEquals(List.of(0L, 0L, 0L, 1L, 1L), product.getValoraciones().getHistograma());
+        assertThrows(IllegalArgumentException.class,
+                () -> ProductDocumentCodec.fromData("UID1", Map.of("cantidadStock", 1e12)));
+        assertThrows(IllegalArgumentException.class,
+                () -> ProductDocumentCodec.fromData("UID1", Map.of("precio", (1L << 53) + 1)));
+    }
+}
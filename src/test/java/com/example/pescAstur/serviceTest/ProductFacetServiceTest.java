@@ -0,0 +1,91 @@
+package com.example.pescAstur.serviceTest;
+
+import com.example.pescAstur.model.Product;
+import com.example.pescAstur.model.ProductFacetResult;
+import com.example.pescAstur.service.ProductCatalogChangedEvent;
+import com.example.pescAstur.service.ProductChange;
+import com.example.pescAstur.service.ProductFacetService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.util.List;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProductFacetServiceTest {
+
+    private ProductFacetService productFacetService;
+    private Product carrete;
+
+    @BeforeEach
+    void setUp() {
+        productFacetService = new ProductFacetService();
+        carrete = product("UID1", "Carretes", "Shimano", 120.0, 0);
+        productFacetService.onCatalogChanged(new ProductCatalogChangedEvent(1, List.of(
+                new ProductChange(null, carrete),
+                new ProductChange(null, product("UID2", "Carretes", "Daiwa", 40.0, 50)),
+                new ProductChange(null, product("UID3", "Cañas", "Shimano", 80.0, 0)),
+                new ProductChange(null, product("UID4", "Señuelos", "Rapala", 9.5, 0)))));
+    }
+
+    private Product product(String uid, String categoria, String marca, double precio, double descuento) {
+        Product product = new Product();
+        product.setUID(uid);
+        product.setCategoria(categoria);
+        product.setMarca(marca);
+        product.setPrecio(precio);
+        product.setDescuento(descuento);
+        return product;
+    }
+
+    private List<String> uids(ProductFacetResult result) {
+        return result.getProductos().stream().map(Product::getUID).toList();
+    }
+
+    /**
+     * Verifica que las bandas de precio se calculan sobre el precio con descuento.
+     */
+    @Test
+    void testPriceBand() {
+        assertEquals("0-10", ProductFacetService.priceBand(9.5));
+        assertEquals("10-25", ProductFacetService.priceBand(20.0));
+        assertEquals("250+", ProductFacetService.priceBand(300.0));
+    }
+
+    /**
+     * Verifica que los valores de una faceta se combinan con OR, las facetas entre sí con AND,
+     * y que los recuentos de cada faceta no aplican su propio filtro.
+     */
+    @Test
+    void testQuery_IntersectsFacets() {
+        ProductFacetResult result = productFacetService.query(Map.of(
+                "categoria", List.of("Carretes", "Cañas"),
+                "marca", List.of("Shimano")), 0, 10);
+
+        assertEquals(List.of("UID1", "UID3"), uids(result));
+        assertEquals(2, result.getTotal());
+        assertEquals(Map.of("Carretes", 1, "Cañas", 1), result.getFacetas().get("categoria"));
+        assertEquals(Map.of("Shimano", 2, "Daiwa", 1), result.getFacetas().get("marca"));
+        assertEquals(Map.of("50-100", 1, "100-250", 1), result.getFacetas().get("precio"));
+
+        ProductFacetResult byPrice = productFacetService.query(Map.of("precio", List.of("10-25")), 0, 10);
+        assertEquals(List.of("UID2"), uids(byPrice));
+        assertEquals(List.of("UID3"), uids(productFacetService.query(Map.of("marca", List.of("Shimano")), 1, 10)));
+        assertThrows(IllegalArgumentException.class, () -> productFacetService.query(Map.of("color", List.of("rojo")), 0, 10));
+    }
+
+    /**
+     * Verifica que al modificar o eliminar productos se actualizan los bitmaps afectados.
+     */
+    @Test
+    void testQuery_UpdatedIncrementally() {
+        productFacetService.onCatalogChanged(new ProductCatalogChangedEvent(2, List.of(
+                new ProductChange(carrete, product("UID1", "Carretes", "Penn", 120.0, 0)),
+                new ProductChange(product("UID3", "Cañas", "Shimano", 80.0, 0), null))));
+
+        ProductFacetResult result = productFacetService.query(Map.of(), 0, 10);
+        assertEquals(3, result.getTotal());
+        assertNull(result.getFacetas().get("marca").get("Shimano"));
+        assertEquals(1, result.getFacetas().get("marca").get("Penn"));
+        assertFalse(result.getFacetas().get("categoria").containsKey("Cañas"));
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.pescAstur.serviceTest;
+
+import com.example.pescAstur.model.Product;
+import com.example.pescAstur.service.ProductCatalogChangedEvent;
+import com.example.pescAstur.service.ProductChange;
+import com.example.pescAstur.service.ProductRankingService;
+import com.example.pescAstur.service.ProductRatings;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProductRankingServiceTest {
+
+    private ProductRankingService productRankingService;
+    private Product caña;
+
+    @BeforeEach
+    void setUp() {
+        productRankingService = new ProductRankingService();
+        caña = product("UID1", 100.0, 0, "01/11/2024", 5, 4);
+        productRankingService.onCatalogChanged(new ProductCatalogChangedEvent(1, List.of(
+                new ProductChange(null, caña),
+                new ProductChange(null, product("UID2", 60.0, 50, "15/10/2024", 3)),
+                new ProductChange(null, product("UID3", 30.0, 0, "2024-12-01")),
+                new ProductChange(null, product("UID4", 30.0, 0, "sin fecha", 5)))));
+    }
+
+    private Product product(String uid, double precio, double descuento, String fecha, int... ratings) {
+        Product product = new Product();
+        product.setUID(uid);
+        product.setPrecio(precio);
+        product.setDescuento(descuento);
+        product.setFechaCreacion(fecha);
+        if (ratings.length > 0) {
+            product.setValoraciones(ProductRatings.fromRatings(Arrays.stream(ratings).boxed().toList()));
+        }
+        return product;
+    }
+
+    private List<String> uids(List<Product> products) {
+        return products.stream().map(Product::getUID).toList();
+    }
+
+    /**
+     * Verifica el orden por precio final (con descuento) en ambos sentidos y con rango de precios.
+     */
+    @Test
+    void testQuery_ByPrice() {
+        assertEquals(List.of("UID2", "UID3", "UID4"), uids(productRankingService.query("precio", false, null, null, 3)));
+        assertEquals(List.of("UID1", "UID4"), uids(productRankingService.query("precio", true, null, null, 2)));
+        assertEquals(List.of("UID2", "UID3", "UID4"), uids(productRankingService.query("precio", false, "30", "30", 10)));
+        assertEquals(List.of("UID1"), uids(productRankingService.query("precio", false, "31", null, 10)));
+        assertEquals(List.of("UID2", "UID3", "UID4"), uids(productRankingService.query("precio", false, null, "50", 10)));
+    }
+
+    /**
+     * Verifica el orden por valoración media y por fecha de creación, que omite las fechas no válidas.
+     */
+    @Test
+    void testQuery_ByRatingAndNewest() {
+        assertEquals(List.of("UID4", "UID1", "UID2", "UID3"), uids(productRankingService.query("valoracion", true, null, null, 10)));
+        assertEquals(List.of("UID3", "UID1", "UID2"), uids(productRankingService.query("novedad", true, null, null, 10)));
+        assertEquals(List.of("UID1", "UID2"), uids(productRankingService.query("novedad", true, "01/10/2024", "30/11/2024", 10)));
+        assertThrows(IllegalArgumentException.class, () -> productRankingService.query("nombre", false, null, null, 10));
+        assertThrows(IllegalArgumentException.class, () -> productRankingService.query("precio", false, "50", "10", 10));
+    }
+
+    /**
+     * Verifica que los cambios y eliminaciones del catálogo reordenan los listados.
+     */
+    @Test
+    void testOnCatalogChanged_UpdatesRankings() {
+        Product rebajada = product("UID1", 100.0, 90, "01/11/2024", 5, 4);
+        productRankingService.onCatalogChanged(new ProductCatalogChangedEvent(2, List.of(
+                new ProductChange(caña, rebajada),
+                new ProductChange(product("UID3", 30.0, 0, "2024-12-01"), null))));
+
+        assertEquals(List.of("UID1", "UID2", "UID4"), uids(productRankingService.query("precio", false, null, null, 10)));
+        assertEquals(List.of("UID1", "UID2"), uids(productRankingService.query("novedad", true, null, null, 10)));
+    }
+}
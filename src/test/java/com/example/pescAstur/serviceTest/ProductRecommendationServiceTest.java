@@ -0,0 +1,106 @@
+package com.example.pescAstur.serviceTest;
+
+import com.example.pescAstur.model.Product;
+import com.example.pescAstur.model.ProductRecommendation;
+import com.example.pescAstur.service.ProductCatalogChangedEvent;
+import com.example.pescAstur.service.ProductCatalogService;
+import com.example.pescAstur.service.ProductChange;
+import com.example.pescAstur.service.ProductRecommendationService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class ProductRecommendationServiceTest {
+
+    private final Map<String, Product> catalog = new HashMap<>();
+    private ProductRecommendationService productRecommendationService;
+
+    @BeforeEach
+    void setUp() {
+        ProductCatalogService productCatalogService = mock(ProductCatalogService.class);
+        when(productCatalogService.getProduct(anyString())).thenAnswer(invocation -> catalog.get(invocation.getArgument(0)));
+        productRecommendationService = new ProductRecommendationService(productCatalogService);
+        for (String uid : List.of("caña", "carrete", "sedal", "anzuelo")) {
+            Product product = new Product();
+            product.setUID(uid);
+            catalog.put(uid, product);
+        }
+    }
+
+    private List<String> related(String uid) {
+        return productRecommendationService.getRelated(uid, 10).stream()
+                .map(recommendation -> recommendation.getProducto().getUID()).toList();
+    }
+
+    /**
+     * Verifica que los productos relacionados se ordenan por número de pedidos en común
+     * y que las repeticiones dentro de un pedido cuentan una vez.
+     */
+    @Test
+    void testRecordOrder_RanksByCooccurrence() {
+        productRecommendationService.recordOrder(List.of("caña", "carrete", "sedal"));
+        productRecommendationService.recordOrder(List.of("caña", "carrete", "carrete"));
+        productRecommendationService.recordOrder(List.of("caña", "anzuelo"));
+        productRecommendationService.recordOrder(List.of("sedal"));
+
+        assertEquals(List.of("carrete", "anzuelo", "sedal"), related("caña"));
+        List<ProductRecommendation> carrete = productRecommendationService.getRelated("carrete", 1);
+        assertEquals("caña", carrete.get(0).getProducto().getUID());
+        assertEquals(2, carrete.get(0).getCompradosJuntos());
+        assertTrue(related("desconocido").isEmpty());
+    }
+
+    /**
+     * Verifica que los productos eliminados del catálogo no se recomiendan.
+     */
+    @Test
+    void testGetRelated_SkipsRemovedProducts() {
+        productRecommendationService.recordOrder(List.of("caña", "carrete", "sedal"));
+        catalog.remove("carrete");
+
+        assertEquals(List.of("sedal"), related("caña"));
+    }
+
+    /**
+     * Verifica que un producto eliminado del catálogo se quita de la matriz: su fila y sus apariciones
+     * en las filas de los demás.
+     */
+    @Test
+    void testOnCatalogChanged_DropsDeletedProducts() {
+        productRecommendationService.recordOrder(List.of("caña", "carrete", "sedal"));
+        Product carrete = catalog.get("carrete");
+
+        productRecommendationService.onCatalogChanged(
+                new ProductCatalogChangedEvent(2, List.of(new ProductChange(carrete, null))));
+
+        assertEquals(List.of("sedal"), related("caña"));
+        assertTrue(related("carrete").isEmpty());
+    }
+
+    /**
+     * Verifica que cada fila de la matriz conserva un número acotado de productos y que se quedan
+     * los de más pedidos en común.
+     */
+    @Test
+    void testRecordOrder_BoundedRows() {
+        productRecommendationService.recordOrder(List.of("caña", "carrete"));
+        productRecommendationService.recordOrder(List.of("caña", "carrete"));
+        List<String> order = new ArrayList<>();
+        for (int i = 0; i < ProductRecommendationService.MAX_COOCURRENCIAS_POR_PRODUCTO * 2; i++) {
+            order.clear();
+            order.add("caña");
+            order.add("raro" + i);
+            productRecommendationService.recordOrder(order);
+        }
+
+        List<ProductRecommendation> top = productRecommendationService.getRelated("caña", 1);
+        assertEquals("carrete", top.get(0).getProducto().getUID());
+        assertEquals(2, top.get(0).getCompradosJuntos());
+    }
+}
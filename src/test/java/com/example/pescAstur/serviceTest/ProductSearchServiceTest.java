@@ -0,0 +1,112 @@
+package com.example.pescAstur.serviceTest;
+
+import com.example.pescAstur.model.Product;
+import com.example.pescAstur.model.ProductSearchHit;
+import com.example.pescAstur.service.ProductCatalogChangedEvent;
+import com.example.pescAstur.service.ProductCatalogService;
+import com.example.pescAstur.service.ProductChange;
+import com.example.pescAstur.service.ProductSearchService;
+import com.example.pescAstur.service.SpanishAnalyzer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class ProductSearchServiceTest {
+
+    private final Map<String, Product> catalog = new HashMap<>();
+    private ProductSearchService productSearchService;
+
+    @BeforeEach
+    void setUp() {
+        ProductCatalogService productCatalogService = mock(ProductCatalogService.class);
+        when(productCatalogService.getProduct(anyString())).thenAnswer(invocation -> catalog.get(invocation.getArgument(0)));
+        productSearchService = new ProductSearchService(productCatalogService);
+
+        apply(new ProductChange(null, product("UID1", "Carrete Shimano Sedona", "Shimano", "Carretes", "Carrete de spinning")),
+                new ProductChange(null, product("UID2", "Caña telescópica", "Daiwa", "Cañas", "Caña ligera para carrete pequeño")),
+                new ProductChange(null, product("UID3", "Señuelo vinilo", "Savage Gear", "Señuelos", "Imita peces pequeños")));
+    }
+
+    private Product product(String uid, String nombre, String marca, String categoria, String descripcion) {
+        Product product = new Product();
+        product.setUID(uid);
+        product.setNombre(nombre);
+        product.setMarca(marca);
+        product.setCategoria(categoria);
+        product.setDescripcion(descripcion);
+        return product;
+    }
+
+    private void apply(ProductChange... changes) {
+        for (ProductChange change : changes) {
+            if (change.isEliminacion()) {
+                catalog.remove(change.getUID());
+            } else {
+                catalog.put(change.getUID(), change.getActual());
+            }
+        }
+        productSearchService.onCatalogChanged(new ProductCatalogChangedEvent(1, List.of(changes)));
+    }
+
+    /**
+     * Verifica que el análisis elimina acentos y reduce singular y plural a la misma raíz.
+     */
+    @Test
+    void testAnalyzer_FoldsAccentsAndStems() {
+        assertEquals(SpanishAnalyzer.analyze("Cañas"), SpanishAnalyzer.analyze("cana"));
+        assertEquals(SpanishAnalyzer.analyze("carretes"), SpanishAnalyzer.analyze("Carrete"));
+        assertEquals(SpanishAnalyzer.analyze("peces"), SpanishAnalyzer.analyze("pez"));
+        assertEquals(List.of("senuel"), SpanishAnalyzer.analyze("los señuelos"));
+    }
+
+    /**
+     * Verifica que la búsqueda ignora acentos y que el nombre pesa más que la descripción.
+     */
+    @Test
+    void testSearch_RanksByRelevance() {
+        List<ProductSearchHit> hits = productSearchService.search("carretes", 10);
+
+        assertEquals(List.of("UID1", "UID2"), hits.stream().map(hit -> hit.getProducto().getUID()).toList());
+        assertTrue(hits.get(0).getPuntuacion() > hits.get(1).getPuntuacion());
+        assertEquals("UID3", productSearchService.search("senuelos", 10).get(0).getProducto().getUID());
+        assertEquals(1, productSearchService.search("carrete", 1).size());
+        assertTrue(productSearchService.search("mosca", 10).isEmpty());
+    }
+
+    /**
+     * Verifica que el índice se actualiza de forma incremental al modificar y eliminar productos.
+     */
+    @Test
+    void testSearch_UpdatedIncrementally() {
+        Product old = catalog.get("UID1");
+        apply(new ProductChange(old, product("UID1", "Mosca seca", "Hends", "Moscas", "Mosca para trucha")),
+                new ProductChange(catalog.get("UID3"), null));
+
+        assertEquals(List.of("UID2"), productSearchService.search("carrete", 10).stream()
+                .map(hit -> hit.getProducto().getUID()).toList());
+        assertEquals("UID1", productSearchService.search("moscas", 10).get(0).getProducto().getUID());
+        assertTrue(productSearchService.search("señuelo", 10).isEmpty());
+    }
+
+    /**
+     * Verifica que los términos mal escritos se corrigen con los más parecidos del catálogo
+     * y que una corrección puntúa menos que la palabra exacta.
+     */
+    @Test
+    void testSearch_TypoTolerant() {
+        assertEquals("UID1", productSearchService.search("carete shimno", 10).get(0).getProducto().getUID());
+        assertEquals("UID3", productSearchService.search("señulos", 10).get(0).getProducto().getUID());
+        assertEquals("UID2", productSearchService.search("telescopcia", 10).get(0).getProducto().getUID());
+
+        double exact = productSearchService.search("shimano", 1).get(0).getPuntuacion();
+        double corrected = productSearchService.search("shimno", 1).get(0).getPuntuacion();
+        assertTrue(corrected < exact);
+        // Las palabras cortas no se corrigen: casi cualquier palabra estaría a una edición
+        assertTrue(productSearchService.search("gar", 10).isEmpty());
+    }
+}
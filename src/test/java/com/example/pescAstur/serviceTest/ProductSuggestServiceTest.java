@@ -0,0 +1,79 @@
+package com.example.pescAstur.serviceTest;
+
+import com.example.pescAstur.model.Product;
+import com.example.pescAstur.model.ProductSuggestion;
+import com.example.pescAstur.service.ProductCatalogChangedEvent;
+import com.example.pescAstur.service.ProductChange;
+import com.example.pescAstur.service.ProductRatings;
+import com.example.pescAstur.service.ProductSuggestService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.util.Collections;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProductSuggestServiceTest {
+
+    private ProductSuggestService productSuggestService;
+    private Product carrete;
+
+    @BeforeEach
+    void setUp() {
+        productSuggestService = new ProductSuggestService();
+        carrete = product("UID2", "Carrete Shimano Sedona", "Shimano", 5);
+        productSuggestService.onCatalogChanged(new ProductCatalogChangedEvent(1, List.of(
+                new ProductChange(null, product("UID1", "Caña telescópica", "Shimano", 2)),
+                new ProductChange(null, carrete),
+                new ProductChange(null, product("UID3", "Cañas de surfcasting", "Daiwa", 1)))));
+    }
+
+    private Product product(String uid, String nombre, String marca, int valoraciones) {
+        Product product = new Product();
+        product.setUID(uid);
+        product.setNombre(nombre);
+        product.setMarca(marca);
+        product.setValoraciones(ProductRatings.fromRatings(Collections.nCopies(valoraciones, 5)));
+        return product;
+    }
+
+    private List<String> textos(String prefix) {
+        return productSuggestService.suggest(prefix, 10).stream().map(ProductSuggestion::getTexto).toList();
+    }
+
+    /**
+     * Verifica que se completan prefijos del principio y de cualquier palabra, sin distinguir acentos,
+     * y que las sugerencias se ordenan por popularidad.
+     */
+    @Test
+    void testSuggest_ByPrefixAndPopularity() {
+        assertEquals(List.of("Caña telescópica", "Cañas de surfcasting"), textos("CAÑ"));
+        assertEquals(List.of("Caña telescópica"), textos("cana "));
+        assertEquals(List.of("Caña telescópica"), textos("telesc"));
+        assertEquals(List.of("Shimano", "Carrete Shimano Sedona"), textos("shim"));
+
+        ProductSuggestion marca = productSuggestService.suggest("shi", 1).get(0);
+        assertEquals(ProductSuggestService.TIPO_MARCA, marca.getTipo());
+        assertEquals(7, marca.getPopularidad());
+        assertTrue(textos("xyz").isEmpty());
+        assertTrue(textos(" ").isEmpty());
+    }
+
+    /**
+     * Verifica que las sugerencias se actualizan al modificar y eliminar productos.
+     */
+    @Test
+    void testSuggest_IncrementalUpdates() {
+        Product renamed = product("UID2", "Carrete Penn Battle", "Penn", 5);
+        productSuggestService.onCatalogChanged(new ProductCatalogChangedEvent(2, List.of(
+                new ProductChange(carrete, renamed))));
+        assertEquals(List.of("Shimano"), textos("shim"));
+        assertEquals(2, productSuggestService.suggest("shim", 1).get(0).getPopularidad());
+        assertEquals(List.of("Carrete Penn Battle"), textos("carr"));
+
+        productSuggestService.onCatalogChanged(new ProductCatalogChangedEvent(3, List.of(
+                new ProductChange(renamed, null))));
+        assertTrue(textos("carr").isEmpty());
+        assertTrue(textos("penn").isEmpty());
+        assertEquals(List.of("Caña telescópica", "Cañas de surfcasting"), textos("c"));
+    }
+}
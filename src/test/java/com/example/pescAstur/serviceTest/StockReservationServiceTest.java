@@ -0,0 +1,218 @@
+package com.example.pescAstur.serviceTest;
+
+import com.example.pescAstur.model.Product;
+import com.example.pescAstur.model.StockReservation;
+import com.example.pescAstur.service.FirestoreService;
+import com.example.pescAstur.service.ProductCatalogChangedEvent;
+import com.example.pescAstur.service.ProductChange;
+import com.example.pescAstur.service.StockReservationService;
+import com.example.pescAstur.service.StockUpdateCoalescer;
+import com.example.pescAstur.service.StockUpdateResult;
+import com.google.cloud.Timestamp;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+public class StockReservationServiceTest {
+
+    private FirestoreService firestoreService;
+    private StockUpdateCoalescer stockUpdateCoalescer;
+    private StockReservationService reservations;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        firestoreService = mock(FirestoreService.class);
+        stockUpdateCoalescer = mock(StockUpdateCoalescer.class);
+        when(stockUpdateCoalescer.getTimeout()).thenReturn(Duration.ofSeconds(5));
+        when(firestoreService.getProductByUID("UID1")).thenReturn(product("UID1", 10, 0));
+        when(firestoreService.getProductByUID("UID2")).thenReturn(product("UID2", 2, 0));
+        when(firestoreService.getProductStock("UID1")).thenReturn(10L);
+        when(firestoreService.getProductStock("UID2")).thenReturn(2L);
+        reservations = new StockReservationService(firestoreService, stockUpdateCoalescer,
+                Duration.ofMinutes(10), Duration.ofSeconds(1));
+    }
+
+    private static Product line(String UID, int cantidad) {
+        Product product = new Product();
+        product.setUID(UID);
+        product.setCantidad(cantidad);
+        return product;
+    }
+
+    private static Product product(String UID, int stock, int fragmentos) {
+        Product product = new Product();
+        product.setUID(UID);
+        product.setCantidadStock(stock);
+        product.setFragmentosStock(fragmentos);
+        return product;
+    }
+
+    /**
+     * Verifica que una reserva se concede entera o no se concede: si falta stock de un producto,
+     * el stock ya reservado de los demás vuelve a estar disponible.
+     */
+    @Test
+    void testReserve_AllOrNothing() throws Exception {
+        StockReservation reservation = reservations.reserve(List.of(line("UID1", 4), line("UID1", 1)));
+
+        assertEquals(Map.of("UID1", 5), reservation.getProductos());
+        assertNotNull(reservation.getExpira());
+        assertEquals(5L, reservations.getAvailable("UID1"));
+        assertEquals(5L, reservations.getReserved("UID1"));
+        assertThrows(IllegalStateException.class,
+                () -> reservations.reserve(List.of(line("UID1", 3), line("UID2", 3))));
+        assertEquals(5L, reservations.getAvailable("UID1"));
+        assertEquals(2L, reservations.getAvailable("UID2"));
+        verify(firestoreService, times(1)).getProductStock("UID1");
+    }
+
+    /**
+     * Verifica que un producto inexistente a mitad de la reserva no deja reservado el stock de las líneas
+     * anteriores, ni para otras reservas ni para los pedidos directos.
+     */
+    @Test
+    void testReserve_UnknownProductReservesNothing() throws Exception {
+        when(firestoreService.getProductByUID("UIDX")).thenReturn(null);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> reservations.reserve(List.of(line("UID1", 4), line("UID2", 1), line("UIDX", 1))));
+
+        assertEquals(10L, reservations.getAvailable("UID1"));
+        assertEquals(0L, reservations.getReserved("UID1"));
+        assertEquals(2L, reservations.getAvailable("UID2"));
+        assertEquals(0L, reservations.getReserved("UID2"));
+    }
+
+    /**
+     * Verifica que confirmar una reserva descuenta su stock en Firestore por la vía comprobada de los pedidos
+     * y que la reserva deja de contar como stock reservado.
+     */
+    @Test
+    void testCommit_WritesThroughCheckedPath() throws Exception {
+        String id = reservations.reserve(List.of(line("UID1", 2), line("UID2", 1))).getId();
+        when(stockUpdateCoalescer.submit(anyList())).thenReturn(CompletableFuture.completedFuture(StockUpdateResult.aplicado(
+                "Pedido procesado y stock actualizado correctamente para todos los productos")));
+
+        assertEquals(Map.of("UID1", 2, "UID2", 1), reservations.commit(id));
+
+        verify(stockUpdateCoalescer).submit(argThat(products -> products.size() == 2
+                && products.get(0).getUID().equals("UID1") && products.get(0).getCantidad() == 2));
+        assertEquals(0L, reservations.getReserved("UID1"));
+        assertEquals(8L, reservations.getAvailable("UID1"));
+        assertThrows(IllegalArgumentException.class, () -> reservations.commit(id));
+    }
+
+    /**
+     * Verifica que si Firestore ya no tiene stock suficiente la confirmación falla, la reserva se anula
+     * y su stock vuelve a estar disponible.
+     */
+    @Test
+    void testCommit_InsufficientStock() throws Exception {
+        String id = reservations.reserve(List.of(line("UID1", 4))).getId();
+        when(stockUpdateCoalescer.submit(anyList())).thenReturn(CompletableFuture.completedFuture(StockUpdateResult.rechazado(
+                "Error: Stock insuficiente para el producto con ID UID1")));
+
+        IllegalStateException error = assertThrows(IllegalStateException.class, () -> reservations.commit(id));
+
+        assertEquals("Stock insuficiente para el producto con ID UID1", error.getMessage());
+        assertEquals(10L, reservations.getAvailable("UID1"));
+        assertEquals(0L, reservations.getReserved("UID1"));
+        assertFalse(reservations.cancel(id));
+    }
+
+    /**
+     * Verifica que un error transitorio al escribir conserva la reserva para poder reintentar la confirmación.
+     */
+    @Test
+    void testCommit_TransientErrorKeepsHold() throws Exception {
+        String id = reservations.reserve(List.of(line("UID1", 4))).getId();
+        when(stockUpdateCoalescer.submit(anyList()))
+                .thenReturn(CompletableFuture.completedFuture(
+                        StockUpdateResult.fallido("Error al procesar el pedido: Firestore no disponible")))
+                .thenReturn(CompletableFuture.completedFuture(StockUpdateResult.aplicado(
+                        "Pedido procesado y stock actualizado correctamente para todos los productos")));
+
+        assertThrows(ExecutionException.class, () -> reservations.commit(id));
+        assertEquals(4L, reservations.getReserved("UID1"));
+        assertEquals(6L, reservations.getAvailable("UID1"));
+
+        assertEquals(Map.of("UID1", 4), reservations.commit(id));
+        assertEquals(0L, reservations.getReserved("UID1"));
+    }
+
+    /**
+     * Verifica que si la escritura no termina a tiempo la reserva no se conserva (la escritura puede aplicarse
+     * después) y el stock se ajusta con el resultado cuando llega.
+     */
+    @Test
+    void testCommit_TimeoutSettlesLate() throws Exception {
+        String id = reservations.reserve(List.of(line("UID1", 4))).getId();
+        CompletableFuture<StockUpdateResult> late = new CompletableFuture<>();
+        when(stockUpdateCoalescer.getTimeout()).thenReturn(Duration.ofMillis(20));
+        when(stockUpdateCoalescer.submit(anyList())).thenReturn(late);
+
+        assertThrows(ExecutionException.class, () -> reservations.commit(id));
+        assertEquals(0L, reservations.getReserved("UID1"));
+        assertFalse(reservations.cancel(id));
+
+        late.complete(StockUpdateResult.rechazado("Error: Stock insuficiente para el producto con ID UID1"));
+        assertEquals(10L, reservations.getAvailable("UID1"));
+    }
+
+    /**
+     * Verifica que las reservas caducadas devuelven su stock y ya no se pueden confirmar.
+     */
+    @Test
+    void testExpireHolds() throws Exception {
+        reservations = new StockReservationService(firestoreService, stockUpdateCoalescer,
+                Duration.ofMillis(1), Duration.ofSeconds(1));
+        String id = reservations.reserve(List.of(line("UID1", 4))).getId();
+        Thread.sleep(10);
+
+        assertEquals(1, reservations.expireHolds());
+        assertEquals(10L, reservations.getAvailable("UID1"));
+        assertThrows(IllegalArgumentException.class, () -> reservations.commit(id));
+        verifyNoInteractions(stockUpdateCoalescer);
+    }
+
+    /**
+     * Verifica que el stock disponible se reajusta con el stock del documento descontando lo reservado.
+     */
+    @Test
+    void testOnCatalogChanged_Rebase() throws Exception {
+        reservations.reserve(List.of(line("UID1", 2)));
+
+        // Otra vía ha vendido 1
+        reservations.onCatalogChanged(event(product("UID1", 9, 0)));
+
+        assertEquals(7L, reservations.getAvailable("UID1"));
+        assertEquals(2L, reservations.getReserved("UID1"));
+    }
+
+    /**
+     * Verifica que el stock de un producto fragmentado se reajusta con la suma de sus fragmentos
+     * y no con el stock del documento.
+     */
+    @Test
+    void testRefresh_ShardedProduct() throws Exception {
+        reservations.reserve(List.of(line("UID1", 2)));
+        reservations.onCatalogChanged(event(product("UID1", 0, 4)));
+        assertEquals(8L, reservations.getAvailable("UID1"));
+        when(firestoreService.getProductStock("UID1")).thenReturn(6L);
+
+        reservations.refresh();
+
+        assertEquals(4L, reservations.getAvailable("UID1"));
+    }
+
+    private static ProductCatalogChangedEvent event(Product product) {
+        return new ProductCatalogChangedEvent(1, List.of(new ProductChange(null, product, Timestamp.now())));
+    }
+}
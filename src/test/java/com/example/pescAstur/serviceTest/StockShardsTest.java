@@ -0,0 +1,30 @@
+package com.example.pescAstur.serviceTest;
+
+import com.example.pescAstur.service.StockShards;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StockShardsTest {
+
+    /**
+     * Verifica que el stock se reparte a partes iguales y que el resto va a los primeros fragmentos.
+     */
+    @Test
+    void testSplit() {
+        assertArrayEquals(new long[]{4, 3, 3}, StockShards.split(10, 3));
+        assertArrayEquals(new long[]{1, 1, 0, 0}, StockShards.split(2, 4));
+    }
+
+    /**
+     * Verifica que una cantidad se sirve desde el fragmento inicial y continúa por los siguientes,
+     * dando la vuelta al final, y que no se sirve nada si la suma no alcanza.
+     */
+    @Test
+    void testTake() {
+        long[] available = {5, 0, 2, 4};
+
+        assertArrayEquals(new long[]{0, 0, 2, 0}, StockShards.take(available, 2, 2));
+        assertArrayEquals(new long[]{3, 0, 2, 4}, StockShards.take(available, 2, 9));
+        assertNull(StockShards.take(available, 0, 12));
+    }
+}
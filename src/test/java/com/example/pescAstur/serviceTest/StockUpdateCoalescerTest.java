@@ -0,0 +1,164 @@
+package com.example.pescAstur.serviceTest;
+
+import com.example.pescAstur.model.Product;
+import com.example.pescAstur.service.FirestoreService;
+import com.example.pescAstur.service.StockUpdateCoalescer;
+import com.example.pescAstur.service.StockUpdateResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+public class StockUpdateCoalescerTest {
+
+    private static final StockUpdateResult OK = StockUpdateResult.aplicado("ok");
+    private static final StockUpdateResult REJECTED = StockUpdateResult.rechazado("Error: Stock insuficiente");
+
+    private final FirestoreService firestoreService = mock(FirestoreService.class);
+    private StockUpdateCoalescer coalescer;
+
+    @AfterEach
+    void tearDown() {
+        coalescer.stop();
+    }
+
+    private static List<Product> order(String UID) {
+        Product product = new Product();
+        product.setUID(UID);
+        product.setCantidad(1);
+        return List.of(product);
+    }
+
+    /**
+     * Verifica que un pedido que llega con la cola vacía se aplica en el acto, sin esperar a otros.
+     */
+    @Test
+    void testSubmit_LoneOrderAppliedImmediately() throws Exception {
+        coalescer = new StockUpdateCoalescer(firestoreService, true, 1, 32, Duration.ofSeconds(5));
+        when(firestoreService.updateProductStocksGroup(List.of(order("UID1")))).thenReturn(List.of(OK));
+
+        assertEquals(OK, coalescer.submit(order("UID1")).get(5, TimeUnit.SECONDS));
+        verify(firestoreService, times(1)).updateProductStocksGroup(anyList());
+    }
+
+    /**
+     * Verifica que los pedidos que llegan mientras se escribe otro y comparten producto se aplican juntos en un
+     * único grupo, que cada uno recibe su propio resultado y que un pedido de otro producto va en su propio grupo.
+     */
+    @Test
+    void testSubmit_GroupsOverlappingOrders() throws Exception {
+        coalescer = new StockUpdateCoalescer(firestoreService, true, 1, 32, Duration.ofSeconds(5));
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(firestoreService.updateProductStocksGroup(List.of(order("UID0")))).thenAnswer(invocation -> {
+            writing.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return List.of(OK);
+        });
+        when(firestoreService.updateProductStocksGroup(List.of(order("UID1"), order("UID1"))))
+                .thenReturn(List.of(OK, REJECTED));
+        when(firestoreService.updateProductStocksGroup(List.of(order("UID2")))).thenReturn(List.of(OK));
+
+        CompletableFuture<StockUpdateResult> blocking = coalescer.submit(order("UID0"));
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        CompletableFuture<StockUpdateResult> first = coalescer.submit(order("UID1"));
+        CompletableFuture<StockUpdateResult> second = coalescer.submit(order("UID1"));
+        CompletableFuture<StockUpdateResult> third = coalescer.submit(order("UID2"));
+        release.countDown();
+
+        assertEquals(OK, blocking.get(5, TimeUnit.SECONDS));
+        assertEquals(OK, first.get(5, TimeUnit.SECONDS));
+        assertEquals(REJECTED, second.get(5, TimeUnit.SECONDS));
+        assertEquals(OK, third.get(5, TimeUnit.SECONDS));
+        verify(firestoreService, times(1)).updateProductStocksGroup(List.of(order("UID1"), order("UID1")));
+        verify(firestoreService, times(1)).updateProductStocksGroup(List.of(order("UID2")));
+    }
+
+    /**
+     * Verifica que con varios hilos de escritura un pedido de otro producto no espera a que termine
+     * la escritura en curso.
+     */
+    @Test
+    void testSubmit_UnrelatedOrdersInParallel() throws Exception {
+        coalescer = new StockUpdateCoalescer(firestoreService, true, 2, 32, Duration.ofSeconds(5));
+        CountDownLatch release = new CountDownLatch(1);
+        when(firestoreService.updateProductStocksGroup(List.of(order("UID0")))).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return List.of(OK);
+        });
+        when(firestoreService.updateProductStocksGroup(List.of(order("UID1")))).thenReturn(List.of(OK));
+
+        CompletableFuture<StockUpdateResult> blocking = coalescer.submit(order("UID0"));
+
+        assertEquals(OK, coalescer.submit(order("UID1")).get(5, TimeUnit.SECONDS));
+        assertFalse(blocking.isDone());
+        release.countDown();
+        assertEquals(OK, blocking.get(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Verifica que un pedido con una línea vacía se rechaza sin encolarlo y que los hilos de escritura
+     * siguen atendiendo los pedidos siguientes.
+     */
+    @Test
+    void testSubmit_NullLineRejected() throws Exception {
+        coalescer = new StockUpdateCoalescer(firestoreService, true, 1, 32, Duration.ofSeconds(5));
+        when(firestoreService.updateProductStocksGroup(List.of(order("UID1")))).thenReturn(List.of(OK));
+
+        StockUpdateResult rejected = coalescer.submit(Arrays.asList((Product) null)).get(5, TimeUnit.SECONDS);
+
+        assertFalse(rejected.isAplicado());
+        assertFalse(rejected.isReintentable());
+        assertEquals(OK, coalescer.update(order("UID1")));
+    }
+
+    /**
+     * Verifica que si falla el grupo entero sus pedidos se reintentan uno a uno, de modo que el fallo
+     * de uno no arrastra a los demás.
+     */
+    @Test
+    void testSubmit_GroupFailureRetriedAlone() throws Exception {
+        coalescer = new StockUpdateCoalescer(firestoreService, true, 1, 32, Duration.ofSeconds(5));
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Product> bad = List.of(order("UID1").get(0), order("UID2").get(0));
+        when(firestoreService.updateProductStocksGroup(List.of(order("UID0")))).thenAnswer(invocation -> {
+            writing.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return List.of(OK);
+        });
+        when(firestoreService.updateProductStocksGroup(List.of(order("UID1"), bad)))
+                .thenThrow(new IllegalStateException("Documento corrupto"));
+        when(firestoreService.updateProductStocksGroup(List.of(order("UID1")))).thenReturn(List.of(OK));
+        when(firestoreService.updateProductStocksGroup(List.of(bad))).thenThrow(new IllegalStateException("Documento corrupto"));
+
+        coalescer.submit(order("UID0"));
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        CompletableFuture<StockUpdateResult> good = coalescer.submit(order("UID1"));
+        CompletableFuture<StockUpdateResult> failing = coalescer.submit(bad);
+        release.countDown();
+
+        assertEquals(OK, good.get(5, TimeUnit.SECONDS));
+        ExecutionException error = assertThrows(ExecutionException.class, () -> failing.get(5, TimeUnit.SECONDS));
+        assertEquals("Documento corrupto", error.getCause().getMessage());
+    }
+
+    /**
+     * Verifica que sin agrupación cada pedido se aplica directamente.
+     */
+    @Test
+    void testSubmit_WithoutWindow() throws Exception {
+        coalescer = new StockUpdateCoalescer(firestoreService, false, 1, 32, Duration.ofSeconds(5));
+        when(firestoreService.updateProductStocksGroup(List.of(order("UID1")))).thenReturn(List.of(OK));
+
+        assertEquals(OK, coalescer.submit(order("UID1")).get());
+    }
+}